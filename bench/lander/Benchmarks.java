@@ -0,0 +1,32 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line and
+ * always adds the GC profiler, so every run reports allocation rates.
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions options = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Environment steps per second through {@link LanderEnv}, with a simple
+ * controller reading the observation buffer. Finished environments are
+ * reset onto the next seed, as a training loop would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvBenchmark {
+	private static final int ENVS = 1024;
+
+	@Param({"16"})
+	int profilePoints;
+
+	private LanderEnv env;
+	private int[] actions;
+	private long seed;
+
+	@Setup
+	public void setup() {
+		env = new LanderEnv(ENVS, new LanderPhysics(), profilePoints);
+		env.reset(0);
+		seed = ENVS;
+		actions = new int[ENVS];
+	}
+
+	/** One step of every environment; scores are per environment step. */
+	@Benchmark
+	@OperationsPerInvocation(ENVS)
+	public float step() {
+		FloatBuffer obs = env.getObservations();
+		int size = env.getObservationSize();
+		for (int i = 0; i < ENVS; i++) {
+			float vy = obs.get(i * size + LanderEnv.OBS_VY);
+			float altitude = obs.get(i * size + LanderEnv.OBS_ALTITUDE);
+			actions[i] = vy < -(altitude / 8f + 2f) ? LanderEngine.INPUT_MAIN : 0;
+		}
+		env.step(actions);
+		boolean[] done = env.getDone();
+		for (int i = 0; i < ENVS; i++) {
+			if (done[i]) env.reset(i, seed++);
+		}
+		return env.getRewards()[0];
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Load generator for {@link LanderServer}. Opens many connections from one
+ * selector thread; some fly game after game with a simple descent-rate
+ * controller and the rest stay idle. Reports flights, snapshot throughput
+ * and the gaps between snapshots seen by flying clients, which stay near
+ * one tick while the server keeps up.
+ * <p>
+ * Usage: {@code LanderLoadTest [host=localhost] [port=7117] [sessions=1000]
+ * [flying=100] [seconds=30] [embedded=true]}. With embedded=true a server
+ * is started in this JVM on a free port and the host and port are ignored.
+ * Built with the benchmarks: {@code mvn -Pbench package}, then
+ * {@code java -cp target/benchmarks.jar lander.LanderLoadTest}.
+ */
+public class LanderLoadTest {
+	/** connections being opened at once, to stay within the server's accept backlog */
+	private static final int MAX_CONNECTING = 256;
+	/** descent rate aimed for near the ground, in m/s */
+	private static final float LANDING_SPEED = 4f;
+
+	private final Selector selector;
+	private final InetSocketAddress address;
+	private final int nSessions, nFlying;
+	private int nOpened, nConnecting, nConnected;
+	private long nFlights, nSafe, nSnapshots;
+	private final LatencyHistogram gaps = new LatencyHistogram();
+
+	public LanderLoadTest(InetSocketAddress address, int nSessions, int nFlying) throws IOException {
+		this.address = address;
+		this.nSessions = nSessions;
+		this.nFlying = Math.min(nFlying, nSessions);
+		selector = Selector.open();
+	}
+
+	/** Runs the load for the given time, then closes every connection. */
+	public void run(long millis) throws IOException {
+		long end = System.currentTimeMillis() + millis;
+		while (System.currentTimeMillis() < end) {
+			while (nOpened < nSessions && nConnecting < MAX_CONNECTING) open();
+			selector.select(Math.max(1, Math.min(100, end - System.currentTimeMillis())));
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				Client client = (Client)key.attachment();
+				try {
+					if (key.isConnectable()) client.connected();
+					else if (key.isReadable()) client.read();
+				} catch (IOException e) {
+					System.err.println("Connection " + client.nIndex + ": " + e);
+					key.cancel();
+					key.channel().close();
+				}
+			}
+		}
+		for (SelectionKey key : selector.keys()) key.channel().close();
+		selector.close();
+	}
+
+	private void open() throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Client client = new Client(nOpened, channel, nOpened < nFlying);
+		if (channel.connect(address)) {
+			channel.register(selector, SelectionKey.OP_READ, client);
+			client.started();
+		} else {
+			channel.register(selector, SelectionKey.OP_CONNECT, client);
+			nConnecting++;
+		}
+		nOpened++;
+	}
+
+	private class Client {
+		final int nIndex;
+		final SocketChannel channel;
+		final boolean bFlying;
+		private final ByteBuffer in = ByteBuffer.allocate(16 * LanderProtocol.SNAPSHOT_LENGTH);
+		private final ByteBuffer out = ByteBuffer.allocate(2 * LanderProtocol.MAX_REQUEST);
+		private long seed, lastSnapshot;
+		private int inputs;
+
+		Client(int index, SocketChannel channel, boolean bFlying) {
+			nIndex = index;
+			this.channel = channel;
+			this.bFlying = bFlying;
+			seed = (long)index << 32;
+		}
+
+		void connected() throws IOException {
+			channel.finishConnect();
+			nConnecting--;
+			channel.register(selector, SelectionKey.OP_READ, this);
+			started();
+		}
+
+		void started() throws IOException {
+			nConnected++;
+			if (bFlying) newFlight();
+		}
+
+		private void newFlight() throws IOException {
+			out.clear();
+			out.put(LanderProtocol.OP_NEW).putLong(seed++).put(LanderProtocol.OP_LAUNCH);
+			write();
+			inputs = 0;
+			lastSnapshot = 0;
+		}
+
+		void read() throws IOException {
+			if (channel.read(in) < 0) throw new IOException("closed by server");
+			in.flip();
+			while (in.remaining() >= LanderProtocol.SNAPSHOT_LENGTH) snapshot();
+			in.compact();
+		}
+
+		private void snapshot() throws IOException {
+			in.get();
+			int tick = in.getInt();
+			byte state = in.get(), endGame = in.get();
+			in.getFloat();
+			float altitude = in.getFloat();
+			in.getFloat();
+			float vy = in.getFloat();
+			in.getFloat();
+			nSnapshots++;
+			if (tick == 0) return;
+			long now = System.nanoTime();
+			if (lastSnapshot != 0) gaps.record(now - lastSnapshot);
+			lastSnapshot = now;
+			if (state == LanderEngine.LND_INACTIVE) {
+				nFlights++;
+				if (endGame == LanderEngine.END_SAFE) nSafe++;
+				newFlight();
+				return;
+			}
+			// Fire the main engine whenever falling faster than a rate that shrinks with altitude
+			float target = -Math.max(LANDING_SPEED, altitude / 20f);
+			int wanted = vy < target ? LanderEngine.INPUT_MAIN : 0;
+			if (wanted != inputs) {
+				inputs = wanted;
+				out.clear();
+				out.put(LanderProtocol.OP_INPUTS).put((byte)inputs);
+				write();
+			}
+		}
+
+		private void write() throws IOException {
+			out.flip();
+			// Requests are a few bytes, so a full socket buffer means the server has stopped reading
+			while (out.hasRemaining()) {
+				if (channel.write(out) == 0) throw new IOException("server not reading");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = "localhost";
+		int port = LanderProtocol.DEFAULT_PORT, nSessions = 1000, nFlying = 100, seconds = 30;
+		boolean bEmbedded = true;
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + arg);
+			String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+			if (name.equals("host")) host = value;
+			else if (name.equals("port")) port = Integer.parseInt(value);
+			else if (name.equals("sessions")) nSessions = Integer.parseInt(value);
+			else if (name.equals("flying")) nFlying = Integer.parseInt(value);
+			else if (name.equals("seconds")) seconds = Integer.parseInt(value);
+			else if (name.equals("embedded")) bEmbedded = Boolean.parseBoolean(value);
+			else throw new IllegalArgumentException("Unknown option: " + name);
+		}
+		LanderServer server = null;
+		if (bEmbedded) {
+			server = new LanderServer(0, Runtime.getRuntime().availableProcessors());
+			server.start();
+			host = "localhost";
+			port = server.getPort();
+		}
+		LanderLoadTest test = new LanderLoadTest(new InetSocketAddress(host, port), nSessions, nFlying);
+		long start = System.nanoTime();
+		test.run(seconds * 1000L);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d of %d connections opened, %d flying%n", test.nConnected, nSessions, test.nFlying);
+		System.out.printf("%d flights, %d safe, %.0f snapshots/s%n", test.nFlights, test.nSafe, test.nSnapshots / elapsed);
+		test.gaps.print(System.out, "Snapshot gap");
+		if (server != null) {
+			server.printTickTimes();
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of the lander physics, alone and as whole autopilot flights. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsBenchmark {
+	/** thrusters firing, a combination of the LanderEngine.INPUT_* bits */
+	@Param({"0", "7"})
+	int inputs;
+
+	private LanderEngine engine;
+	private LanderController autopilot = new Autopilot();
+	private long seed;
+
+	@Setup
+	public void setup() {
+		engine = new LanderEngine();
+		engine.newGame(1);
+		engine.step(0);
+		engine.setInputs(inputs);
+	}
+
+	@Benchmark
+	public float landerMotion() {
+		engine.setLander(400f, 300f, 1f, -2f, 500f);
+		engine.landerMotion();
+		return engine.getLanderY();
+	}
+
+	/** One tick of Runge-Kutta substeps, high above the ground. */
+	@Benchmark
+	public float adaptiveMotion() {
+		engine.setLander(400f, 300f, 1f, -2f, 500f);
+		engine.adaptiveMotion();
+		return engine.getLanderY();
+	}
+
+	/** One flight from new terrain to touchdown, per operation. */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public byte flight() {
+		FlightEvaluator.fly(engine, autopilot, seed++);
+		return engine.getEndGameState();
+	}
+}
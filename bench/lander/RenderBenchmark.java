@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Frames of {@link LanderView}, and the HUD alone, drawn offscreen into a BufferedImage. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+	private LanderView view;
+	private BufferedImage image;
+	private Graphics2D g2d;
+	private HudRenderer hud;
+	private float value;
+	private ParticleSystem particles;
+	private Ground ground;
+
+	@Setup
+	public void setup() {
+		view = new LanderView();
+		view.tick();
+		image = new BufferedImage(LanderEngine.DEF_WIDTH, LanderEngine.DEF_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		g2d = image.createGraphics();
+		hud = new HudRenderer(null, g2d.getFont(), Color.WHITE, LanderEngine.DEF_WIDTH);
+		particles = new ParticleSystem(2048, Long.MAX_VALUE);
+		LanderEngine engine = new LanderEngine();
+		engine.newGame(1);
+		ground = engine.getGround();
+	}
+
+	@TearDown
+	public void tearDown() {
+		g2d.dispose();
+	}
+
+	/** Frame with everything redrawn, as after the terrain changes. */
+	@Benchmark
+	public BufferedImage frame() {
+		view.getDamage().addSurface();
+		view.drawFrame(g2d, 0.5f);
+		view.getDamage().clear();
+		return image;
+	}
+
+	/** Frame with nothing changed since the last, as while the lander holds or after it lands. */
+	@Benchmark
+	public BufferedImage idleFrame() {
+		view.drawFrame(g2d, 0.5f);
+		view.getDamage().clear();
+		return image;
+	}
+
+	/** Tick and frame of a full particle pool, refilled as particles expire. */
+	@Benchmark
+	public BufferedImage particles() {
+		while (particles.emit(ParticleSystem.EXHAUST, 400f, 300f, 0f, -8f, 4f, 20)) {}
+		particles.update(ground);
+		particles.place(0.5f, 0, LanderEngine.DEF_HEIGHT);
+		particles.draw(g2d);
+		return image;
+	}
+
+	/** HUD with every value changing each frame. */
+	@Benchmark
+	public BufferedImage hud() {
+		value += 0.37f;
+		hud.setValue(HudRenderer.ALTITUDE, 1000f - value);
+		hud.setValue(HudRenderer.VELOCITY_X, value / 100f);
+		hud.setValue(HudRenderer.VELOCITY_Y, -value);
+		hud.setValue(HudRenderer.FUEL, 1000f - value / 10f);
+		hud.draw(g2d);
+		return image;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lander ticks per microsecond for a {@link LanderSwarm} against the same
+ * landers as separate engines. Every operation flies each lander for
+ * {@link #TICKS} ticks from high above the terrain, so none of them land.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwarmBenchmark {
+	private static final int TICKS = 64;
+
+	@Param({"256", "4096"})
+	int count;
+
+	private LanderSwarm swarm;
+	private LanderEngine[] engines;
+	private float yStart;
+
+	@Setup
+	public void setup() {
+		LanderEngine world = new LanderEngine();
+		world.newGame(1);
+		world.step(0);
+		yStart = world.getGroundZero() + 4000f / world.getScale();
+		swarm = new LanderSwarm(world, count);
+		engines = new LanderEngine[count];
+		for (int i = 0; i < count; i++) {
+			engines[i] = new LanderEngine();
+			engines[i].newGame(1);
+			engines[i].step(0);
+			engines[i].setInputs(i & 7);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TICKS)
+	public int swarm() {
+		swarm.clear();
+		for (int i = 0; i < count; i++) {
+			swarm.add(400f, yStart, (i & 15) - 8, 40f, 500f);
+			swarm.setInputs(i, i & 7);
+		}
+		for (int t = 0; t < TICKS; t++) swarm.step();
+		return swarm.getFlying();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TICKS)
+	public int engines() {
+		int flying = 0;
+		for (int i = 0; i < count; i++) {
+			LanderEngine engine = engines[i];
+			engine.setLander(400f, yStart, (i & 15) - 8, 40f, 500f);
+			for (int t = 0; t < TICKS; t++) {
+				engine.landerMotion();
+				if (!engine.contactGround()) flying++;
+			}
+		}
+		return flying;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of generating terrain and of ground contact tests, by terrain size. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerrainBenchmark {
+	/** positions tested per cycle, a power of two */
+	private static final int POSITIONS = 1024;
+
+	/** points across the terrain */
+	@Param({"31", "1000", "100000"})
+	int points;
+
+	private LanderEngine engine;
+	private float[] xs = new float[POSITIONS], ys = new float[POSITIONS];
+	private int next;
+
+	@Setup
+	public void setup() {
+		engine = new LanderEngine();
+		engine.setGroundPoints(points);
+		engine.newGame(1);
+		engine.step(0);
+		Random rand = new Random(1);
+		for (int i = 0; i < POSITIONS; i++) {
+			xs[i] = rand.nextFloat() * LanderEngine.DEF_WIDTH;
+			ys[i] = rand.nextFloat() * LanderEngine.DEF_HEIGHT / 4;
+		}
+	}
+
+	@Benchmark
+	public boolean contactGround() {
+		int i = next++ & (POSITIONS - 1);
+		engine.setLander(xs[i], ys[i], 0f, 0f, 0f);
+		return engine.contactGround();
+	}
+
+	@Benchmark
+	public int createGround() {
+		engine.createGround();
+		return engine.getGroundRevision();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Process-wide cache of decoded images. Images are decoded in parallel on a
+ * pool of daemon threads, each at most once, and shared by every view in the JVM.
+ */
+public final class Assets {
+	private static final ConcurrentMap<String, Future<BufferedImage>> images =
+			new ConcurrentHashMap<String, Future<BufferedImage>>();
+	private static final ExecutorService decoder = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Assets");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		// Resources are small; skip ImageIO's temporary file for stream input
+		ImageIO.setUseCache(false);
+	}
+
+	private Assets() {
+	}
+
+	/** Starts decoding any of the named resources not requested before, without waiting. */
+	public static void preload(String... names) {
+		for (String name : names) request(name);
+	}
+
+	/**
+	 * Gets a decoded image, waiting for it if it is still being decoded.
+	 * @param name resource path, e.g. {@code img/lander.png}
+	 */
+	public static BufferedImage get(String name) throws IOException {
+		try {
+			return request(name).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted loading " + name);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new IOException("Failed to load " + name, e.getCause());
+		}
+	}
+
+	/** @return true if the image has finished decoding, successfully or not */
+	public static boolean isLoaded(String name) {
+		Future<BufferedImage> image = images.get(name);
+		return image != null && image.isDone();
+	}
+
+	private static Future<BufferedImage> request(final String name) {
+		Future<BufferedImage> image = images.get(name);
+		if (image == null) {
+			FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+				@Override
+				public BufferedImage call() throws IOException {
+					return decode(name);
+				}
+			});
+			image = images.putIfAbsent(name, task);
+			if (image == null) {
+				image = task;
+				decoder.execute(task);
+			}
+		}
+		return image;
+	}
+
+	private static BufferedImage decode(String name) throws IOException {
+		InputStream in = Assets.class.getClassLoader().getResourceAsStream(name);
+		if (in == null) throw new FileNotFoundException(name);
+		try {
+			BufferedImage image = ImageIO.read(in);
+			if (image == null) throw new IOException("No decoder for " + name);
+			return image;
+		} finally {
+			in.close();
+		}
+	}
+}
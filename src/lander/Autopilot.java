@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Reference controller: crosses to the landing pad at a safe height, then
+ * descends with a speed proportional to altitude.
+ */
+public class Autopilot implements LanderController {
+	/** fastest horizontal approach to the pad in m/s */
+	private static final float MAX_VX = 15f;
+	/** horizontal speed error tolerated before firing an attitude thruster */
+	private static final float VX_DEADBAND = 0.3f;
+	/** altitude held above the pad until the lander is over it, in meters */
+	private static final float CRUISE_ALTITUDE = 300f;
+	/** fastest descent in m/s */
+	private static final float MAX_DESCENT = 30f;
+
+	@Override
+	public int control(LanderEngine engine) {
+		int inputs = 0;
+		float offset = engine.getPadOffset();
+		float altitude = engine.getAltitude();
+		float vx = engine.getVelocityX(), vy = engine.getVelocityY();
+		float targetVx = Math.max(-MAX_VX, Math.min(MAX_VX, offset / 10f));
+		if (vx < targetVx - VX_DEADBAND) inputs |= LanderEngine.INPUT_LEFT;
+		else if (vx > targetVx + VX_DEADBAND) inputs |= LanderEngine.INPUT_RIGHT;
+		boolean overPad = Math.abs(offset) < engine.getPadWidth() / 4
+				&& Math.abs(vx) < engine.getMaxLandingX() / 2;
+		float targetVy;
+		if (overPad || altitude < 0f) targetVy = -Math.min(altitude / 8f + 2f, MAX_DESCENT);
+		else targetVy = Math.max(-MAX_DESCENT, Math.min(MAX_DESCENT, (CRUISE_ALTITUDE - altitude) / 10f));
+		if (vy < targetVy) inputs |= LanderEngine.INPUT_MAIN;
+		return inputs;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Endless terrain made of fixed-width chunks, each generated on demand from
+ * the world seed and its index, so any chunk can be dropped and regenerated
+ * identically later. The heights where chunks meet are a function of the
+ * boundary index alone, which lets neighbors be generated independently.
+ * <p>
+ * Recently used chunks are kept in a bounded LRU cache. {@link #prefetch(float, float)}
+ * generates the chunks ahead of the lander on a background thread, so the
+ * tick and frame loops find them ready; a chunk that is still missing when it
+ * is needed is generated in place and counted by {@link #getMisses()}.
+ * <p>
+ * Coordinates are world pixels: chunk {@code k} spans {@code k * width} to
+ * {@code (k + 1) * width}. A footprint straddling two chunks is never level.
+ */
+public class ChunkedTerrain implements Ground {
+	/** chunks generated ahead of the lander in its direction of travel */
+	private static final int PREFETCH_AHEAD = 2;
+	private static final long EDGE_SALT = 0x9E3779B97F4A7C15L;
+
+	private final int chunkWidth, nPoints, nSteepness, nPadSize, nMaxHeight;
+	private final Map<Long, Terrain> cache;
+	/** chunks queued for the prefetch thread, guarded by {@link #cache} */
+	private final Set<Long> pending = new HashSet<Long>();
+	private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ChunkedTerrain");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	/** world seed, guarded by {@link #cache} */
+	private long nSeed;
+	private volatile int nMisses;
+
+	/* Last chunk looked up, so runs of queries on one chunk skip the cache; loop thread only */
+	private long nLastIndex;
+	private Terrain lastChunk;
+	/* Chunk and direction of the last prefetch; loop thread only */
+	private long nPrefetchIndex = Long.MIN_VALUE;
+	private int nPrefetchDir;
+
+	/**
+	 * @param chunkWidth width of each chunk in pixels
+	 * @param points outline points per chunk including both ends
+	 * @param steepness maximum y-variation between points
+	 * @param padSize landing pad size in intervals, one pad per chunk
+	 * @param maxHeight maximum height of terrain
+	 * @param capacity chunks kept in the cache
+	 */
+	public ChunkedTerrain(int chunkWidth, int points, int steepness, int padSize, int maxHeight,
+			final int capacity) {
+		this.chunkWidth = chunkWidth;
+		nPoints = points;
+		nSteepness = steepness;
+		nPadSize = padSize;
+		nMaxHeight = maxHeight;
+		cache = new LinkedHashMap<Long, Terrain>(capacity * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Terrain> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/** Switches to the world generated from {@code seed}, dropping all chunks. */
+	public void setSeed(long seed) {
+		synchronized (cache) {
+			nSeed = seed;
+			cache.clear();
+		}
+		lastChunk = null;
+		nPrefetchIndex = Long.MIN_VALUE;
+	}
+
+	public int getChunkWidth() {
+		return chunkWidth;
+	}
+
+	/** @return index of the chunk containing {@code x} */
+	public long chunkOf(float x) {
+		return (long)Math.floor(x / chunkWidth);
+	}
+
+	/** @return chunk {@code index}, in its own coordinates starting at 0 */
+	public Terrain getChunk(long index) {
+		return chunk(index, true);
+	}
+
+	/**
+	 * Gets a chunk needed before anything could have prefetched it, such as
+	 * the home chunk of a new game, without counting a miss.
+	 */
+	public Terrain load(long index) {
+		return chunk(index, false);
+	}
+
+	private Terrain chunk(long index, boolean bCountMiss) {
+		if (lastChunk != null && nLastIndex == index) return lastChunk;
+		Terrain chunk;
+		long seed;
+		synchronized (cache) {
+			chunk = cache.get(index);
+			seed = nSeed;
+		}
+		if (chunk == null) {
+			if (bCountMiss) nMisses++;
+			chunk = generate(seed, index);
+			synchronized (cache) {
+				if (seed == nSeed) cache.put(index, chunk);
+			}
+		}
+		nLastIndex = index;
+		lastChunk = chunk;
+		return chunk;
+	}
+
+	/** @return chunks that had to be generated on the querying thread */
+	public int getMisses() {
+		return nMisses;
+	}
+
+	/**
+	 * Queues generation of the chunks around {@code x} and ahead of it in the
+	 * direction of {@code vx}. Cheap to call every tick: it only does work when
+	 * the lander enters another chunk or turns around.
+	 */
+	public void prefetch(float x, float vx) {
+		long index = chunkOf(x);
+		int dir = vx < 0f ? -1 : 1;
+		if (index == nPrefetchIndex && dir == nPrefetchDir) return;
+		nPrefetchIndex = index;
+		nPrefetchDir = dir;
+		for (int d = -1; d <= PREFETCH_AHEAD; d++) request(index + d * dir);
+	}
+
+	private void request(final long index) {
+		final long seed;
+		synchronized (cache) {
+			if (cache.containsKey(index) || !pending.add(index)) return;
+			seed = nSeed;
+		}
+		prefetcher.execute(new Runnable() {
+			@Override
+			public void run() {
+				Terrain chunk = generate(seed, index);
+				synchronized (cache) {
+					pending.remove(index);
+					if (seed == nSeed && !cache.containsKey(index)) cache.put(index, chunk);
+				}
+			}
+		});
+	}
+
+	private Terrain generate(long seed, long index) {
+		Terrain chunk = new Terrain(chunkWidth);
+		chunk.generateChunk(new Random(mix(seed + index)), nPoints, nSteepness, nPadSize, nMaxHeight,
+				edgeHeight(seed, index), edgeHeight(seed, index + 1));
+		return chunk;
+	}
+
+	/** @return height of the ground where chunk {@code index} meets the one before it */
+	private int edgeHeight(long seed, long index) {
+		return 5 + (int)Math.floorMod(mix((seed ^ EDGE_SALT) + index), (long)(nMaxHeight - 5));
+	}
+
+	/** SplitMix64 finalizer, so neighboring indexes give unrelated seeds. */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public float heightAt(float x) {
+		long index = chunkOf(x);
+		return getChunk(index).heightAt(x - index * chunkWidth);
+	}
+
+	@Override
+	public boolean touches(float left, float right, float y) {
+		long a = chunkOf(left), b = chunkOf(right);
+		if (a == b) return getChunk(a).touches(left - a * chunkWidth, right - a * chunkWidth, y);
+		return getChunk(a).touches(left - a * chunkWidth, chunkWidth, y)
+				|| getChunk(b).touches(0f, right - b * chunkWidth, y);
+	}
+
+	@Override
+	public boolean isLevel(float left, float right) {
+		long a = chunkOf(left);
+		if (a != chunkOf(right)) return false;
+		return getChunk(a).isLevel(left - a * chunkWidth, right - a * chunkWidth);
+	}
+}
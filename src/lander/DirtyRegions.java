@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Rectangles of a surface that need repainting, kept in fixed arrays so
+ * tracking them allocates nothing. Rectangles that overlap, or that lie so
+ * close together that repainting their bounding box costs little more than
+ * repainting both, are merged as they are added. When more than the
+ * capacity remain, they collapse into their bounding box.
+ */
+public class DirtyRegions {
+	/** extra area, in pixels, merging two rectangles may add */
+	private static final int MERGE_SLACK = 512;
+
+	private final int width, height;
+	private final int[] xs, ys, x2s, y2s;
+	private int nCount;
+
+	/**
+	 * @param width width of the surface, rectangles are clipped to it
+	 * @param height height of the surface
+	 * @param capacity most separate rectangles kept
+	 */
+	public DirtyRegions(int width, int height, int capacity) {
+		this.width = width;
+		this.height = height;
+		xs = new int[capacity];
+		ys = new int[capacity];
+		x2s = new int[capacity];
+		y2s = new int[capacity];
+	}
+
+	/** Marks a rectangle as needing repainting; empty or offscreen rectangles are ignored. */
+	public void add(int x, int y, int w, int h) {
+		int x2 = Math.min(x + w, width), y2 = Math.min(y + h, height);
+		x = Math.max(x, 0);
+		y = Math.max(y, 0);
+		if (x >= x2 || y >= y2) return;
+		// Absorb every rectangle this one merges with, growing it each time
+		for (int i = 0; i < nCount; i++) {
+			if (!mergeable(i, x, y, x2, y2)) continue;
+			x = Math.min(x, xs[i]);
+			y = Math.min(y, ys[i]);
+			x2 = Math.max(x2, x2s[i]);
+			y2 = Math.max(y2, y2s[i]);
+			remove(i);
+			i = -1;
+		}
+		if (nCount == xs.length) {
+			for (int i = 0; i < nCount; i++) {
+				x = Math.min(x, xs[i]);
+				y = Math.min(y, ys[i]);
+				x2 = Math.max(x2, x2s[i]);
+				y2 = Math.max(y2, y2s[i]);
+			}
+			nCount = 0;
+		}
+		xs[nCount] = x;
+		ys[nCount] = y;
+		x2s[nCount] = x2;
+		y2s[nCount++] = y2;
+	}
+
+	/** Adds every rectangle of {@code other}. */
+	public void addAll(DirtyRegions other) {
+		for (int i = 0; i < other.nCount; i++)
+			add(other.xs[i], other.ys[i], other.x2s[i] - other.xs[i], other.y2s[i] - other.ys[i]);
+	}
+
+	/** Marks the whole surface. */
+	public void addSurface() {
+		nCount = 0;
+		add(0, 0, width, height);
+	}
+
+	public void clear() {
+		nCount = 0;
+	}
+
+	public boolean isEmpty() {
+		return nCount == 0;
+	}
+
+	/** @return whether the whole surface is marked */
+	public boolean isSurface() {
+		return nCount == 1 && xs[0] == 0 && ys[0] == 0 && x2s[0] == width && y2s[0] == height;
+	}
+
+	public int size() {
+		return nCount;
+	}
+
+	public int getX(int i) {
+		return xs[i];
+	}
+
+	public int getY(int i) {
+		return ys[i];
+	}
+
+	public int getWidth(int i) {
+		return x2s[i] - xs[i];
+	}
+
+	public int getHeight(int i) {
+		return y2s[i] - ys[i];
+	}
+
+	/** @return pixels covered, counting overlaps once per rectangle */
+	public long getArea() {
+		long area = 0;
+		for (int i = 0; i < nCount; i++) area += (long)(x2s[i] - xs[i]) * (y2s[i] - ys[i]);
+		return area;
+	}
+
+	private boolean mergeable(int i, int x, int y, int x2, int y2) {
+		int ux = Math.min(x, xs[i]), uy = Math.min(y, ys[i]);
+		int ux2 = Math.max(x2, x2s[i]), uy2 = Math.max(y2, y2s[i]);
+		long union = (long)(ux2 - ux) * (uy2 - uy);
+		long separate = (long)(x2 - x) * (y2 - y) + (long)(x2s[i] - xs[i]) * (y2s[i] - ys[i]);
+		return union <= separate + MERGE_SLACK;
+	}
+
+	private void remove(int i) {
+		nCount--;
+		xs[i] = xs[nCount];
+		ys[i] = ys[nCount];
+		x2s[i] = x2s[nCount];
+		y2s[i] = y2s[nCount];
+	}
+}
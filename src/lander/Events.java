@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for the game's hot paths. They cost next to nothing
+ * unless a recording has them enabled, for example with
+ * {@code -XX:StartFlightRecording:filename=lander.jfr}.
+ */
+final class Events {
+	private Events() {}
+
+	@Name("lander.Tick")
+	@Label("Physics Tick")
+	@Description("One step of the lander motion")
+	@Category("Lander")
+	@StackTrace(false)
+	static final class Tick extends Event {
+		@Label("X")
+		float x;
+		@Label("Y")
+		float y;
+		@Label("Fuel")
+		float fuel;
+	}
+
+	@Name("lander.Contact")
+	@Label("Ground Contact Test")
+	@Category("Lander")
+	@StackTrace(false)
+	static final class Contact extends Event {
+		@Label("Touching")
+		boolean touching;
+	}
+
+	@Name("lander.CreateGround")
+	@Label("Terrain Generation")
+	@Category("Lander")
+	@StackTrace(false)
+	static final class CreateGround extends Event {
+		@Label("Points")
+		int points;
+		@Label("Wide World")
+		boolean world;
+	}
+
+	@Name("lander.Paint")
+	@Label("Paint")
+	@Description("Drawing one frame into the back buffer")
+	@Category("Lander")
+	@StackTrace(false)
+	static final class Paint extends Event {
+	}
+
+	@Name("lander.StateChange")
+	@Label("Lander State Change")
+	@Category("Lander")
+	@StackTrace(false)
+	static final class StateChange extends Event {
+		@Label("From")
+		byte from;
+		@Label("To")
+		byte to;
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the altitude, velocity, fuel and thrusters of every flight tick to
+ * a file, for plotting and analysis.
+ * <p>
+ * The game loop writes each tick into a preallocated ring of primitive
+ * columns and returns; a background thread drains the ring to the file, so
+ * recording never allocates, locks or waits on the disk; the ring is kept
+ * by {@link RingCounters}. If the disk falls behind and the ring fills up, ticks are
+ * recorded more sparsely rather than the game waiting: from half full every
+ * second tick, then every fourth and so on. The tick that ends a flight,
+ * the first one stepped out of LND_ACTIVE, is never thinned out and has the
+ * ring's last slot kept for it, so it is only lost if that slot still holds
+ * the end of an earlier flight. The tick column shows where rows were skipped.
+ * <p>
+ * A file named {@code *.csv} is written as text with a header line.
+ * Otherwise it is columnar: blocks of up to {@link #BLOCK_ROWS} rows, each
+ * <pre>
+ * int     magic "LNFD"
+ * int     rows
+ * int[]   flight
+ * int[]   tick
+ * float[] altitude, velocity x, velocity y, fuel
+ * byte[]  inputs, the LanderEngine.INPUT_* bits
+ * </pre>
+ * so a reader can map a block and use each column as an array.
+ */
+public class FlightDataRecorder implements Closeable {
+	public static final int MAGIC = 0x4C4E4644;
+	/** rows in a columnar block, at most */
+	public static final int BLOCK_ROWS = 4096;
+	/** ticks the ring holds by default, over 3 minutes of flying */
+	public static final int DEFAULT_CAPACITY = 4096;
+	/** longest the writer sleeps before draining the ring */
+	private static final long DRAIN_NANOS = 200 * 1000000L;
+	private static final int MAX_STRIDE = 16;
+	/** longest row of text */
+	private static final int MAX_CSV_ROW = 128;
+	private static final String CSV_HEADER = "flight,tick,altitude,vx,vy,fuel,inputs\n";
+
+	private final FileChannel channel;
+	private final boolean bCsv;
+	/** rows written into the ring by the game loop, and rows taken out by the writer */
+	private final RingCounters ring;
+	private final int[] flights, ticks;
+	private final float[] altitudes, vxs, vys, fuels;
+	private final byte[] inputs;
+	/** written by the game loop only */
+	private long nOffered, nSkipped;
+	/** whether the engine was flying at the last tick offered; game loop only */
+	private boolean bWasActive;
+	private volatile boolean bClosed;
+	private final Thread writer;
+
+	public FlightDataRecorder(File file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/** @param capacity ticks the ring holds, rounded up to a power of two */
+	public FlightDataRecorder(File file, int capacity) throws IOException {
+		ring = new RingCounters(capacity);
+		int size = ring.size();
+		flights = new int[size];
+		ticks = new int[size];
+		altitudes = new float[size];
+		vxs = new float[size];
+		vys = new float[size];
+		fuels = new float[size];
+		inputs = new byte[size];
+		bCsv = file.getName().toLowerCase().endsWith(".csv");
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "FlightDataRecorder");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Records {@code engine} as stepped through tick {@code tick} of flight
+	 * {@code flight} with {@code inputs}. Only the game loop may call this.
+	 * @return false if the tick was skipped to let the writer catch up
+	 */
+	public boolean record(int flight, int tick, LanderEngine engine, int inputs) {
+		nOffered++;
+		long head = ring.head();
+		int used = ring.used();
+		int stride = strideFor(used);
+		boolean bActive = engine.getState() == LanderEngine.LND_ACTIVE;
+		boolean bEnd = bWasActive && !bActive;
+		bWasActive = bActive;
+		// The last slot is kept for the end of a flight
+		if (used > ring.nMask || (!bEnd && (used == ring.nMask || tick % stride != 0))) {
+			nSkipped++;
+			return false;
+		}
+		int i = ring.index(head);
+		flights[i] = flight;
+		ticks[i] = tick;
+		altitudes[i] = engine.getAltitude();
+		vxs[i] = engine.getVelocityX();
+		vys[i] = engine.getVelocityY();
+		fuels[i] = engine.getFuel();
+		this.inputs[i] = (byte)inputs;
+		ring.setHead(head + 1);
+		if (used == ring.size() / 2) LockSupport.unpark(writer);
+		return true;
+	}
+
+	/** @return record every this many ticks with {@code used} rows of the ring waiting */
+	private int strideFor(int used) {
+		// Double the stride at each of 1/2, 3/4, 7/8... full
+		int stride = 1, free = ring.size() - used;
+		while (stride < MAX_STRIDE && free <= ring.size() / (2 * stride)) stride *= 2;
+		return stride;
+	}
+
+	/** Ticks offered to {@link #record}; read on the game loop only. */
+	public long getOffered() {
+		return nOffered;
+	}
+
+	/** Ticks skipped because the writer was behind; read on the game loop only. */
+	public long getSkipped() {
+		return nSkipped;
+	}
+
+	private void drain() {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		ByteBuffer[] columns = new ByteBuffer[] {header,
+				ByteBuffer.allocate(4 * BLOCK_ROWS), ByteBuffer.allocate(4 * BLOCK_ROWS),
+				ByteBuffer.allocate(4 * BLOCK_ROWS), ByteBuffer.allocate(4 * BLOCK_ROWS),
+				ByteBuffer.allocate(4 * BLOCK_ROWS), ByteBuffer.allocate(4 * BLOCK_ROWS),
+				ByteBuffer.allocate(BLOCK_ROWS)};
+		ByteBuffer text = ByteBuffer.allocate(64 * BLOCK_ROWS);
+		StringBuilder row = new StringBuilder(64);
+		try {
+			if (bCsv && channel.size() == 0) {
+				putAscii(text, CSV_HEADER);
+				write(text);
+			}
+			while (true) {
+				boolean bFinal = bClosed;
+				long tail = ring.tail(), head = ring.head();
+				while (tail < head) {
+					int rows = (int)Math.min(head - tail, BLOCK_ROWS);
+					if (bCsv) {
+						for (long r = tail; r < tail + rows; r++) {
+							int i = ring.index(r);
+							row.setLength(0);
+							row.append(flights[i]).append(',').append(ticks[i]).append(',')
+									.append(altitudes[i]).append(',').append(vxs[i]).append(',')
+									.append(vys[i]).append(',').append(fuels[i]).append(',')
+									.append(inputs[i]).append('\n');
+							putAscii(text, row);
+							if (text.remaining() < MAX_CSV_ROW) write(text);
+						}
+					} else {
+						for (int c = 0; c < columns.length; c++) columns[c].clear();
+						header.putInt(MAGIC).putInt(rows);
+						for (long r = tail; r < tail + rows; r++) {
+							int i = ring.index(r);
+							columns[1].putInt(flights[i]);
+							columns[2].putInt(ticks[i]);
+							columns[3].putFloat(altitudes[i]);
+							columns[4].putFloat(vxs[i]);
+							columns[5].putFloat(vys[i]);
+							columns[6].putFloat(fuels[i]);
+							columns[7].put(inputs[i]);
+						}
+					}
+					// The rows are copied out, so the game loop may reuse their slots
+					tail += rows;
+					ring.setTail(tail);
+					if (bCsv) write(text);
+					else write(columns);
+				}
+				if (bFinal) return;
+				LockSupport.parkNanos(this, DRAIN_NANOS);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void putAscii(ByteBuffer buf, CharSequence s) {
+		for (int i = 0; i < s.length(); i++) buf.put((byte)s.charAt(i));
+	}
+
+	private void write(ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) channel.write(buf);
+		buf.clear();
+	}
+
+	private void write(ByteBuffer[] bufs) throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buf : bufs) {
+			buf.flip();
+			remaining += buf.remaining();
+		}
+		while (remaining > 0) remaining -= channel.write(bufs);
+	}
+
+	/** Waits for the recorded ticks to be written, then closes the file. */
+	@Override
+	public void close() throws IOException {
+		bClosed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(60000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted writing flight data");
+		} finally {
+			channel.close();
+		}
+	}
+}
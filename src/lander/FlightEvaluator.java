@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Flies a controller over a range of seeded terrains, split across all cores
+ * with fork/join, and aggregates the outcomes into {@link FlightStats}.
+ * <p>
+ * Usage: {@code FlightEvaluator [seeds=FIRST:COUNT] [dt=SECONDS] [adaptive=true]
+ * [name=value ...]} where each name is one of {@link LanderPhysics#NAMES}.
+ */
+public class FlightEvaluator {
+	/** seeds flown by one task before it stops splitting */
+	private static final int SEEDS_PER_TASK = 64;
+	/** ticks after which a flight is abandoned as unfinished */
+	static final int MAX_TICKS = 100000;
+
+	private final ForkJoinPool pool;
+	private final LanderPhysics physics;
+	private final LanderController controller;
+	/** time step of each flight in seconds, or 0 for the engine's default */
+	private float dt;
+	private boolean bAdaptive;
+
+	public FlightEvaluator(LanderController controller, LanderPhysics physics) {
+		this(controller, physics, new ForkJoinPool());
+	}
+
+	public FlightEvaluator(LanderController controller, LanderPhysics physics, ForkJoinPool pool) {
+		this.controller = controller;
+		this.physics = physics.copy();
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets how flights are integrated.
+	 * @param dt time step in seconds, or 0 for the engine's default
+	 * @see LanderEngine#setAdaptive(boolean)
+	 */
+	public void setIntegration(float dt, boolean bAdaptive) {
+		this.dt = dt;
+		this.bAdaptive = bAdaptive;
+	}
+
+	/** Flies seeds {@code firstSeed} to {@code firstSeed + count - 1}. */
+	public FlightStats evaluate(long firstSeed, long count) {
+		return pool.invoke(task(firstSeed, count));
+	}
+
+	/** @return a task flying seeds {@code firstSeed} to {@code firstSeed + count - 1}, to fork from another task */
+	RecursiveTask<FlightStats> task(long firstSeed, long count) {
+		return new SeedRange(firstSeed, firstSeed + count);
+	}
+
+	/**
+	 * Flies one game from launch until its outcome is known.
+	 * The engine is left stopped with the result readable from it.
+	 */
+	static void fly(LanderEngine engine, LanderController controller, long seed) {
+		engine.newGame(seed);
+		engine.step(0);
+		engine.launch();
+		for (int i = 0; i < MAX_TICKS && !engine.isFinished(); i++) {
+			engine.step(controller.control(engine));
+		}
+	}
+
+	private class SeedRange extends RecursiveTask<FlightStats> {
+		private static final long serialVersionUID = 1L;
+		private final long from, to;
+
+		SeedRange(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected FlightStats compute() {
+			if (to - from <= SEEDS_PER_TASK) {
+				FlightStats stats = new FlightStats();
+				LanderEngine engine = new LanderEngine();
+				engine.setPhysics(physics);
+				if (dt > 0f) engine.setTimeStep(dt);
+				engine.setAdaptive(bAdaptive);
+				for (long seed = from; seed < to; seed++) {
+					fly(engine, controller, seed);
+					stats.add(engine);
+				}
+				return stats;
+			}
+			long mid = from + (to - from) / 2;
+			SeedRange left = new SeedRange(from, mid);
+			left.fork();
+			FlightStats right = new SeedRange(mid, to).compute();
+			return right.merge(left.join());
+		}
+	}
+
+	public static void main(String[] args) {
+		long firstSeed = 0, count = 10000;
+		float dt = 0f;
+		boolean bAdaptive = false;
+		LanderPhysics physics = new LanderPhysics();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + arg);
+			String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+			if (name.equals("seeds")) {
+				int colon = value.indexOf(':');
+				firstSeed = Long.parseLong(value.substring(0, colon));
+				count = Long.parseLong(value.substring(colon + 1));
+			} else if (name.equals("dt")) dt = Float.parseFloat(value);
+			else if (name.equals("adaptive")) bAdaptive = Boolean.parseBoolean(value);
+			else physics.set(name, Float.parseFloat(value));
+		}
+		FlightEvaluator evaluator = new FlightEvaluator(new Autopilot(), physics);
+		evaluator.setIntegration(dt, bAdaptive);
+		long start = System.nanoTime();
+		FlightStats stats = evaluator.evaluate(firstSeed, count);
+		long elapsed = System.nanoTime() - start;
+		System.out.println(physics);
+		System.out.print(stats);
+		System.out.printf("%d flights in %.2f s on %d threads%n", stats.getFlights(),
+				elapsed / 1e9, evaluator.pool.getParallelism());
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * What a renderer needs to draw one flight at one tick. Instances are
+ * reused: {@link #capture(int, int, LanderEngine, int)} and
+ * {@link TelemetryReader#next(FlightSnapshot)} overwrite every field.
+ */
+public final class FlightSnapshot {
+	/** identifies the flight within a stream */
+	int nFlight;
+	int nTick;
+	/** terrain seed, see {@link LanderEngine#newGame(long)} */
+	long nSeed;
+	/** lander state, one of the LanderEngine.LND_* values */
+	byte byState;
+	/** sprite, see {@link LanderEngine#getSprite()} */
+	int nSprite;
+	/** thrusters firing, a combination of the LanderEngine.INPUT_* bits */
+	int nInputs;
+	/** position in screen pixels (0 at bottom) */
+	float landerX, landerY;
+	/** velocity in m/s */
+	float landerVx, landerVy;
+	float fFuel;
+
+	/** Copies the state of {@code engine}, about to be stepped with or just stepped with {@code inputs}. */
+	public void capture(int flight, int tick, LanderEngine engine, int inputs) {
+		nFlight = flight;
+		nTick = tick;
+		nSeed = engine.getSeed();
+		byState = engine.getState();
+		nSprite = engine.getSprite();
+		nInputs = inputs;
+		landerX = engine.getLanderX();
+		landerY = engine.getLanderY();
+		landerVx = engine.getVelocityX();
+		landerVy = engine.getVelocityY();
+		fFuel = engine.getFuel();
+	}
+
+	/** Copies every field of {@code other}. */
+	public void set(FlightSnapshot other) {
+		nFlight = other.nFlight;
+		nTick = other.nTick;
+		nSeed = other.nSeed;
+		byState = other.byState;
+		nSprite = other.nSprite;
+		nInputs = other.nInputs;
+		landerX = other.landerX;
+		landerY = other.landerY;
+		landerVx = other.landerVx;
+		landerVy = other.landerVy;
+		fFuel = other.fFuel;
+	}
+
+	/**
+	 * Puts {@code engine} in this state, generating the terrain first if the
+	 * engine is on other terrain, so a view drawing the engine shows the
+	 * flight as it was. The engine must have the recorded field size.
+	 */
+	public void applyTo(LanderEngine engine) {
+		if (engine.getSeed() != nSeed || engine.getState() == LanderEngine.LND_NEW) {
+			engine.newGame(nSeed);
+			engine.step(0);
+		}
+		engine.restore(byState, nSprite, landerX, landerY, landerVx, landerVy, fFuel);
+	}
+
+	public int getFlight() {
+		return nFlight;
+	}
+
+	public int getTick() {
+		return nTick;
+	}
+
+	public long getSeed() {
+		return nSeed;
+	}
+
+	public byte getState() {
+		return byState;
+	}
+
+	public int getInputs() {
+		return nInputs;
+	}
+
+	public float getLanderX() {
+		return landerX;
+	}
+
+	public float getLanderY() {
+		return landerY;
+	}
+
+	public float getVelocityX() {
+		return landerVx;
+	}
+
+	public float getVelocityY() {
+		return landerVy;
+	}
+
+	public float getFuel() {
+		return fFuel;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Aggregate outcome of a batch of flights.
+ * Not thread-safe; combine per-thread instances with {@link #merge(FlightStats)}.
+ */
+public class FlightStats {
+	/** flights by LanderEngine.END_* reason; index 0 counts flights that never finished */
+	private final long[] nEndCounts = new long[LanderEngine.END_ABOUT + 1];
+	private long nFlights, nTouchdowns;
+	private double sumFuel, sumTouchdownTime;
+	private float minFuel = Float.MAX_VALUE, maxFuel;
+	private float minTouchdownTime = Float.MAX_VALUE, maxTouchdownTime;
+
+	/** Records the outcome of a flight that has stopped stepping. */
+	public void add(LanderEngine engine) {
+		byte end = engine.getEndGameState();
+		float fuel = engine.getFuel();
+		nFlights++;
+		nEndCounts[end]++;
+		sumFuel += fuel;
+		minFuel = Math.min(minFuel, fuel);
+		maxFuel = Math.max(maxFuel, fuel);
+		if (end != 0 && end != LanderEngine.END_OUTOFRANGE) {
+			float time = engine.getFlightTime();
+			nTouchdowns++;
+			sumTouchdownTime += time;
+			minTouchdownTime = Math.min(minTouchdownTime, time);
+			maxTouchdownTime = Math.max(maxTouchdownTime, time);
+		}
+	}
+
+	/** Adds the flights recorded in {@code other} to this. */
+	public FlightStats merge(FlightStats other) {
+		for (int i = 0; i < nEndCounts.length; i++) nEndCounts[i] += other.nEndCounts[i];
+		nFlights += other.nFlights;
+		nTouchdowns += other.nTouchdowns;
+		sumFuel += other.sumFuel;
+		sumTouchdownTime += other.sumTouchdownTime;
+		minFuel = Math.min(minFuel, other.minFuel);
+		maxFuel = Math.max(maxFuel, other.maxFuel);
+		minTouchdownTime = Math.min(minTouchdownTime, other.minTouchdownTime);
+		maxTouchdownTime = Math.max(maxTouchdownTime, other.maxTouchdownTime);
+		return this;
+	}
+
+	public long getFlights() {
+		return nFlights;
+	}
+
+	/** @param end one of the LanderEngine.END_* reasons, or 0 for unfinished flights */
+	public long getCount(byte end) {
+		return nEndCounts[end];
+	}
+
+	/** @return fraction of flights that landed safely */
+	public double getSafeRatio() {
+		return nFlights == 0 ? 0 : (double)nEndCounts[LanderEngine.END_SAFE] / nFlights;
+	}
+
+	public double getMeanFuel() {
+		return nFlights == 0 ? 0 : sumFuel / nFlights;
+	}
+
+	/** @return mean simulated seconds from launch to touching the ground */
+	public double getMeanTouchdownTime() {
+		return nTouchdowns == 0 ? 0 : sumTouchdownTime / nTouchdowns;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("flights: ").append(nFlights).append('\n');
+		appendCount(sb, "safe", LanderEngine.END_SAFE);
+		appendCount(sb, "crash, vertical velocity", LanderEngine.END_CRASHV);
+		appendCount(sb, "crash, horizontal velocity", LanderEngine.END_CRASHH);
+		appendCount(sb, "crash, missed landing site", LanderEngine.END_CRASHS);
+		appendCount(sb, "out of range", LanderEngine.END_OUTOFRANGE);
+		if (nEndCounts[0] > 0) appendCount(sb, "unfinished", (byte)0);
+		if (nFlights > 0) {
+			sb.append(String.format("fuel left: mean %.2f, min %.2f, max %.2f kg%n",
+					getMeanFuel(), minFuel, maxFuel));
+		}
+		if (nTouchdowns > 0) {
+			sb.append(String.format("time to touchdown: mean %.2f, min %.2f, max %.2f s%n",
+					getMeanTouchdownTime(), minTouchdownTime, maxTouchdownTime));
+		}
+		return sb.toString();
+	}
+
+	private void appendCount(StringBuilder sb, String label, byte end) {
+		sb.append(String.format("%-28s %10d  %6.2f%%%n", label + ':', nEndCounts[end],
+				nFlights == 0 ? 0 : 100.0 * nEndCounts[end] / nFlights));
+	}
+}
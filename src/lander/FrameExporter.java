@@ -0,0 +1,372 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders flights offscreen into frames, for training material and bug
+ * reports, at any size and frame rate and without a display.
+ * <p>
+ * The caller simulates on its own thread and hands over each tick as a
+ * {@link FlightSnapshot}. Frames are drawn by {@link LanderView} itself, one
+ * per worker thread, through {@link LanderView#drawFrame(Graphics2D, float)}
+ * into a BufferedImage, and encoded on the workers too. A writer thread
+ * takes the frames in order and writes them either as numbered PNG files or
+ * as one stream of raw 24-bit RGB frames that a video encoder can read. At
+ * most a few frames per worker are in flight: beyond that, adding a tick
+ * waits for the writer, so memory stays bounded however fast the
+ * simulation runs.
+ * <p>
+ * Usage: {@code FrameExporter (replays=FILE [first=N] [count=N] | seeds=FIRST:COUNT)
+ * out=DIR|FILE.rgb|- [width=800] [height=500] [fps=30] [threads=N]}.
+ * Seeds are flown by the autopilot. With a raw stream, for example:
+ * {@code ffmpeg -f rawvideo -pix_fmt rgb24 -s 800x500 -r 30 -i flight.rgb flight.mp4}
+ */
+public class FrameExporter {
+	/** frames in flight for each worker */
+	private static final int FRAMES_PER_WORKER = 4;
+	/** ticks the last state of a flight is held for */
+	private static final int END_TICKS = 20;
+
+	private final int width, height, fps;
+	private final File dir;
+	private final OutputStream raw;
+	private final ExecutorService workers;
+	/** frames being rendered, in order, for the writer */
+	private final ArrayBlockingQueue<Future<byte[]>> pending;
+	private final Thread writer;
+	/** marks the end of the frames for the writer */
+	private final FutureTask<byte[]> end = new FutureTask<byte[]>(new Callable<byte[]>() {
+		@Override
+		public byte[] call() {
+			return null;
+		}
+	});
+	private volatile IOException failure;
+	private final ThreadLocal<Renderer> renderers = new ThreadLocal<Renderer>() {
+		@Override
+		protected Renderer initialValue() {
+			return new Renderer();
+		}
+	};
+
+	private FlightSnapshot last;
+	/** ticks added so far, and frames started */
+	private long nTicks, nFrames;
+	private int nFlights, nWritten;
+
+	/**
+	 * @param dir directory to write numbered PNG files to, or null to write raw frames to {@code raw}
+	 * @param raw stream for raw RGB frames if {@code dir} is null; closed with the exporter
+	 * @param threads worker threads rendering and encoding frames
+	 */
+	public FrameExporter(File dir, OutputStream raw, int width, int height, int fps, int threads) {
+		this.dir = dir;
+		this.raw = raw;
+		this.width = width;
+		this.height = height;
+		this.fps = fps;
+		pending = new ArrayBlockingQueue<Future<byte[]>>(FRAMES_PER_WORKER * threads);
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int nCreated;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "FrameExporter " + nCreated++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		writer = new Thread("FrameExporter writer") {
+			@Override
+			public void run() {
+				write();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/** Starts a flight on {@code engine}, just launched or about to be. */
+	public void begin(LanderEngine engine) throws IOException {
+		last = new FlightSnapshot();
+		last.capture(++nFlights, 0, engine, 0);
+	}
+
+	/**
+	 * Adds the tick {@code engine} was just stepped through, queueing the
+	 * frames that fall within it; waits if the workers are behind.
+	 * @param inputs thrusters fired in the tick
+	 */
+	public void tick(LanderEngine engine, int inputs) throws IOException {
+		FlightSnapshot current = new FlightSnapshot();
+		current.capture(last.getFlight(), last.getTick() + 1, engine, inputs);
+		add(current);
+	}
+
+	/** Holds the last state of the flight on screen for a second. */
+	public void finish() throws IOException {
+		for (int i = 0; i < END_TICKS; i++) {
+			FlightSnapshot current = new FlightSnapshot();
+			current.set(last);
+			current.nTick++;
+			current.landerVx = current.landerVy = 0f;
+			add(current);
+		}
+	}
+
+	private void add(FlightSnapshot current) throws IOException {
+		if (failure != null) throw failure;
+		// Frames showing times in [nTicks, nTicks + 1) ticks
+		long frameEnd = (nTicks + 1) * LanderEngine.TICK_MILLIS * fps;
+		for (; nFrames * 1000 < frameEnd; nFrames++) {
+			float alpha = (nFrames * 1000 - nTicks * LanderEngine.TICK_MILLIS * fps)
+					/ (float)(LanderEngine.TICK_MILLIS * fps);
+			if (!queue(workers.submit(new FrameTask(last, current, alpha, nTicks % 2 == 1)))) throw failure;
+		}
+		nTicks++;
+		last = current;
+	}
+
+	/**
+	 * Hands a frame to the writer, waiting for room.
+	 * @return false if the writer has failed, and will take no more frames
+	 */
+	private boolean queue(Future<byte[]> frame) throws IOException {
+		try {
+			while (!pending.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+				if (failure != null) return false;
+			}
+			return failure == null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted exporting frames");
+		}
+	}
+
+	/** Waits for every frame to be written, then closes the output. */
+	public void close() throws IOException {
+		try {
+			queue(end);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted exporting frames");
+		} finally {
+			workers.shutdownNow();
+			if (raw != null) raw.close();
+		}
+		if (failure != null) throw failure;
+	}
+
+	/** @return frames written so far */
+	public int getFramesWritten() {
+		return nWritten;
+	}
+
+	private void write() {
+		try {
+			while (true) {
+				Future<byte[]> frame = pending.take();
+				if (frame == end) return;
+				byte[] data = frame.get();
+				if (dir == null) raw.write(data);
+				else {
+					OutputStream out = new FileOutputStream(new File(dir, String.format("frame%06d.png", nWritten)));
+					try {
+						out.write(data);
+					} finally {
+						out.close();
+					}
+				}
+				nWritten++;
+			}
+		} catch (InterruptedException e) {
+			failure = new InterruptedIOException("Interrupted writing frames");
+		} catch (ExecutionException e) {
+			failure = new IOException("Failed to render a frame", e.getCause());
+		} catch (IOException e) {
+			failure = e;
+		} finally {
+			// Unblock the simulation if it is waiting to queue a frame
+			pending.clear();
+		}
+	}
+
+	/** Draws one frame between two ticks on a worker. */
+	private class FrameTask implements Callable<byte[]> {
+		private final FlightSnapshot previous, current;
+		private final float alpha;
+		private final boolean bFlames;
+
+		FrameTask(FlightSnapshot previous, FlightSnapshot current, float alpha, boolean bFlames) {
+			this.previous = previous;
+			this.current = current;
+			this.alpha = alpha;
+			this.bFlames = bFlames;
+		}
+
+		@Override
+		public byte[] call() throws IOException {
+			return renderers.get().render(this);
+		}
+	}
+
+	/** A worker's own view and image, since a view draws one frame at a time. */
+	private class Renderer {
+		private final LanderView view = new LanderView();
+		private final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		private final Graphics2D g2d = image.createGraphics();
+		private final ByteArrayOutputStream png = new ByteArrayOutputStream();
+
+		Renderer() {
+			Dimension size = view.getPreferredSize();
+			if (size.width != width || size.height != height) {
+				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+				g2d.scale(width / (double)size.width, height / (double)size.height);
+			}
+		}
+
+		byte[] render(FrameTask task) throws IOException {
+			view.show(task.previous, task.current, task.bFlames);
+			view.drawFrame(g2d, task.alpha);
+			view.getDamage().clear();
+			if (dir != null) {
+				png.reset();
+				ImageIO.write(image, "png", png);
+				return png.toByteArray();
+			}
+			int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+			byte[] rgb = new byte[3 * pixels.length];
+			for (int i = 0, j = 0; i < pixels.length; i++) {
+				rgb[j++] = (byte)(pixels[i] >> 16);
+				rgb[j++] = (byte)(pixels[i] >> 8);
+				rgb[j++] = (byte)pixels[i];
+			}
+			return rgb;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String replays = null, seeds = null, out = null;
+		int first = 0, count = Integer.MAX_VALUE;
+		int width = LanderEngine.DEF_WIDTH, height = LanderEngine.DEF_HEIGHT, fps = 30;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + arg);
+			String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+			if (name.equals("replays")) replays = value;
+			else if (name.equals("first")) first = Integer.parseInt(value);
+			else if (name.equals("count")) count = Integer.parseInt(value);
+			else if (name.equals("seeds")) seeds = value;
+			else if (name.equals("out")) out = value;
+			else if (name.equals("width")) width = Integer.parseInt(value);
+			else if (name.equals("height")) height = Integer.parseInt(value);
+			else if (name.equals("fps")) fps = Integer.parseInt(value);
+			else if (name.equals("threads")) threads = Integer.parseInt(value);
+			else throw new IllegalArgumentException("Unknown option: " + name);
+		}
+		if (out == null || (replays == null) == (seeds == null)) {
+			System.err.println("Usage: FrameExporter (replays=FILE [first=N] [count=N] | seeds=FIRST:COUNT)"
+					+ " out=DIR|FILE.rgb|- [width=800] [height=500] [fps=30] [threads=N]");
+			System.exit(2);
+		}
+		File dir = null;
+		OutputStream raw = null;
+		if (out.equals("-")) raw = new BufferedOutputStream(System.out, 1 << 16);
+		else if (out.endsWith(".rgb")) raw = new BufferedOutputStream(new FileOutputStream(out), 1 << 16);
+		else {
+			dir = new File(out);
+			if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+		}
+		long start = System.nanoTime();
+		FrameExporter exporter = new FrameExporter(dir, raw, width, height, fps, threads);
+		try {
+			if (replays != null) exportReplays(exporter, new File(replays), first, count);
+			else {
+				int colon = seeds.indexOf(':');
+				long firstSeed = Long.parseLong(seeds.substring(0, colon));
+				exportSeeds(exporter, firstSeed, Long.parseLong(seeds.substring(colon + 1)));
+			}
+		} finally {
+			exporter.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d frames of %dx%d in %.2f s, %.1f frames/s with %d threads%n",
+				exporter.getFramesWritten(), width, height, seconds, exporter.getFramesWritten() / seconds, threads);
+	}
+
+	private static void exportReplays(FrameExporter exporter, File file, int first, int count) throws IOException {
+		ReplayArchive archive = new ReplayArchive(file);
+		try {
+			Replay replay;
+			for (int i = 0; i < first + count && (replay = archive.next()) != null; i++) {
+				if (i < first) continue;
+				LanderEngine engine = replay.createEngine();
+				exporter.begin(engine);
+				for (int tick = 0; tick < FlightEvaluator.MAX_TICKS && engine.getState() != LanderEngine.LND_INACTIVE; tick++) {
+					if (tick < replay.getTicks()) replay.step(engine, tick);
+					else engine.step(0);
+					exporter.tick(engine, tick < replay.getTicks() ? replay.getInput(tick) : 0);
+				}
+				exporter.finish();
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
+	private static void exportSeeds(FrameExporter exporter, long firstSeed, long count) throws IOException {
+		LanderEngine engine = new LanderEngine();
+		Autopilot autopilot = new Autopilot();
+		for (long seed = firstSeed; seed < firstSeed + count; seed++) {
+			engine.newGame(seed);
+			engine.step(0);
+			engine.launch();
+			exporter.begin(engine);
+			for (int tick = 0; tick < FlightEvaluator.MAX_TICKS && engine.getState() != LanderEngine.LND_INACTIVE; tick++) {
+				int inputs = autopilot.control(engine);
+				engine.step(inputs);
+				exporter.tick(engine, inputs);
+			}
+			exporter.finish();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Monotonic frame clock for {@link GameLoop}, read from
+ * {@link System#nanoTime()}. Each frame it measures the real interval since
+ * the last one and keeps a smoothed average of the intervals. An interval
+ * far longer than the average is a stall, such as a GC pause or the window
+ * being dragged: only a few ticks' worth of it is credited, so the game
+ * pauses for the hiccup rather than jumping ahead to catch up. Only
+ * isolated outliers are stalls: after a few long intervals in a row the
+ * frame rate has really dropped, and the average starts over from there.
+ * The frame that starts it over is still credited no more than a stall.
+ */
+public class GameClock {
+	/** weight of each interval in the smoothed average, as a right shift (1/8) */
+	private static final int SMOOTHING_SHIFT = 3;
+	/** an interval this many times the smoothed one is a stall */
+	private static final int STALL_FACTOR = 4;
+	/** stalls in a row after which long intervals are taken as the new normal */
+	private static final int MAX_STALL_RUN = 3;
+
+	private final long minStallNanos, maxCreditNanos;
+	private long last, smoothed;
+	/** stalls in a row up to the last frame */
+	private int nStallRun;
+	private volatile long lastInterval, smoothedInterval;
+	private volatile int nStalls;
+
+	/**
+	 * @param minStallNanos shortest interval ever treated as a stall
+	 * @param maxCreditNanos most time credited for a stalled frame
+	 */
+	public GameClock(long minStallNanos, long maxCreditNanos) {
+		this.minStallNanos = minStallNanos;
+		this.maxCreditNanos = maxCreditNanos;
+		last = read();
+	}
+
+	/** @return the current time in nanoseconds, only meaningful relative to other readings */
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	/** @return the time this clock measures by, {@link #now()} unless overridden */
+	protected long read() {
+		return now();
+	}
+
+	/**
+	 * Marks the start of a frame; called by one thread only.
+	 * @return nanoseconds of real time for the game to advance by: the
+	 * interval since the last frame, or after a stall no more than the
+	 * maximum credit
+	 */
+	public long frame() {
+		long now = read(), interval = now - last;
+		last = now;
+		lastInterval = interval;
+		if (smoothed == 0) smoothed = interval;
+		else if (interval > minStallNanos && interval > STALL_FACTOR * smoothed) {
+			if (++nStallRun <= MAX_STALL_RUN) {
+				// Left out of the average, which should describe normal frames
+				nStalls++;
+				return Math.min(interval, maxCreditNanos);
+			}
+			// A sustained slowdown rather than a hiccup; this frame is still capped
+			smoothed = interval;
+			smoothedInterval = smoothed;
+			nStallRun = 0;
+			return Math.min(interval, maxCreditNanos);
+		} else {
+			smoothed += (interval - smoothed) >> SMOOTHING_SHIFT;
+			nStallRun = 0;
+		}
+		smoothedInterval = smoothed;
+		return interval;
+	}
+
+	/** @return when the last frame started, on the scale of {@link #now()} */
+	public long getFrameStart() {
+		return last;
+	}
+
+	/** Forgets the last frame, so time spent stopped is not measured as a stall. */
+	public void restart() {
+		last = read();
+	}
+
+	/** @return real interval before the last frame in nanoseconds */
+	public long getLastInterval() {
+		return lastInterval;
+	}
+
+	/** @return average real interval between frames in nanoseconds, leaving out stalls */
+	public long getSmoothedInterval() {
+		return smoothedInterval;
+	}
+
+	/** @return number of stalled frames so far */
+	public int getStalls() {
+		return nStalls;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Fixed-timestep game loop on a dedicated thread. Physics ticks at a fixed
+ * rate from an accumulator of elapsed time, and each frame is rendered with
+ * how far the accumulator is into the next tick so motion can be interpolated.
+ * Elapsed time comes from a {@link GameClock}, which limits how many ticks
+ * are run to catch up after a stall.
+ */
+public class GameLoop implements Runnable {
+	/** Driven by the loop; both methods are called on the loop thread. */
+	public interface Target {
+		/** Advances the simulation by one fixed tick. */
+		void tick();
+
+		/**
+		 * Draws a frame.
+		 * @param alpha fraction of a tick elapsed since the last {@link #tick()}, in [0, 1)
+		 */
+		void render(float alpha);
+	}
+
+	/** frames longer than this many ticks may be stalls */
+	private static final int MIN_STALL_TICKS = 2;
+	/** most ticks run to catch up after a stall */
+	private static final int MAX_CATCH_UP_TICKS = 2;
+	/** how often the measured rates are updated */
+	private static final long RATE_INTERVAL_NANOS = 1000000000L;
+
+	private final Target target;
+	private final long tickNanos, frameNanos;
+	private final GameClock clock;
+	private volatile boolean running;
+	private Thread thread;
+	private volatile float frameRate, tickRate;
+	/** time spent in each {@link Target#tick()} and {@link Target#render(float)} call */
+	private final LatencyHistogram tickTimes = new LatencyHistogram(), frameTimes = new LatencyHistogram();
+
+	/**
+	 * @param tickMillis length of a physics tick in milliseconds
+	 * @param maxFrameRate frames per second the loop renders at most
+	 */
+	public GameLoop(Target target, int tickMillis, int maxFrameRate) {
+		this.target = target;
+		tickNanos = tickMillis * 1000000L;
+		frameNanos = 1000000000L / maxFrameRate;
+		clock = new GameClock(MIN_STALL_TICKS * tickNanos, MAX_CATCH_UP_TICKS * tickNanos);
+	}
+
+	public synchronized void start() {
+		if (thread != null) return;
+		running = true;
+		thread = new Thread(this, "GameLoop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Stops the loop and waits for the current frame to finish. */
+	public synchronized void stop() {
+		if (thread == null) return;
+		running = false;
+		thread.interrupt();
+		if (thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread = null;
+	}
+
+	@Override
+	public void run() {
+		clock.restart();
+		long accumulator = 0, rateStart = clock.getFrameStart();
+		int frames = 0, ticks = 0;
+		while (running) {
+			accumulator += clock.frame();
+			long now = clock.getFrameStart();
+			// Each call is timed from the end of the one before, one clock read per call
+			long start = now;
+			while (accumulator >= tickNanos) {
+				target.tick();
+				long end = GameClock.now();
+				tickTimes.record(end - start);
+				start = end;
+				accumulator -= tickNanos;
+				ticks++;
+			}
+			target.render((float)accumulator / tickNanos);
+			frameTimes.record(GameClock.now() - start);
+			frames++;
+			if (now - rateStart >= RATE_INTERVAL_NANOS) {
+				frameRate = frames * 1e9f / (now - rateStart);
+				tickRate = ticks * 1e9f / (now - rateStart);
+				frames = ticks = 0;
+				rateStart = now;
+			}
+			long sleep = now + frameNanos - GameClock.now();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep / 1000000L, (int)(sleep % 1000000L));
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+	}
+
+	/** @return frames rendered per second, measured over the last second */
+	public float getFrameRate() {
+		return frameRate;
+	}
+
+	/** @return physics ticks per second, measured over the last second */
+	public float getTickRate() {
+		return tickRate;
+	}
+
+	/** @return the clock measuring frame intervals and stalls, advanced on the loop thread */
+	public GameClock getClock() {
+		return clock;
+	}
+
+	/** @return time taken by each tick since the loop was created, recorded on the loop thread */
+	public LatencyHistogram getTickTimes() {
+		return tickTimes;
+	}
+
+	/** @return time taken to render each frame since the loop was created, recorded on the loop thread */
+	public LatencyHistogram getFrameTimes() {
+		return frameTimes;
+	}
+}
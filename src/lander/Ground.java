@@ -0,0 +1,34 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Ground queries the engine needs for contact and landing tests, in pixels
+ * with heights measured up from the bottom of the playing field.
+ */
+public interface Ground {
+	/** @return ground height at {@code x}; at a vertical step the higher side */
+	float heightAt(float x);
+
+	/**
+	 * Tests whether a footprint spanning {@code left} to {@code right} at height
+	 * {@code y} touches the ground.
+	 */
+	boolean touches(float left, float right, float y);
+
+	/** Tests whether the ground under a footprint spanning {@code left} to {@code right} is level. */
+	boolean isLevel(float left, float right);
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Altitude, velocity and fuel readouts drawn without allocating.
+ * <p>
+ * Labels are looked up and drawn once into a HUD image. Values are formatted
+ * into char buffers and drawn from a strip of pre-rendered digits, and a
+ * value is only redrawn in the HUD image when its text changes. Each frame
+ * is then one blit of the HUD image.
+ */
+public class HudRenderer {
+	static final int ALTITUDE = 0, VELOCITY_X = 1, VELOCITY_Y = 2, FUEL = 3;
+	private static final String[] LABEL_KEYS = {"altitude", "velocity_x", "velocity_y", "fuel"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	/** left of each label, measured from the right edge of the screen */
+	private static final int[] LABEL_X = {158, 170, 170, 137};
+	/** left of the values, measured from the right edge of the screen */
+	private static final int VALUE_X = 100;
+	private static final int[] BASELINES = {40, 60, 80, 100};
+	/** characters in the glyph strip; a value's text is indices into this */
+	private static final String GLYPHS = "0123456789.-";
+	private static final int GLYPH_POINT = 10, GLYPH_MINUS = 11;
+	/** longest value text: sign, 10 integer digits, point and 2 decimals */
+	private static final int MAX_CHARS = 14;
+
+	private final BufferedImage hud, strip;
+	/** kept for the life of the HUD, since creating one per redraw allocates */
+	private final Graphics2D hudGraphics;
+	/** left of the HUD image on screen */
+	private final int xHud, yHud;
+	private final int ascent, lineHeight;
+	/** x of each glyph in the strip, followed by the strip width */
+	private final int[] glyphX = new int[GLYPHS.length() + 1];
+
+	/** last drawn value of each field in hundredths, to detect changes */
+	private final long[] drawn = new long[LABEL_KEYS.length];
+	private final long[] pending = new long[LABEL_KEYS.length];
+	/** glyph indices of the value being formatted */
+	private final byte[] text = new byte[MAX_CHARS];
+
+	/**
+	 * @param gc configuration to match, or null for plain ARGB images
+	 * @param xClient width of the screen
+	 */
+	public HudRenderer(GraphicsConfiguration gc, Font font, Color color, int xClient) {
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = scratch.createGraphics();
+		FontMetrics fm = g2d.getFontMetrics(font);
+		g2d.dispose();
+		ascent = fm.getAscent();
+		lineHeight = fm.getAscent() + fm.getDescent();
+		for (int i = 0; i < GLYPHS.length(); i++)
+			glyphX[i + 1] = glyphX[i] + fm.charWidth(GLYPHS.charAt(i));
+		strip = SpriteAtlas.createImage(gc, glyphX[GLYPHS.length()], lineHeight, Transparency.TRANSLUCENT);
+		g2d = strip.createGraphics();
+		try {
+			g2d.setFont(font);
+			g2d.setColor(color);
+			for (int i = 0; i < GLYPHS.length(); i++)
+				g2d.drawString(GLYPHS.substring(i, i + 1), glyphX[i], ascent);
+		} finally {
+			g2d.dispose();
+		}
+		int left = LABEL_X[0];
+		for (int x : LABEL_X) left = Math.max(left, x);
+		xHud = xClient - left;
+		yHud = BASELINES[0] - ascent;
+		hud = SpriteAtlas.createImage(gc, left,
+				BASELINES[BASELINES.length - 1] - yHud + fm.getDescent(), Transparency.TRANSLUCENT);
+		hudGraphics = hud.createGraphics();
+		hudGraphics.setFont(font);
+		hudGraphics.setColor(color);
+		for (int i = 0; i < LABEL_KEYS.length; i++)
+			hudGraphics.drawString(Messages.getString(LABEL_KEYS[i]), xClient - LABEL_X[i] - xHud, BASELINES[i] - yHud);
+		for (int i = 0; i < drawn.length; i++) drawn[i] = Long.MIN_VALUE;
+	}
+
+	/** Sets the value shown in {@code field} from the next {@link #draw(Graphics)}. */
+	public void setValue(int field, float value) {
+		pending[field] = Math.round(value * 100.0);
+	}
+
+	/**
+	 * Redraws changed values into the HUD image.
+	 * @param damage where the changed values are on screen is added to this, unless it is null
+	 */
+	public void update(DirtyRegions damage) {
+		for (int i = 0; i < drawn.length; i++) {
+			if (pending[i] == drawn[i]) continue;
+			drawValue(hudGraphics, i, pending[i]);
+			drawn[i] = pending[i];
+			if (damage != null) damage.add(xHud + hud.getWidth() - VALUE_X, BASELINES[i] - ascent, VALUE_X, lineHeight);
+		}
+	}
+
+	/** Redraws changed values into the HUD image, then draws the HUD. */
+	public void draw(Graphics g) {
+		update(null);
+		g.drawImage(hud, xHud, yHud, null);
+	}
+
+	private void drawValue(Graphics2D g2d, int field, long hundredths) {
+		int length = format(hundredths);
+		int x = hud.getWidth() - VALUE_X, y = BASELINES[field] - ascent - yHud;
+		g2d.setComposite(AlphaComposite.Clear);
+		g2d.fillRect(x, y, VALUE_X, lineHeight);
+		g2d.setComposite(AlphaComposite.SrcOver);
+		for (int i = 0; i < length; i++) {
+			int sx = glyphX[text[i]], w = glyphX[text[i] + 1] - sx;
+			g2d.drawImage(strip, x, y, x + w, y + lineHeight, sx, 0, sx + w, lineHeight, null);
+			x += w;
+		}
+	}
+
+	/**
+	 * Writes the glyphs of {@code hundredths} / 100 with two decimals into
+	 * {@link #text}, like DecimalFormat("0.00").
+	 * @return number of glyphs written
+	 */
+	private int format(long hundredths) {
+		int length = 0;
+		if (hundredths < 0) {
+			text[length++] = GLYPH_MINUS;
+			hundredths = -hundredths;
+		}
+		long whole = hundredths / 100;
+		int digits = 1;
+		for (long n = whole; n >= 10; n /= 10) digits++;
+		if (length + digits + 3 > MAX_CHARS) digits = MAX_CHARS - 3 - length;
+		for (int i = length + digits - 1; i >= length; i--) {
+			text[i] = (byte)(whole % 10);
+			whole /= 10;
+		}
+		length += digits;
+		text[length++] = GLYPH_POINT;
+		text[length++] = (byte)(hundredths / 10 % 10);
+		text[length++] = (byte)(hundredths % 10);
+		return length;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Thruster presses and releases handed from the thread that receives them,
+ * the event dispatch thread, to the game loop, each stamped with the
+ * {@link GameClock} time it happened.
+ * <p>
+ * The queue is a ring of preallocated slots kept by {@link RingCounters}.
+ * The game loop drains it once at the start of each tick with
+ * {@link #drain(long, long, int[], LatencyHistogram)}, which works out for how
+ * much of the tick each thruster was held. A tap that starts and ends
+ * between two ticks is applied as a burn of that length instead of being
+ * missed.
+ */
+public final class InputQueue {
+	/** thrusters in the order of the duty array: main, left, right */
+	static final int[] THRUSTERS = {LanderEngine.INPUT_MAIN, LanderEngine.INPUT_LEFT, LanderEngine.INPUT_RIGHT};
+	private static final int PRESSED = 0x80;
+
+	/** events offered by the producer, and events taken by the consumer */
+	private final RingCounters ring;
+	private final long[] times;
+	private final byte[] events;
+	/** offers refused because the queue was full; written by the producer only */
+	private long nDropped;
+	/** consumer side: INPUT_* bits held at the end of the last drain */
+	private int nHeld;
+	private final long[] heldSince = new long[THRUSTERS.length];
+	private final long[] heldNanos = new long[THRUSTERS.length];
+
+	/** @param capacity events the queue holds, rounded up to a power of two */
+	public InputQueue(int capacity) {
+		ring = new RingCounters(capacity);
+		times = new long[ring.size()];
+		events = new byte[ring.size()];
+	}
+
+	/**
+	 * Queues a press or release of a thruster. Only one thread may offer.
+	 * @param input one of the LanderEngine.INPUT_* bits
+	 * @param nanos when it happened, from {@link GameClock#now()}
+	 * @return false if the queue was full and the event was dropped
+	 */
+	public boolean offer(int input, boolean bPressed, long nanos) {
+		long head = ring.head();
+		if (ring.used() > ring.nMask) {
+			nDropped++;
+			return false;
+		}
+		int i = ring.index(head);
+		times[i] = nanos;
+		events[i] = (byte)(input | (bPressed ? PRESSED : 0));
+		ring.setHead(head + 1);
+		return true;
+	}
+
+	/**
+	 * Takes the events up to {@code end} and works out how the thrusters were
+	 * fired in the tick from {@code start} to {@code end}. Events from before
+	 * {@code start} count as happening at {@code start}. Only one thread may drain.
+	 * @param duty set to the steps of {@link Replay#DUTY_STEPS} each of main, left
+	 * and right was held for in the tick, at least one for a thruster tapped
+	 * even briefly, or 0 if it was not fired
+	 * @param latency if not null, records the time from each new press to {@code end}
+	 * @return the INPUT_* bits of the thrusters fired in the tick
+	 */
+	public int drain(long start, long end, int[] duty, LatencyHistogram latency) {
+		int held = nHeld, fired = held;
+		for (int t = 0; t < THRUSTERS.length; t++) {
+			heldSince[t] = start;
+			heldNanos[t] = 0;
+		}
+		long tail = ring.tail(), head = ring.head();
+		for (; tail < head; tail++) {
+			int i = ring.index(tail);
+			long time = times[i];
+			if (time - end > 0) break;
+			int input = events[i] & 0x7F, t = thruster(input);
+			if (t < 0) continue;
+			long at = Math.max(time - start, 0) + start;
+			if ((events[i] & PRESSED) != 0) {
+				// Key repeat presses a held key again
+				if ((held & input) != 0) continue;
+				if (latency != null) latency.record(end - time);
+				held |= input;
+				fired |= input;
+				heldSince[t] = at;
+			} else if ((held & input) != 0) {
+				held &= ~input;
+				heldNanos[t] += at - heldSince[t];
+			}
+		}
+		ring.setTail(tail);
+		nHeld = held;
+		long window = end - start;
+		for (int t = 0; t < THRUSTERS.length; t++) {
+			if ((held & THRUSTERS[t]) != 0) heldNanos[t] += end - heldSince[t];
+			if ((fired & THRUSTERS[t]) == 0) duty[t] = 0;
+			else if (window <= 0 || heldNanos[t] >= window) duty[t] = Replay.DUTY_STEPS;
+			else duty[t] = (int)Math.max(1, Math.round((double)heldNanos[t] * Replay.DUTY_STEPS / window));
+		}
+		return fired;
+	}
+
+	/** @return the index of {@code input} in {@link #THRUSTERS}, or -1 */
+	private static int thruster(int input) {
+		for (int t = 0; t < THRUSTERS.length; t++) if (THRUSTERS[t] == input) return t;
+		return -1;
+	}
+
+	/** Releases every thruster, as when the flight ends; consumer side. */
+	public void releaseAll() {
+		nHeld = 0;
+	}
+
+	/** @return INPUT_* bits held as of the last drain; consumer side */
+	public int getHeld() {
+		return nHeld;
+	}
+
+	/** @return events dropped because the queue was full; producer side */
+	public long getDropped() {
+		return nDropped;
+	}
+}
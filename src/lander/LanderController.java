@@ -0,0 +1,28 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Decides which thrusters to fire each tick. Batch runners call one
+ * controller from several threads, so implementations should be stateless.
+ */
+public interface LanderController {
+	/**
+	 * @param engine engine about to be stepped, read only
+	 * @return thrusters to fire, a combination of the LanderEngine.INPUT_* bits
+	 */
+	int control(LanderEngine engine);
+}
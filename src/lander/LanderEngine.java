@@ -0,0 +1,858 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lander;
+
+import java.util.Random;
+
+/**
+ * Headless lander simulation: physics, terrain and the lander state machine.
+ * Has no AWT dependency so it can be stepped without a display;
+ * {@link LanderView} renders the state of one of these.
+ */
+public class LanderEngine {
+	/** Input bit: main engine firing */
+	public static final int INPUT_MAIN = 1;
+	/** Input bit: left attitude thruster firing (pushes right) */
+	public static final int INPUT_LEFT = 2;
+	/** Input bit: right attitude thruster firing (pushes left) */
+	public static final int INPUT_RIGHT = 4;
+
+	/** New: begin new game */
+	static final byte LND_NEW = 1;
+	/** Restart: same terrain, start again */
+	static final byte LND_RESTART = 3;
+	/** Active state: lander is in the air */
+	static final byte LND_ACTIVE = 4;
+	/** End: lander touches ground */
+	static final byte LND_ENDGAME = 5;
+	/** Safe state: lander touches down safely */
+	static final byte LND_SAFE = 6;
+	/** Crash state: lander crashed on surface */
+	static final byte LND_CRASH1 = 7, LND_CRASH2 = 8, LND_CRASH3 = 9;
+	/** Explode state: lander has crashed, explosion */
+	static final byte LND_EXPLODE = 10;
+	/** Out of range: lander out of bounds */
+	static final byte LND_OUTOFRANGE = 11;
+	/** Inactive state: lander on the ground */
+	static final byte LND_INACTIVE = 12;
+	/** Inactive state: lander not doing anything */
+	static final byte LND_HOLD = 13;
+
+	/* EndGame states */
+	/** landed safely */
+	static final byte END_SAFE = 1;
+	/** Too much vertical velocity */
+	static final byte END_CRASHV = 2;
+	/** Too much horizontal velocity */
+	static final byte END_CRASHH = 3;
+	/** Missed the landing site */
+	static final byte END_CRASHS = 4;
+	/** Lander out of range */
+	static final byte END_OUTOFRANGE = 5;
+	/** about box */
+	static final byte END_ABOUT = 6;
+
+	/* Sprites, resolved to images by the renderer */
+	static final int SPR_LANDER = 0, SPR_CRASH1 = 1, SPR_CRASH2 = 2, SPR_CRASH3 = 3;
+	/** first explosion frame, followed by the rest of the sequence */
+	static final int SPR_EXPL = 4;
+	/** number of frames in explosion */
+	static final int EXPL_SEQUENCE = 10;
+
+	/* Defaults */
+	static final float DEF_GRAVITY = 3f, DEF_FUEL = 1000f, DEF_THRUST = 10000f;
+	/** size of the playing field and lander used by the game */
+	static final int DEF_WIDTH = 800, DEF_HEIGHT = 500, DEF_LANDER_WIDTH = 32, DEF_LANDER_HEIGHT = 30;
+	/** real milliseconds between ticks when flights are played in real time */
+	static final int TICK_MILLIS = 50;
+
+	/* Physical Settings & Options */
+	/** mass of the lander in kg */
+	private float fLanderMass = 1000f;
+	/** kg of fuel to start */
+	private float fInitFuel = DEF_FUEL;
+	/** main engine thrust in Newtons */
+	private float fMainForce = DEF_THRUST;
+	/** attitude thruster force in Newtons */
+	private float fAttitudeForce = 2000f;
+	/** main engine kg of fuel / second */
+	private float fMainBurn = 10f;
+	/** attitude thruster kg of fuel / second */
+	private float fAttitudeBurn = 2f;
+	/** gravity acceleration in m/s² */
+	private float fGravity = DEF_GRAVITY;
+	/** max horizontal velocity on landing */
+	private float fMaxLandingX = 1f;
+	/** max vertical velocity on landing */
+	private float fMaxLandingY = 10f;
+	/** Fuel in kilograms */
+	private float fFuel;
+
+	/**
+	 * Lander position in meters
+	 * @param landerY
+	 * 		altitude
+	 */
+	private float landerX, landerY;
+	/** Lander velocity in meters/sec */
+	private float landerVx, landerVy;
+	/** simulated seconds per tick, fixed so flights are reproducible */
+	private float dt = 0.5f;
+	/** whether ticks use {@link #adaptiveMotion()} rather than {@link #landerMotion()} */
+	private boolean bAdaptive;
+
+	/** size of playing field */
+	private final int xClient, yClient;
+	/** size of lander bitmap */
+	private final int xLanderPict, yLanderPict;
+
+	private int yGroundZero;
+	/** horizontal extent of the landing pad in pixels */
+	private int xPadLeft, xPadRight;
+	private float scaleY;
+	/** Lander state */
+	private byte byLanderState = LND_NEW;
+	/** EndGame state, 0 while the flight is undecided */
+	private byte byEndGameState;
+	private byte nExplCount;
+	private int nSprite = SPR_LANDER;
+	/** ticks spent in {@link #LND_ACTIVE} since the last (re)start */
+	private int nFlightTicks;
+	/** incremented each time new terrain is generated */
+	private int nGroundRevision;
+
+	private boolean mFiringMain;
+	private boolean mFiringLeft;
+	private boolean mFiringRight;
+	/** fraction of the tick each thruster fires for, 1 unless set by {@link #step(int, float, float, float)} */
+	private float fMainDuty = 1f, fLeftDuty = 1f, fRightDuty = 1f;
+
+	private Random rand;
+	/** seed the current terrain was generated from */
+	private long nSeed;
+	private Terrain terrain;
+	/** streaming world flown instead of {@link #terrain}, or null */
+	private ChunkedTerrain world;
+	/** ground contact is tested against: {@link #terrain} or {@link #world} */
+	private Ground ground;
+	/** number of points across the terrain */
+	private int nGroundPoints = CRG_POINTS;
+	/** shape of terrain generated by later new games */
+	private int nSteepness = CRG_STEEPNESS, nPadSize = CRG_PAD_SIZE, nMaxHeight;
+	/** footprint of the lander at the last ground contact test */
+	private float contactLeft, contactRight;
+	/** ground height under the middle of the lander at the last contact test */
+	private int yGroundCenter;
+
+	/** Creates an engine with the playing field and lander size used by the game. */
+	public LanderEngine() {
+		this(DEF_WIDTH, DEF_HEIGHT, DEF_LANDER_WIDTH, DEF_LANDER_HEIGHT);
+	}
+
+	/**
+	 * @param xClient width of the playing field in pixels
+	 * @param yClient height of the playing field in pixels
+	 * @param xLander width of the lander in pixels
+	 * @param yLander height of the lander in pixels
+	 */
+	public LanderEngine(int xClient, int yClient, int xLander, int yLander) {
+		this.xClient = xClient;
+		this.yClient = yClient;
+		xLanderPict = xLander;
+		yLanderPict = yLander;
+		nSeed = System.currentTimeMillis();
+		rand = new Random(nSeed);
+		nMaxHeight = yClient / 6;
+		terrain = new Terrain(xClient);
+		ground = terrain;
+		createGround();
+	}
+
+	/** Generates new terrain and resets the lander on the next {@link #step(int)}. */
+	public void newGame() {
+		newGame(rand.nextLong());
+	}
+
+	/**
+	 * Generates terrain from {@code seed} and resets the lander on the next {@link #step(int)}.
+	 * The same seed always produces the same terrain.
+	 */
+	public void newGame(long seed) {
+		nSeed = seed;
+		byLanderState = LND_NEW;
+	}
+
+	/** Resets the lander over the same terrain on the next {@link #step(int)}. */
+	public void restart() {
+		byLanderState = LND_RESTART;
+	}
+
+	/** Begins the flight if the lander is holding at the start position. */
+	public void launch() {
+		if (byLanderState == LND_HOLD) {
+			byLanderState = LND_ACTIVE;
+			stateChanged(LND_HOLD);
+		}
+	}
+
+	/**
+	 * Advances the state machine by one tick.
+	 * @param inputs thrusters firing this tick, a combination of the INPUT_* bits
+	 */
+	public void step(int inputs) {
+		step(inputs, 1f, 1f, 1f);
+	}
+
+	/**
+	 * Advances the state machine by one tick with each thruster firing for
+	 * only part of it, as when a key is tapped between two ticks. The burn is
+	 * spread over the tick as an average thrust, so it gives the same impulse
+	 * and uses the same fuel as firing for that fraction of the tick.
+	 * @param inputs thrusters firing this tick, a combination of the INPUT_* bits
+	 * @param mainDuty fraction of the tick the main engine fires, in [0, 1]
+	 * @param leftDuty fraction of the tick the left thruster fires
+	 * @param rightDuty fraction of the tick the right thruster fires
+	 */
+	public void step(int inputs, float mainDuty, float leftDuty, float rightDuty) {
+		setInputs(inputs);
+		fMainDuty = mainDuty;
+		fLeftDuty = leftDuty;
+		fRightDuty = rightDuty;
+		byte byFrom = byLanderState;
+		updateLander();
+		if (byLanderState != byFrom) stateChanged(byFrom);
+	}
+
+	private void stateChanged(byte byFrom) {
+		Events.StateChange event = new Events.StateChange();
+		event.from = byFrom;
+		event.to = byLanderState;
+		event.commit();
+	}
+
+	void setInputs(int inputs) {
+		mFiringMain = (inputs & INPUT_MAIN) != 0;
+		mFiringLeft = (inputs & INPUT_LEFT) != 0;
+		mFiringRight = (inputs & INPUT_RIGHT) != 0;
+	}
+
+	void landerMotion() {
+		Events.Tick event = new Events.Tick();
+		event.begin();
+		float fMass, fBurn = 0f;
+		float dVx, dVy;
+		fMass = fLanderMass + fFuel;
+		dVx = 0f;
+		dVy = -fGravity;
+		if (fFuel > 0f) {
+			if (mFiringMain) {
+				fBurn += fMainBurn * fMainDuty;
+				dVy += fMainForce * fMainDuty / fMass;
+			}
+			if (mFiringLeft) {
+				fBurn += fAttitudeBurn * fLeftDuty;
+				dVx += fAttitudeForce * fLeftDuty / fMass;
+			}
+			if (mFiringRight) {
+				fBurn += fAttitudeBurn * fRightDuty;
+				dVx -= fAttitudeForce * fRightDuty / fMass;
+			}
+			fBurn = fBurn * dt;
+			if (fBurn > fFuel) fFuel = 0f;
+			else fFuel -= fBurn;
+		}
+		landerVy += dVy * dt;
+		landerVx += dVx * dt;
+		landerY += landerVy * dt / scaleY;
+		landerX += landerVx * dt / (scaleY / 2);
+		if (event.shouldCommit()) {
+			event.x = landerX;
+			event.y = landerY;
+			event.fuel = fFuel;
+			event.commit();
+		}
+	}
+
+	/** most pixels the lander may travel in one substep of {@link #adaptiveMotion()} */
+	private static final float MAX_SUBSTEP_TRAVEL = 1f;
+	/** longest substep of {@link #adaptiveMotion()} in seconds */
+	private static final float MAX_SUBSTEP_TIME = 0.125f;
+	/** most substeps in one stretch of constant thrust */
+	private static final int MAX_SUBSTEPS = 4096;
+	/** halvings of a substep when searching for the moment of impact */
+	private static final int IMPACT_ITERATIONS = 24;
+
+	/**
+	 * Moves the lander through one tick in substeps of the classical
+	 * Runge-Kutta method, stopping it at the moment it first touches the
+	 * ground. Thrust only changes at the start of a tick and when the fuel
+	 * runs out, so the tick is split at that moment and each stretch of
+	 * constant thrust is integrated in equal substeps. The substeps are
+	 * short enough that the lander moves at most
+	 * {@link #MAX_SUBSTEP_TRAVEL} pixels in each, so it cannot pass through
+	 * the terrain between two contact tests, and a substep that ends in
+	 * contact is bisected to find when the contact began. A flight is
+	 * deterministic, and stays accurate at much larger time steps than
+	 * {@link #landerMotion()}.
+	 */
+	void adaptiveMotion() {
+		Events.Tick event = new Events.Tick();
+		event.begin();
+		float fForceX = 0f, fForceY = 0f, fBurn = 0f;
+		if (fFuel > 0f) {
+			if (mFiringMain) {
+				fBurn += fMainBurn * fMainDuty;
+				fForceY += fMainForce * fMainDuty;
+			}
+			if (mFiringLeft) {
+				fBurn += fAttitudeBurn * fLeftDuty;
+				fForceX += fAttitudeForce * fLeftDuty;
+			}
+			if (mFiringRight) {
+				fBurn += fAttitudeBurn * fRightDuty;
+				fForceX -= fAttitudeForce * fRightDuty;
+			}
+		}
+		// Thrust stops when the fuel runs out, and the rest of the tick is coasted
+		boolean bEmptied = fBurn > 0f && fFuel / fBurn <= dt;
+		float fBurnTime = fBurn > 0f ? Math.min(dt, fFuel / fBurn) : 0f;
+		boolean bFlying = fBurnTime <= 0f || sweep(fBurnTime, fForceX, fForceY, fBurn);
+		if (bFlying && bEmptied) fFuel = 0f;
+		if (bFlying && dt > fBurnTime) sweep(dt - fBurnTime, 0f, 0f, 0f);
+		if (event.shouldCommit()) {
+			event.x = landerX;
+			event.y = landerY;
+			event.fuel = fFuel;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Integrates {@code fTime} seconds under constant thrust.
+	 * @return false if the lander touched the ground, where it is left
+	 */
+	private boolean sweep(float fTime, float fForceX, float fForceY, float fBurn) {
+		float fScaleX = scaleY / 2;
+		float fSpeed = Math.abs(landerVx) / fScaleX + Math.abs(landerVy) / scaleY;
+		float fAccel = (Math.abs(fForceX) + Math.abs(fForceY)) / (fLanderMass + fFuel - fBurn * fTime) + fGravity;
+		float fTravel = (fSpeed + fAccel * fTime / fScaleX) * fTime;
+		int nSteps = (int)Math.ceil(Math.max(fTravel / MAX_SUBSTEP_TRAVEL, fTime / MAX_SUBSTEP_TIME));
+		nSteps = Math.max(1, Math.min(nSteps, MAX_SUBSTEPS));
+		float h = fTime / nSteps;
+		for (int i = 0; i < nSteps; i++) {
+			float x = landerX, y = landerY, vx = landerVx, vy = landerVy, fuel = fFuel;
+			substep(h, fForceX, fForceY, fBurn);
+			if (!touchesAt(landerX, landerY)) continue;
+			// Keep the bracket's upper end in contact, so the lander is left touching
+			float lo = 0f, hi = h;
+			for (int k = 0; k < IMPACT_ITERATIONS; k++) {
+				float mid = (lo + hi) / 2;
+				landerX = x;
+				landerY = y;
+				landerVx = vx;
+				landerVy = vy;
+				fFuel = fuel;
+				substep(mid, fForceX, fForceY, fBurn);
+				if (touchesAt(landerX, landerY)) hi = mid;
+				else lo = mid;
+			}
+			landerX = x;
+			landerY = y;
+			landerVx = vx;
+			landerVy = vy;
+			fFuel = fuel;
+			substep(hi, fForceX, fForceY, fBurn);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * One Runge-Kutta step of {@code h} seconds. Only the mass varies within
+	 * it, linearly, so the two midpoint stages share an acceleration.
+	 */
+	private void substep(float h, float fForceX, float fForceY, float fBurn) {
+		float fMass = fLanderMass + fFuel;
+		float ax1 = fForceX / fMass, ay1 = fForceY / fMass - fGravity;
+		fMass -= fBurn * h / 2;
+		float ax2 = fForceX / fMass, ay2 = fForceY / fMass - fGravity;
+		fMass -= fBurn * h / 2;
+		float ax4 = fForceX / fMass, ay4 = fForceY / fMass - fGravity;
+		// Position gains v0 h plus the stage velocities' share of the acceleration
+		float dx = landerVx * h + h * h / 6 * (ax1 + 2 * ax2);
+		float dy = landerVy * h + h * h / 6 * (ay1 + 2 * ay2);
+		landerVx += h / 6 * (ax1 + 4 * ax2 + ax4);
+		landerVy += h / 6 * (ay1 + 4 * ay2 + ay4);
+		landerX += dx / (scaleY / 2);
+		landerY += dy / scaleY;
+		fFuel = Math.max(0f, fFuel - fBurn * h);
+	}
+
+	private boolean touchesAt(float x, float y) {
+		return ground.touches(x - xLanderPict / 2, x + xLanderPict / 2, y) || y <= 0;
+	}
+
+	private void updateLander() {
+		switch (byLanderState) {
+			case LND_NEW:
+				rand.setSeed(nSeed);
+				createGround();
+				resetLander();
+				byLanderState = LND_HOLD;
+				break;
+			case LND_RESTART:
+				resetLander();
+				byLanderState = LND_HOLD;
+				break;
+			case LND_HOLD:
+				break;
+			case LND_ACTIVE:
+				if (bAdaptive) adaptiveMotion();
+				else landerMotion();
+				nFlightTicks++;
+				if (world != null) world.prefetch(landerX, landerVx);
+				if (contactGround()) {
+					byLanderState = LND_ENDGAME;
+				} else if (getAltitude() > 5000f
+						| getAltitude() < -500f
+						| (world == null && Math.abs((landerX - (xClient / 2)) * (scaleY / 2)) > 1000f)) {
+					byLanderState = LND_OUTOFRANGE;
+				}
+				break;
+			case LND_OUTOFRANGE:
+				endGame(END_OUTOFRANGE);
+				byLanderState = LND_INACTIVE;
+				break;
+			case LND_ENDGAME:
+				if (landedFlat() && (Math.abs(landerVy) <= fMaxLandingY)
+						&& (Math.abs(landerVx) <= fMaxLandingX))
+					byLanderState = LND_SAFE;
+				else {
+					if (Math.abs(landerVy) > fMaxLandingY)
+						endGame(END_CRASHV);
+					else if (Math.abs(landerVx) > fMaxLandingX)
+						endGame(END_CRASHH);
+					else endGame(END_CRASHS);
+					byLanderState = LND_CRASH1;
+				}
+				break;
+			case LND_SAFE:
+				endGame(END_SAFE);
+				byLanderState = LND_INACTIVE;
+				break;
+			case LND_CRASH1:
+				while (landerY > 0 & landerY > yGroundCenter) {
+					landerY--;
+				}
+				nSprite = SPR_CRASH1;
+				byLanderState = LND_CRASH2;
+				break;
+			case LND_CRASH2:
+				nSprite = SPR_CRASH2;
+				byLanderState = LND_CRASH3;
+				break;
+			case LND_CRASH3:
+				nSprite = SPR_CRASH3;
+				nExplCount = 0;
+				byLanderState = LND_EXPLODE;
+				break;
+			case LND_EXPLODE:
+				if (nExplCount < 2*EXPL_SEQUENCE) {
+					nSprite = SPR_EXPL + nExplCount/2;
+					nExplCount++;
+				} else if (nExplCount < 2*(EXPL_SEQUENCE+6)) {
+					if (nExplCount % 2 == 0)
+						nSprite = SPR_EXPL + 9;
+					else
+						nSprite = SPR_EXPL + 8;
+					nExplCount++;
+				} else {
+					nSprite = SPR_CRASH3;
+					byLanderState = LND_INACTIVE;
+				}
+				break;
+			case LND_INACTIVE:
+				break;
+		}
+	}
+
+	private void resetLander() {
+		fFuel = fInitFuel;
+		landerX = world != null ? world.getChunkWidth() / 2 : xClient / 2;
+		landerY = (1000f / scaleY) + yGroundZero;
+		landerVx = 0f;
+		landerVy = 0f;
+		nSprite = SPR_LANDER;
+		byEndGameState = 0;
+		nFlightTicks = 0;
+		mFiringMain = false;
+		mFiringLeft = false;
+		mFiringRight = false;
+	}
+
+	private void endGame(byte endGameState) {
+		byEndGameState = endGameState;
+		mFiringMain = false;
+		mFiringLeft = false;
+		mFiringRight = false;
+	}
+
+	boolean contactGround() {
+		Events.Contact event = new Events.Contact();
+		event.begin();
+		contactLeft = landerX - xLanderPict / 2;
+		contactRight = landerX + xLanderPict / 2;
+		yGroundCenter = Math.round(ground.heightAt(landerX));
+		boolean bTouching = ground.touches(contactLeft, contactRight, landerY) || landerY <= 0;
+		if (event.shouldCommit()) {
+			event.touching = bTouching;
+			event.commit();
+		}
+		return bTouching;
+	}
+
+	private boolean landedFlat() {
+		return ground.isLevel(contactLeft, contactRight);
+	}
+
+	/** number of points across including two end-points (must be greater than one). */
+	private static final int CRG_POINTS = 31;
+	/** maximum y-variation of terrain */
+	private static final int CRG_STEEPNESS = 25;
+	/** size of landing pad in points. (less than CRG_POINTS) */
+	private static final int CRG_PAD_SIZE = 4;
+	/** chunks of a streaming world kept in memory */
+	private static final int WORLD_CHUNKS = 16;
+
+	void createGround() {
+		Events.CreateGround event = new Events.CreateGround();
+		event.begin();
+		Terrain home = terrain;
+		if (world != null) {
+			world.setSeed(rand.nextLong());
+			home = world.load(0);
+			world.prefetch(world.getChunkWidth() / 2, 0f);
+		} else terrain.generate(rand, nGroundPoints, nSteepness, nPadSize, nMaxHeight);
+		yGroundZero = home.getPadHeight();
+		scaleY = 1200f / (yClient - yGroundZero - yLanderPict);
+		xPadLeft = home.getPadLeft();
+		xPadRight = home.getPadRight();
+		nGroundRevision++;
+		if (event.shouldCommit()) {
+			event.points = home.getPoints();
+			event.world = world != null;
+			event.commit();
+		}
+	}
+
+	private int invertY(int y) {
+		return yClient - y;
+	}
+
+	/** @return width of the playing field in pixels */
+	public int getWidth() {
+		return xClient;
+	}
+
+	/** @return height of the playing field in pixels */
+	public int getHeight() {
+		return yClient;
+	}
+
+	/** @return width of the lander in pixels */
+	public int getLanderWidth() {
+		return xLanderPict;
+	}
+
+	/** @return height of the lander in pixels */
+	public int getLanderHeight() {
+		return yLanderPict;
+	}
+
+	/** @return seed of the current terrain, which {@link #newGame(long)} regenerates exactly */
+	public long getSeed() {
+		return nSeed;
+	}
+
+	/** @return number of points in the terrain outline, corners included */
+	public int getGroundPoints() {
+		return terrain.getPoints() + 2;
+	}
+
+	/** @return x of terrain point {@code i} in screen pixels */
+	public int getGroundX(int i) {
+		if (i == 0) return 0;
+		if (i > terrain.getPoints()) return xClient;
+		return terrain.getX(i - 1);
+	}
+
+	/** @return y of terrain point {@code i} in screen pixels (0 at top) */
+	public int getGroundY(int i) {
+		if (i == 0 || i > terrain.getPoints()) return yClient;
+		return invertY(terrain.getHeight(i - 1));
+	}
+
+	/** @return what ground contact is tested against: the current terrain, or the world */
+	public Ground getGround() {
+		return ground;
+	}
+
+	/** @return the current terrain, valid until the next new game; unused while flying a world */
+	public Terrain getTerrain() {
+		return terrain;
+	}
+
+	/**
+	 * Starts a new game over a streaming world instead of a single screen of
+	 * terrain, or back on single screens if {@code world} is null. A world has
+	 * no horizontal range limit, and its chunk 0 holds the home pad that
+	 * {@link #getPadOffset()} refers to.
+	 */
+	public void setWorld(ChunkedTerrain world) {
+		this.world = world;
+		ground = world != null ? world : terrain;
+		newGame();
+	}
+
+	/** @return a world with screen-wide chunks shaped like the single-screen terrain */
+	public ChunkedTerrain createWorld() {
+		return new ChunkedTerrain(xClient, CRG_POINTS, CRG_STEEPNESS, CRG_PAD_SIZE, yClient / 6, WORLD_CHUNKS);
+	}
+
+	/** @return the streaming world being flown, or null */
+	public ChunkedTerrain getWorld() {
+		return world;
+	}
+
+	/**
+	 * Sets the number of points across terrain generated by later new games.
+	 * @param points at least the size of the landing pad plus two
+	 */
+	public void setGroundPoints(int points) {
+		nGroundPoints = points;
+	}
+
+	/**
+	 * Sets the shape of single-screen terrain generated by later new games.
+	 * The defaults are the game's; other shapes give other terrain for the same seed.
+	 * @param steepness maximum y-variation between points, at least 1
+	 * @param padSize size of the landing pad in points, at most the number of points minus two
+	 * @param maxHeight maximum height of terrain in pixels, more than 5 and less than the field's height
+	 */
+	public void setTerrainShape(int steepness, int padSize, int maxHeight) {
+		nSteepness = steepness;
+		nPadSize = padSize;
+		nMaxHeight = maxHeight;
+	}
+
+	/** @return maximum y-variation between points of generated terrain */
+	public int getSteepness() {
+		return nSteepness;
+	}
+
+	/** @return size of the landing pad of generated terrain in points */
+	public int getPadSize() {
+		return nPadSize;
+	}
+
+	/** @return maximum height of generated terrain in pixels */
+	public int getMaxHeight() {
+		return nMaxHeight;
+	}
+
+	/** @return horizontal distance in meters from the lander to the middle of the landing pad */
+	public float getPadOffset() {
+		return ((xPadLeft + xPadRight) / 2f - landerX) * (scaleY / 2);
+	}
+
+	/** @return width of the landing pad in meters */
+	public float getPadWidth() {
+		return (xPadRight - xPadLeft) * (scaleY / 2);
+	}
+
+	/** @return a number that changes whenever new terrain is generated */
+	public int getGroundRevision() {
+		return nGroundRevision;
+	}
+
+	public byte getState() {
+		return byLanderState;
+	}
+
+	/** @return one of the END_* states, or 0 while the flight is undecided */
+	public byte getEndGameState() {
+		return byEndGameState;
+	}
+
+	/** @return true once the outcome of the flight is known */
+	public boolean isFinished() {
+		return byEndGameState != 0;
+	}
+
+	/** @return one of the SPR_* sprites to draw for the lander */
+	public int getSprite() {
+		return nSprite;
+	}
+
+	/** @return lander x position in screen pixels */
+	public float getLanderX() {
+		return landerX;
+	}
+
+	/** @return lander y position in screen pixels (0 at bottom) */
+	public float getLanderY() {
+		return landerY;
+	}
+
+	/** @return altitude above the landing pad in meters */
+	public float getAltitude() {
+		return (landerY - yGroundZero) * scaleY;
+	}
+
+	/**
+	 * @param offset horizontal distance from the lander in meters, positive to the right
+	 * @return height of the lander above the ground at that distance in meters,
+	 * measured from the bottom of the screen beyond the edges of the terrain
+	 */
+	public float getClearance(float offset) {
+		return (landerY - ground.heightAt(landerX + offset / (scaleY / 2))) * scaleY;
+	}
+
+	public float getVelocityX() {
+		return landerVx;
+	}
+
+	public float getVelocityY() {
+		return landerVy;
+	}
+
+	public float getFuel() {
+		return fFuel;
+	}
+
+	/** @return seconds of simulated time since the lander was launched */
+	public float getFlightTime() {
+		return nFlightTicks * dt;
+	}
+
+	public int getFlightTicks() {
+		return nFlightTicks;
+	}
+
+	public float getTimeStep() {
+		return dt;
+	}
+
+	public void setTimeStep(float dt) {
+		this.dt = dt;
+	}
+
+	public boolean isAdaptive() {
+		return bAdaptive;
+	}
+
+	/**
+	 * Chooses how the lander moves each tick: a single Euler step with a
+	 * contact test at its end (the default, and what replays are recorded
+	 * with), or {@link #adaptiveMotion()}, which keeps larger time steps
+	 * accurate and cannot pass through the terrain.
+	 */
+	public void setAdaptive(boolean bAdaptive) {
+		this.bAdaptive = bAdaptive;
+	}
+
+	/**
+	 * Places the lander in flight, for benchmarks and tools that need a
+	 * specific state rather than a launch from the start position.
+	 * @param x position in screen pixels
+	 * @param y position in screen pixels (0 at bottom)
+	 */
+	void setLander(float x, float y, float vx, float vy, float fuel) {
+		landerX = x;
+		landerY = y;
+		landerVx = vx;
+		landerVy = vy;
+		fFuel = fuel;
+		byLanderState = LND_ACTIVE;
+	}
+
+	/**
+	 * Puts the lander in a recorded state, for spectating a flight rather
+	 * than simulating it. Stepping the engine afterwards carries on from it.
+	 * @param state one of the LND_* states
+	 */
+	void restore(byte state, int sprite, float x, float y, float vx, float vy, float fuel) {
+		landerX = x;
+		landerY = y;
+		landerVx = vx;
+		landerVy = vy;
+		fFuel = fuel;
+		byLanderState = state;
+		nSprite = sprite;
+	}
+
+	/** Copies the physical settings from {@code physics}, taking effect immediately. */
+	public void setPhysics(LanderPhysics physics) {
+		fLanderMass = physics.fLanderMass;
+		fInitFuel = physics.fInitFuel;
+		fMainForce = physics.fMainForce;
+		fAttitudeForce = physics.fAttitudeForce;
+		fMainBurn = physics.fMainBurn;
+		fAttitudeBurn = physics.fAttitudeBurn;
+		fGravity = physics.fGravity;
+		fMaxLandingX = physics.fMaxLandingX;
+		fMaxLandingY = physics.fMaxLandingY;
+	}
+
+	/** @return a copy of the current physical settings */
+	public LanderPhysics getPhysics() {
+		LanderPhysics physics = new LanderPhysics();
+		physics.fLanderMass = fLanderMass;
+		physics.fInitFuel = fInitFuel;
+		physics.fMainForce = fMainForce;
+		physics.fAttitudeForce = fAttitudeForce;
+		physics.fMainBurn = fMainBurn;
+		physics.fAttitudeBurn = fAttitudeBurn;
+		physics.fGravity = fGravity;
+		physics.fMaxLandingX = fMaxLandingX;
+		physics.fMaxLandingY = fMaxLandingY;
+		return physics;
+	}
+
+	/** @return meters per pixel vertically; horizontally it is half this */
+	float getScale() {
+		return scaleY;
+	}
+
+	/** @return height of the landing pad in pixels from the bottom */
+	int getGroundZero() {
+		return yGroundZero;
+	}
+
+	/** @return fuel at the start of each flight in kg */
+	public float getInitialFuel() {
+		return fInitFuel;
+	}
+
+	public float getMaxLandingX() {
+		return fMaxLandingX;
+	}
+
+	public float getMaxLandingY() {
+		return fMaxLandingY;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Batch of independent landers stepped together for training controllers,
+ * in the style of a vectorized gym environment.
+ * <p>
+ * Each environment writes {@link #getObservationSize()} floats into a shared
+ * direct buffer in native order, at {@code env * getObservationSize()}:
+ * <pre>
+ * 0  altitude above the pad in m
+ * 1  horizontal velocity in m/s
+ * 2  vertical velocity in m/s
+ * 3  fuel in kg
+ * 4  distance to the pad in m, positive when it is to the right
+ * 5  clearance above the ground at evenly spaced offsets across
+ *    {@link #PROFILE_SPAN}, left to right, one float per profile point
+ * </pre>
+ * Rewards, done flags and outcomes go into primitive arrays. Stepping and
+ * resetting allocate nothing.
+ */
+public class LanderEnv {
+	/** observations before the terrain profile */
+	static final int OBS_ALTITUDE = 0, OBS_VX = 1, OBS_VY = 2, OBS_FUEL = 3, OBS_PAD = 4, OBS_PROFILE = 5;
+	/** width of the terrain profile centered on the lander, in meters */
+	static final float PROFILE_SPAN = 400f;
+	static final int DEF_PROFILE_POINTS = 16;
+	/** reward for a safe landing, plus up to {@link #REWARD_FUEL} for fuel left */
+	static final float REWARD_SAFE = 100f, REWARD_FUEL = 50f;
+	/** reward for crashing or leaving the playing field */
+	static final float REWARD_CRASH = -100f;
+
+	private final LanderEngine[] engines;
+	private final int nProfilePoints;
+	private final int nObsSize;
+	private final FloatBuffer observations;
+	private final float[] rewards;
+	private final boolean[] done;
+	private final byte[] outcomes;
+
+	public LanderEnv(int count) {
+		this(count, new LanderPhysics(), DEF_PROFILE_POINTS);
+	}
+
+	public LanderEnv(int count, LanderPhysics physics, int profilePoints) {
+		engines = new LanderEngine[count];
+		for (int i = 0; i < count; i++) {
+			engines[i] = new LanderEngine();
+			engines[i].setPhysics(physics);
+		}
+		nProfilePoints = profilePoints;
+		nObsSize = OBS_PROFILE + profilePoints;
+		observations = ByteBuffer.allocateDirect(count * nObsSize * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		rewards = new float[count];
+		done = new boolean[count];
+		outcomes = new byte[count];
+	}
+
+	public int getCount() {
+		return engines.length;
+	}
+
+	/** @return floats per environment in {@link #getObservations()} */
+	public int getObservationSize() {
+		return nObsSize;
+	}
+
+	/** @return observations of every environment, updated in place by each reset and step */
+	public FloatBuffer getObservations() {
+		return observations;
+	}
+
+	/** @return reward earned by each environment on the last step */
+	public float[] getRewards() {
+		return rewards;
+	}
+
+	/** @return whether each environment's flight has ended; finished environments ignore steps */
+	public boolean[] getDone() {
+		return done;
+	}
+
+	/** @return END_* outcome of each finished environment, 0 while flying */
+	public byte[] getOutcomes() {
+		return outcomes;
+	}
+
+	/** Resets environment {@code i} to {@code firstSeed + i} for every environment. */
+	public void reset(long firstSeed) {
+		for (int i = 0; i < engines.length; i++) reset(i, firstSeed + i);
+	}
+
+	/** Launches environment {@code env} over the terrain generated from {@code seed}. */
+	public void reset(int env, long seed) {
+		LanderEngine engine = engines[env];
+		engine.newGame(seed);
+		engine.step(0);
+		engine.launch();
+		rewards[env] = 0f;
+		done[env] = false;
+		outcomes[env] = 0;
+		observe(env);
+	}
+
+	/**
+	 * Advances every unfinished environment by one tick.
+	 * @param actions INPUT_* bits for each environment
+	 */
+	public void step(int[] actions) {
+		for (int i = 0; i < engines.length; i++) {
+			if (done[i]) {
+				rewards[i] = 0f;
+				continue;
+			}
+			LanderEngine engine = engines[i];
+			engine.step(actions[i]);
+			// Run the touchdown states through to the outcome within this step
+			while (engine.getState() != LanderEngine.LND_ACTIVE && !engine.isFinished())
+				engine.step(0);
+			if (engine.isFinished() || engine.getFlightTicks() >= FlightEvaluator.MAX_TICKS) {
+				byte outcome = engine.getEndGameState();
+				done[i] = true;
+				outcomes[i] = outcome;
+				if (outcome == LanderEngine.END_SAFE)
+					rewards[i] = REWARD_SAFE + REWARD_FUEL * engine.getFuel() / engine.getInitialFuel();
+				else rewards[i] = REWARD_CRASH;
+			} else rewards[i] = 0f;
+			observe(i);
+		}
+	}
+
+	/** @return the engine behind environment {@code env} */
+	LanderEngine getEngine(int env) {
+		return engines[env];
+	}
+
+	private void observe(int env) {
+		LanderEngine engine = engines[env];
+		int base = env * nObsSize;
+		observations.put(base + OBS_ALTITUDE, engine.getAltitude());
+		observations.put(base + OBS_VX, engine.getVelocityX());
+		observations.put(base + OBS_VY, engine.getVelocityY());
+		observations.put(base + OBS_FUEL, engine.getFuel());
+		observations.put(base + OBS_PAD, engine.getPadOffset());
+		float spacing = nProfilePoints > 1 ? PROFILE_SPAN / (nProfilePoints - 1) : 0f;
+		float offset = nProfilePoints > 1 ? -PROFILE_SPAN / 2 : 0f;
+		for (int p = 0; p < nProfilePoints; p++, offset += spacing)
+			observations.put(base + OBS_PROFILE + p, engine.getClearance(offset));
+	}
+}
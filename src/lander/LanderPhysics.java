@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * Physical settings of a lander, applied to an engine with
+ * {@link LanderEngine#setPhysics(LanderPhysics)}.
+ */
+public class LanderPhysics {
+	/** Names accepted by {@link #set(String, float)}, in field order */
+	static final String[] NAMES = {"mass", "fuel", "thrust", "attitude",
+		"mainburn", "attitudeburn", "gravity", "maxlandingx", "maxlandingy"};
+
+	/** mass of the lander in kg */
+	float fLanderMass = 1000f;
+	/** kg of fuel to start */
+	float fInitFuel = LanderEngine.DEF_FUEL;
+	/** main engine thrust in Newtons */
+	float fMainForce = LanderEngine.DEF_THRUST;
+	/** attitude thruster force in Newtons */
+	float fAttitudeForce = 2000f;
+	/** main engine kg of fuel / second */
+	float fMainBurn = 10f;
+	/** attitude thruster kg of fuel / second */
+	float fAttitudeBurn = 2f;
+	/** gravity acceleration in m/s² */
+	float fGravity = LanderEngine.DEF_GRAVITY;
+	/** max horizontal velocity on landing */
+	float fMaxLandingX = 1f;
+	/** max vertical velocity on landing */
+	float fMaxLandingY = 10f;
+
+	/**
+	 * Sets a field by one of the {@link #NAMES}.
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	public void set(String name, float value) {
+		switch (indexOf(name)) {
+		case 0: fLanderMass = value; break;
+		case 1: fInitFuel = value; break;
+		case 2: fMainForce = value; break;
+		case 3: fAttitudeForce = value; break;
+		case 4: fMainBurn = value; break;
+		case 5: fAttitudeBurn = value; break;
+		case 6: fGravity = value; break;
+		case 7: fMaxLandingX = value; break;
+		case 8: fMaxLandingY = value; break;
+		}
+	}
+
+	/** Gets a field by one of the {@link #NAMES}. */
+	public float get(String name) {
+		switch (indexOf(name)) {
+		case 0: return fLanderMass;
+		case 1: return fInitFuel;
+		case 2: return fMainForce;
+		case 3: return fAttitudeForce;
+		case 4: return fMainBurn;
+		case 5: return fAttitudeBurn;
+		case 6: return fGravity;
+		case 7: return fMaxLandingX;
+		default: return fMaxLandingY;
+		}
+	}
+
+	private static int indexOf(String name) {
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i].equalsIgnoreCase(name)) return i;
+		}
+		throw new IllegalArgumentException("Unknown physics setting: " + name);
+	}
+
+	public LanderPhysics copy() {
+		LanderPhysics physics = new LanderPhysics();
+		for (String name : NAMES) physics.set(name, get(name));
+		return physics;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (String name : NAMES) {
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(name).append('=').append(get(name));
+		}
+		return sb.toString();
+	}
+}
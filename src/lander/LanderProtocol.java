@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Messages between {@link LanderServer} and its clients, big-endian and of
+ * fixed length per type. Clients send one-byte opcodes, some followed by
+ * arguments; the server answers with state snapshots.
+ */
+final class LanderProtocol {
+	static final int DEFAULT_PORT = 7117;
+
+	/* Client to server */
+	/** starts a game on the terrain of the following long seed, holding at the start position */
+	static final byte OP_NEW = 1;
+	/** puts the lander back at the start position over the same terrain */
+	static final byte OP_RESTART = 2;
+	/** begins the flight */
+	static final byte OP_LAUNCH = 3;
+	/** sets the thrusters firing from the next tick, a byte of LanderEngine.INPUT_* bits */
+	static final byte OP_INPUTS = 4;
+	/** length of each message including its opcode, indexed by opcode; 0 for unknown opcodes */
+	private static final int[] LENGTHS = {0, 9, 1, 1, 2};
+	/** longest client message */
+	static final int MAX_REQUEST = 9;
+
+	/* Server to client */
+	/**
+	 * state after a tick: int tick, byte state, byte end-game state, then
+	 * floats x in pixels, altitude in meters, velocity x, velocity y and fuel
+	 */
+	static final byte MSG_SNAPSHOT = 1;
+	static final int SNAPSHOT_LENGTH = 1 + 4 + 1 + 1 + 5 * 4;
+
+	private LanderProtocol() {}
+
+	/** @return length of the message starting with {@code op}, or 0 if the opcode is unknown */
+	static int requestLength(byte op) {
+		return op > 0 && op < LENGTHS.length ? LENGTHS[op] : 0;
+	}
+
+	static void putSnapshot(ByteBuffer buf, LanderEngine engine, int tick) {
+		buf.put(MSG_SNAPSHOT);
+		buf.putInt(tick);
+		buf.put(engine.getState());
+		buf.put(engine.getEndGameState());
+		buf.putFloat(engine.getLanderX());
+		buf.putFloat(engine.getAltitude());
+		buf.putFloat(engine.getVelocityX());
+		buf.putFloat(engine.getVelocityY());
+		buf.putFloat(engine.getFuel());
+	}
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts many lander games in one JVM, each driven by a client over a local
+ * TCP connection using {@link LanderProtocol}, with no Swing involved.
+ * <p>
+ * Connections are spread over a few event loops, one per core by default,
+ * each a thread with its own selector. A loop reads client messages as they
+ * arrive and, on a shared tick schedule, steps every game in flight and
+ * sends its snapshot. An idle connection costs only its socket and two
+ * small buffers, since a game's {@link LanderEngine} is created with its
+ * first {@link LanderProtocol#OP_NEW}, and a connection whose game is not
+ * flying is never touched by the tick. A client that reads slowly is only
+ * ever sent the latest snapshot, never a growing backlog.
+ * <p>
+ * With {@code telemetry=FILE}, every tick of every flight is also streamed to
+ * a file or named pipe by a {@link TelemetryWriter}, each launch numbered as
+ * a new flight.
+ * <p>
+ * Usage: {@code LanderServer [port=7117] [loops=N] [telemetry=FILE]}
+ */
+public class LanderServer {
+	/** ticks a loop may fall behind before it gives up catching up */
+	private static final int MAX_LAG_TICKS = 5;
+	private static final int BACKLOG = 4096;
+	private static final long STATS_INTERVAL_MILLIS = 5000;
+
+	private final ServerSocketChannel server;
+	private final EventLoop[] loops;
+	/** numbers the flights launched across all loops */
+	private final AtomicInteger flights = new AtomicInteger();
+	private Thread acceptor;
+	private volatile boolean running;
+
+	/**
+	 * Binds to the loopback interface.
+	 * @param port port to listen on, or 0 for any free port
+	 * @param nLoops number of event loop threads
+	 */
+	public LanderServer(int port, int nLoops) throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+		loops = new EventLoop[nLoops];
+		for (int i = 0; i < nLoops; i++) loops[i] = new EventLoop(i, flights);
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/** Streams every tick of every flight to {@code telemetry}; call before {@link #start()}. */
+	public void setTelemetry(TelemetryWriter telemetry) {
+		for (EventLoop loop : loops) loop.telemetry = telemetry.newProducer();
+	}
+
+	public synchronized void start() {
+		if (running) return;
+		running = true;
+		for (EventLoop loop : loops) loop.thread.start();
+		acceptor = new Thread("LanderServer accept") {
+			@Override
+			public void run() {
+				accept();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/** Closes every connection and waits for the loops to finish. */
+	public synchronized void stop() {
+		if (!running) return;
+		running = false;
+		try {
+			server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (EventLoop loop : loops) {
+			loop.bRunning = false;
+			loop.selector.wakeup();
+			try {
+				loop.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Hands each new connection to the loops in turn. */
+	private void accept() {
+		int next = 0;
+		while (running) {
+			try {
+				SocketChannel channel = server.accept();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				loops[next].incoming.add(channel);
+				loops[next].selector.wakeup();
+				next = (next + 1) % loops.length;
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				// Usually out of file descriptors; back off rather than spin
+				e.printStackTrace();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ie) {
+					break;
+				}
+			}
+		}
+	}
+
+	/** @return connections open across all loops */
+	public int getSessions() {
+		int n = 0;
+		for (EventLoop loop : loops) n += loop.nSessions;
+		return n;
+	}
+
+	/** @return games in flight across all loops */
+	public int getActive() {
+		int n = 0;
+		for (EventLoop loop : loops) n += loop.nActivePublished;
+		return n;
+	}
+
+	/** @return snapshots sent across all loops */
+	public long getSnapshots() {
+		long n = 0;
+		for (EventLoop loop : loops) n += loop.nSnapshots;
+		return n;
+	}
+
+	/** Prints the time each loop's ticks take, and how many it had to skip. */
+	public void printTickTimes() {
+		for (EventLoop loop : loops) {
+			loop.tickTimes.print(System.out, "Loop " + loop.nIndex + " tick time");
+			if (loop.nSkipped > 0) System.out.println("Loop " + loop.nIndex + " skipped " + loop.nSkipped + " ticks");
+		}
+	}
+
+	/** A selector thread owning a share of the connections and stepping their games. */
+	private static class EventLoop implements Runnable {
+		final int nIndex;
+		final Selector selector;
+		final Thread thread;
+		/** accepted connections not yet registered with the selector */
+		final ConcurrentLinkedQueue<SocketChannel> incoming = new ConcurrentLinkedQueue<SocketChannel>();
+		/** sessions whose games are in flight, stepped each tick */
+		private Session[] active = new Session[64];
+		private int nActive;
+		final LatencyHistogram tickTimes = new LatencyHistogram();
+		final AtomicInteger flights;
+		/** this loop's ring in the stream, or null */
+		TelemetryWriter.Producer telemetry;
+		volatile boolean bRunning = true;
+		volatile int nSessions, nActivePublished;
+		volatile long nSnapshots, nSkipped;
+
+		EventLoop(int index, AtomicInteger flights) throws IOException {
+			nIndex = index;
+			this.flights = flights;
+			selector = Selector.open();
+			thread = new Thread(this, "LanderServer loop " + index);
+			thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			long tickNanos = LanderEngine.TICK_MILLIS * 1000000L;
+			long nextTick = System.nanoTime() + tickNanos;
+			while (bRunning) {
+				try {
+					long wait = nextTick - System.nanoTime();
+					if (wait > 0) selector.select(Math.max(1, wait / 1000000L));
+					else selector.selectNow();
+				} catch (IOException e) {
+					e.printStackTrace();
+					break;
+				}
+				registerIncoming();
+				handleReady();
+				long now = System.nanoTime();
+				if (now >= nextTick) {
+					tick();
+					tickTimes.record(System.nanoTime() - now);
+					nextTick += tickNanos;
+					// Drop the ticks missed in an overload rather than running them back to back
+					if (now - nextTick > MAX_LAG_TICKS * tickNanos) {
+						nSkipped += (now - nextTick) / tickNanos;
+						nextTick = now + tickNanos;
+					}
+				}
+			}
+			closeAll();
+		}
+
+		private void registerIncoming() {
+			SocketChannel channel;
+			while ((channel = incoming.poll()) != null) {
+				try {
+					Session session = new Session(this, channel);
+					session.key = channel.register(selector, SelectionKey.OP_READ, session);
+					nSessions++;
+				} catch (IOException e) {
+					close(channel);
+				}
+			}
+		}
+
+		private void handleReady() {
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				Session session = (Session)key.attachment();
+				try {
+					if (key.isReadable()) session.read();
+					if (key.isValid() && key.isWritable()) session.flush();
+				} catch (IOException e) {
+					session.close();
+				}
+			}
+		}
+
+		private void tick() {
+			// Backwards, so sessions that land can be removed as we go
+			for (int i = nActive - 1; i >= 0; i--) {
+				Session session = active[i];
+				LanderEngine engine = session.engine;
+				engine.step(session.inputs);
+				session.nTick++;
+				if (telemetry != null) telemetry.record(session.nFlight, session.nTick, engine, session.inputs);
+				try {
+					session.send();
+				} catch (IOException e) {
+					session.close();
+					continue;
+				}
+				byte state = engine.getState();
+				if (state == LanderEngine.LND_INACTIVE || state == LanderEngine.LND_HOLD) deactivate(session);
+			}
+			nActivePublished = nActive;
+		}
+
+		void activate(Session session) {
+			if (session.nActiveIndex >= 0) return;
+			if (nActive == active.length) {
+				Session[] grown = new Session[2 * nActive];
+				System.arraycopy(active, 0, grown, 0, nActive);
+				active = grown;
+			}
+			session.nActiveIndex = nActive;
+			active[nActive++] = session;
+		}
+
+		void deactivate(Session session) {
+			int i = session.nActiveIndex;
+			if (i < 0) return;
+			active[i] = active[--nActive];
+			active[i].nActiveIndex = i;
+			active[nActive] = null;
+			session.nActiveIndex = -1;
+		}
+
+		private void closeAll() {
+			for (SelectionKey key : selector.keys()) ((Session)key.attachment()).close();
+			SocketChannel channel;
+			while ((channel = incoming.poll()) != null) close(channel);
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		private static void close(SocketChannel channel) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing more to do with it
+			}
+		}
+	}
+
+	/** One client connection and its game. */
+	private static class Session {
+		private final EventLoop loop;
+		private final SocketChannel channel;
+		SelectionKey key;
+		/** created with the first OP_NEW */
+		LanderEngine engine;
+		int inputs, nTick;
+		/** telemetry number of the flight last launched */
+		int nFlight;
+		/** index in the loop's active sessions, or -1 while not flying */
+		int nActiveIndex = -1;
+		private final ByteBuffer in = ByteBuffer.allocate(4 * LanderProtocol.MAX_REQUEST);
+		/** snapshot being written, empty once it has all been sent */
+		private final ByteBuffer out = ByteBuffer.allocate(LanderProtocol.SNAPSHOT_LENGTH);
+		/** whether a newer snapshot is waiting for {@link #out} to drain */
+		private boolean bSnapshotDue;
+
+		Session(EventLoop loop, SocketChannel channel) {
+			this.loop = loop;
+			this.channel = channel;
+			out.flip();
+		}
+
+		void read() throws IOException {
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+			in.flip();
+			while (in.hasRemaining()) {
+				int length = LanderProtocol.requestLength(in.get(in.position()));
+				if (length == 0) {
+					// Not speaking the protocol
+					close();
+					return;
+				}
+				if (in.remaining() < length) break;
+				apply(in.get());
+			}
+			in.compact();
+		}
+
+		private void apply(byte op) throws IOException {
+			switch (op) {
+			case LanderProtocol.OP_NEW:
+				long seed = in.getLong();
+				if (engine == null) engine = new LanderEngine();
+				boolean bAbandoned = nActiveIndex >= 0;
+				loop.deactivate(this);
+				engine.newGame(seed);
+				engine.step(0);
+				if (bAbandoned) abandoned();
+				inputs = 0;
+				nTick = 0;
+				send();
+				break;
+			case LanderProtocol.OP_RESTART:
+				if (engine == null) break;
+				bAbandoned = nActiveIndex >= 0;
+				loop.deactivate(this);
+				engine.restart();
+				engine.step(0);
+				if (bAbandoned) abandoned();
+				inputs = 0;
+				nTick = 0;
+				send();
+				break;
+			case LanderProtocol.OP_LAUNCH:
+				if (engine == null) break;
+				engine.launch();
+				if (engine.getState() == LanderEngine.LND_ACTIVE) {
+					if (nActiveIndex < 0) nFlight = loop.flights.getAndIncrement();
+					loop.activate(this);
+				}
+				break;
+			case LanderProtocol.OP_INPUTS:
+				inputs = in.get() & (LanderEngine.INPUT_MAIN | LanderEngine.INPUT_LEFT | LanderEngine.INPUT_RIGHT);
+				break;
+			}
+		}
+
+		/** Ends the telemetry of a flight replaced by a new game, with the new game's state. */
+		private void abandoned() {
+			if (loop.telemetry != null) loop.telemetry.record(nFlight, nTick + 1, engine, 0);
+		}
+
+		/** Sends the current state, or if the last snapshot is still being written, sends it once that is done. */
+		void send() throws IOException {
+			if (out.hasRemaining()) {
+				bSnapshotDue = true;
+				return;
+			}
+			out.clear();
+			LanderProtocol.putSnapshot(out, engine, nTick);
+			out.flip();
+			loop.nSnapshots++;
+			flush();
+		}
+
+		void flush() throws IOException {
+			channel.write(out);
+			if (!out.hasRemaining() && bSnapshotDue) {
+				bSnapshotDue = false;
+				send();
+				return;
+			}
+			int ops = out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+			if (key.interestOps() != ops) key.interestOps(ops);
+		}
+
+		void close() {
+			if (!channel.isOpen()) return;
+			loop.deactivate(this);
+			key.cancel();
+			EventLoop.close(channel);
+			loop.nSessions--;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = LanderProtocol.DEFAULT_PORT, nLoops = Runtime.getRuntime().availableProcessors();
+		String telemetryFile = null;
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + arg);
+			String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+			if (name.equals("port")) port = Integer.parseInt(value);
+			else if (name.equals("loops")) nLoops = Integer.parseInt(value);
+			else if (name.equals("telemetry")) telemetryFile = value;
+			else throw new IllegalArgumentException("Unknown option: " + name);
+		}
+		LanderServer server = new LanderServer(port, nLoops);
+		TelemetryWriter telemetry = null;
+		if (telemetryFile != null) {
+			telemetry = new TelemetryWriter(new File(telemetryFile));
+			server.setTelemetry(telemetry);
+		}
+		server.start();
+		System.out.println("Listening on port " + server.getPort() + " with " + nLoops + " loops");
+		while (true) {
+			Thread.sleep(STATS_INTERVAL_MILLIS);
+			System.out.println(server.getSessions() + " sessions, " + server.getActive() + " flying, "
+					+ server.getSnapshots() + " snapshots sent"
+					+ (telemetry == null ? "" : ", " + telemetry.getBytes() + " telemetry bytes, "
+							+ telemetry.getDropped() + " dropped"));
+		}
+	}
+}
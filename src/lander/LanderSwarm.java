@@ -0,0 +1,255 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.Arrays;
+
+/**
+ * Many landers flying over one terrain, stored as parallel arrays so that the
+ * motion of all of them runs in tight loops the JIT can vectorize.
+ * <p>
+ * Motion matches {@link LanderEngine#landerMotion()} bit for bit, with the
+ * thruster and fuel tests turned into 0/1 factors instead of branches. Each
+ * {@link #step()} moves a block of landers, then tests that block against the
+ * terrain while it is still in cache, and decides the END_* outcome at the
+ * tick of contact. Finished landers stay where they ended.
+ * <p>
+ * The swarm flies over the terrain its world engine has when it is created;
+ * create a new swarm once the engine generates new terrain.
+ */
+public class LanderSwarm {
+	/** landers moved before their block is tested for contact */
+	private static final int BLOCK = 256;
+
+	/** position in pixels, y up from the bottom */
+	final float[] x, y;
+	/** velocity in m/s */
+	final float[] vx, vy;
+	final float[] fuel;
+	/**
+	 * thrusters firing on each step, 1 or 0, kept as floats because converting
+	 * INPUT_* bits inside the motion loop stops it vectorizing
+	 */
+	final float[] main, left, right;
+	/** END_* outcome, 0 while flying */
+	final byte[] outcome;
+	/** 1 while flying, 0 once finished */
+	private final float[] live;
+	/** distance to the nearest limit found by {@link #contact(int, int, float)} */
+	private final float[] margin;
+	private int nCount;
+	private int nFlying;
+
+	private final Terrain terrain;
+	private final float scaleY, dt;
+	private final float fLanderMass, fInitFuel, fMainForce, fAttitudeForce,
+		fMainBurn, fAttitudeBurn, fGravity, fMaxLandingX, fMaxLandingY;
+	private final float xStart, yStart, yGroundZero, xCenter, halfWidth;
+
+	/**
+	 * Creates an empty swarm over the current terrain of {@code world}, using
+	 * its physics, time step and lander size.
+	 */
+	public LanderSwarm(LanderEngine world, int capacity) {
+		x = new float[capacity];
+		y = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		fuel = new float[capacity];
+		main = new float[capacity];
+		left = new float[capacity];
+		right = new float[capacity];
+		outcome = new byte[capacity];
+		live = new float[capacity];
+		margin = new float[capacity];
+		terrain = world.getTerrain();
+		scaleY = world.getScale();
+		dt = world.getTimeStep();
+		LanderPhysics physics = world.getPhysics();
+		fLanderMass = physics.fLanderMass;
+		fInitFuel = physics.fInitFuel;
+		fMainForce = physics.fMainForce;
+		fAttitudeForce = physics.fAttitudeForce;
+		fMainBurn = physics.fMainBurn;
+		fAttitudeBurn = physics.fAttitudeBurn;
+		fGravity = physics.fGravity;
+		fMaxLandingX = physics.fMaxLandingX;
+		fMaxLandingY = physics.fMaxLandingY;
+		yGroundZero = world.getGroundZero();
+		xStart = world.getWidth() / 2;
+		yStart = (1000f / scaleY) + yGroundZero;
+		xCenter = world.getWidth() / 2;
+		halfWidth = world.getLanderWidth() / 2;
+	}
+
+	/** Adds a lander at the start position. @return its index */
+	public int launch() {
+		return add(xStart, yStart, 0f, 0f, fInitFuel);
+	}
+
+	/**
+	 * Adds a lander in flight.
+	 * @param x position in pixels
+	 * @param y position in pixels from the bottom
+	 * @return its index
+	 */
+	public int add(float x, float y, float vx, float vy, float fuel) {
+		if (nCount == this.x.length) throw new IllegalStateException("Swarm is full");
+		int i = nCount++;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.vx[i] = vx;
+		this.vy[i] = vy;
+		this.fuel[i] = fuel;
+		setInputs(i, 0);
+		outcome[i] = 0;
+		live[i] = 1f;
+		nFlying++;
+		return i;
+	}
+
+	/** Removes every lander. */
+	public void clear() {
+		Arrays.fill(live, 0, nCount, 0f);
+		nCount = 0;
+		nFlying = 0;
+	}
+
+	public int getCount() {
+		return nCount;
+	}
+
+	/** @return number of landers still flying */
+	public int getFlying() {
+		return nFlying;
+	}
+
+	/** Sets the INPUT_* bits lander {@code i} fires with from the next step. */
+	public void setInputs(int i, int inputs) {
+		main[i] = inputs & LanderEngine.INPUT_MAIN;
+		left[i] = (inputs & LanderEngine.INPUT_LEFT) >>> 1;
+		right[i] = (inputs & LanderEngine.INPUT_RIGHT) >>> 2;
+	}
+
+	public float getAltitude(int i) {
+		return (y[i] - yGroundZero) * scaleY;
+	}
+
+	public float getFuel(int i) {
+		return fuel[i];
+	}
+
+	public float getVelocityX(int i) {
+		return vx[i];
+	}
+
+	public float getVelocityY(int i) {
+		return vy[i];
+	}
+
+	/** @return END_* outcome of lander {@code i}, 0 while it is flying */
+	public byte getOutcome(int i) {
+		return outcome[i];
+	}
+
+	/** Advances every flying lander by one tick. */
+	public void step() {
+		float yClear = terrain.getMaxHeight() + 1;
+		for (int from = 0; from < nCount; from += BLOCK) {
+			int to = Math.min(from + BLOCK, nCount);
+			move(from, to);
+			contact(from, to, yClear);
+		}
+	}
+
+	/**
+	 * {@link LanderEngine#landerMotion()} for landers {@code from} to {@code to - 1}.
+	 * The motion is split into three short loops because the JIT only unrolls,
+	 * and so vectorizes, small loop bodies. Each uses the fuel from before this
+	 * tick's burn, which is why the burn comes last.
+	 */
+	private void move(int from, int to) {
+		final float[] x = this.x, y = this.y, vx = this.vx, vy = this.vy, fuel = this.fuel, live = this.live;
+		final float[] mains = this.main, lefts = this.left, rights = this.right;
+		final float xScale = scaleY / 2;
+		for (int i = from; i < to; i++) {
+			float f = fuel[i];
+			// 1 with fuel left, 0 without; a comparison here would stop vectorization.
+			// Exact for any fuel of at least 2^-127 kg.
+			float thrust = Math.min(f * 0x1p127f, 1f);
+			float step = dt * live[i];
+			float dVx = thrust * (lefts[i] - rights[i]) * (fAttitudeForce / (fLanderMass + f));
+			float newVx = vx[i] + dVx * step;
+			vx[i] = newVx;
+			x[i] += newVx * step / xScale;
+		}
+		for (int i = from; i < to; i++) {
+			float f = fuel[i];
+			float thrust = Math.min(f * 0x1p127f, 1f);
+			float step = dt * live[i];
+			float dVy = -fGravity + thrust * mains[i] * (fMainForce / (fLanderMass + f));
+			float newVy = vy[i] + dVy * step;
+			vy[i] = newVy;
+			y[i] += newVy * step / scaleY;
+		}
+		for (int i = from; i < to; i++) {
+			float f = fuel[i];
+			float thrust = Math.min(f * 0x1p127f, 1f);
+			float fBurn = thrust * (mains[i] * fMainBurn + lefts[i] * fAttitudeBurn + rights[i] * fAttitudeBurn)
+					* (dt * live[i]);
+			fuel[i] = Math.max(f - fBurn, 0f);
+		}
+	}
+
+	/**
+	 * Tests landers {@code from} to {@code to - 1} for touchdown and leaving
+	 * the field. A vectorized first pass finds each lander's margin from the
+	 * nearest limit: above {@code yClear} no ground can be touched, and inside
+	 * the range limits the flight goes on. Only landers without a positive
+	 * margin are tested against the terrain.
+	 */
+	private void contact(int from, int to, float yClear) {
+		final float[] x = this.x, y = this.y, margin = this.margin;
+		final float xScale = scaleY / 2;
+		for (int i = from; i < to; i++) {
+			float altitude = (y[i] - yGroundZero) * scaleY;
+			float m = Math.min(y[i] - yClear, Math.min(5000f - altitude, altitude + 500f));
+			margin[i] = Math.min(m, 1000f - Math.abs((x[i] - xCenter) * xScale));
+		}
+		for (int i = from; i < to; i++) {
+			if (margin[i] > 0f || live[i] == 0f) continue;
+			float left = x[i] - halfWidth, right = x[i] + halfWidth;
+			byte result = 0;
+			if (y[i] <= yClear && (terrain.touches(left, right, y[i]) || y[i] <= 0)) {
+				float absVy = Math.abs(vy[i]), absVx = Math.abs(vx[i]);
+				if (terrain.isLevel(left, right) && absVy <= fMaxLandingY && absVx <= fMaxLandingX)
+					result = LanderEngine.END_SAFE;
+				else if (absVy > fMaxLandingY) result = LanderEngine.END_CRASHV;
+				else if (absVx > fMaxLandingX) result = LanderEngine.END_CRASHH;
+				else result = LanderEngine.END_CRASHS;
+			} else {
+				float altitude = getAltitude(i);
+				if (altitude > 5000f | altitude < -500f | Math.abs((x[i] - xCenter) * (scaleY / 2)) > 1000f)
+					result = LanderEngine.END_OUTOFRANGE;
+			}
+			if (result != 0) {
+				outcome[i] = result;
+				live[i] = 0f;
+				nFlying--;
+			}
+		}
+	}
+}
@@ -19,117 +19,81 @@ package lander;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
+import java.awt.Transparency;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.io.File;
 import java.io.IOException;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.imageio.ImageIO;
+import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 
-public class LanderView extends JComponent implements KeyListener, MouseListener {
+public class LanderView extends JComponent implements KeyListener, MouseListener, GameLoop.Target {
 	private static final long serialVersionUID = 1L;
 	
 	private static final int FLAME_DELAY = 1;
-	private static final int STATUS_DELAY = 5;
-	/** number of frames in explosion */
-	private static final int EXPL_SEQUENCE = 10;
-	/** 50 milliseconds */
-	private static final int UPDATE_TIME = 50;
-
-	/** New: begin new game */
-	protected static final byte LND_NEW = 1;
-	/** Timing: timing loop to determine time interval */
-	private static final byte LND_TIMING = 2;
-	/** Restart: same terrain, start again */
-	protected static final byte LND_RESTART = 3;
-	/** Active state: lander is in the air */
-	private static final byte LND_ACTIVE = 4;
-	/** End: lander touches ground */
-	private static final byte LND_ENDGAME = 5;
-	/** Safe state: lander touches down safely */
-	private static final byte LND_SAFE = 6;
-	/** Crash state: lander crashed on surface */
-	private static final byte LND_CRASH1 = 7, LND_CRASH2 = 8, LND_CRASH3 = 9;
-	/** Explode state: lander has crashed, explosion */
-	private static final byte LND_EXPLODE = 10;
-	/** Out of range: lander out of bounds */
-	private static final byte LND_OUTOFRANGE = 11;
-	/** Inactive state: lander on the ground */
-	protected static final byte LND_INACTIVE = 12;
-	/** Inactive state: lander not doing anything */
-	private static final byte LND_HOLD = 13;
-
-	/* EndGame states */
-	/** landed safely */
-	private static final byte END_SAFE = 1;
-	/** Too much vertical velocity */
-	private static final byte END_CRASHV = 2;
-	/** Too much horizontal velocity */
-	private static final byte END_CRASHH = 3;
-	/** Missed the landing site */
-	private static final byte END_CRASHS = 4;
-	/** Lander out of range */
-	private static final byte END_OUTOFRANGE = 5;
-	/** about box */
-	private static final byte END_ABOUT = 6;
-
-	/* Defaults */
-	private static final float DEF_GRAVITY = 3f, DEF_FUEL = 1000f, DEF_THRUST = 10000f;
-
-	/* Physical Settings & Options */
-	/** mass of the lander in kg */
-	private float fLanderMass = 1000f;
-	/** kg of fuel to start */
-	private float fInitFuel = DEF_FUEL;
-	/** main engine thrust in Newtons */
-	private float fMainForce = DEF_THRUST;
-	/** attitude thruster force in Newtons */
-	private float fAttitudeForce = 2000f;
-	/** main engine kg of fuel / second */
-	private float fMainBurn = 10f;
-	/** attitude thruster kg of fuel / second */
-	private float fAttitudeBurn = 2f;
-	/** gravity acceleration in m/s² */
-	private float fGravity = DEF_GRAVITY;
-	/** max horizontal velocity on landing */
-	private float fMaxLandingX = 1f;
-	/** max vertical velocity on landing */
-	private float fMaxLandingY = 10f;
-	/** Fuel in kilograms */
-	private float fFuel;
+	/** most frames drawn per second */
+	private static final int MAX_FRAME_RATE = 60;
 
-	/**
-	 * Lander position in meters
-	 * @param landerY
-	 * 		altitude
-	 */
-	private float landerX, landerY;
-	/** Lander velocity in meters/sec */
-	private float landerVx, landerVy;
-	/** time increment in seconds */
-	private float dt = 0.5f;
+	/** images needed before the first frame, decoded in parallel */
+	private static final String[] IMAGES = {"img/left.png", "img/ileft.png", "img/right.png",
+		"img/iright.png", "img/thrust.png", "img/ithrust.png", "img/lander.png", "img/bflame.png",
+		"img/lflame.png", "img/rflame.png", "img/crash1.png", "img/crash2.png", "img/crash3.png"};
+	/** explosion frames, only needed once the lander is flying */
+	private static final String[] EXPL_IMAGES = new String[LanderEngine.EXPL_SEQUENCE];
+	static {
+		for (int i = 0; i < EXPL_IMAGES.length; i++) EXPL_IMAGES[i] = "img/expl" + (i + 1) + ".png";
+	}
+
+	/* Commands posted from the event thread, run at the start of the next tick */
+	private static final int CMD_NEW = 1, CMD_RESTART = 2, CMD_LAUNCH = 4, CMD_REPLAY = 8,
+		CMD_WORLD = 16;
+
+	/** engine ticks per loop tick in replay playback */
+	private static final int[] REPLAY_SPEEDS = {1, 4, 16};
+	private static final String[] REPLAY_LABELS = {"Replay 1x", "Replay 4x", "Replay 16x"};
+
+	/** rows of text in the top-left corner: rates, replay speed, frame times and tick times */
+	private static final int TEXT_ROWS = 5, TEXT_X = 10, TEXT_BASELINE = 20, TEXT_SPACING = 15;
+	/** separate rectangles tracked before they collapse into one */
+	private static final int DAMAGE_RECTS = 8;
+	/** thruster events that may wait for the next tick */
+	private static final int INPUT_QUEUE = 256;
+	/** particles live at once when frames are quick enough */
+	private static final int MAX_PARTICLES = 2048;
+	/** exhaust particles per tick from the main engine and from each side thruster */
+	private static final int MAIN_EXHAUST = 12, SIDE_EXHAUST = 4;
+	/** particles thrown out when the lander crashes */
+	private static final int CRASH_DEBRIS = 120, CRASH_DUST = 40;
 
-	/* Other variables */
 	/** reverse side thrust buttons */
 	private boolean bReverseSideThrust = false;
 	/** draw flame on lander */
@@ -146,33 +110,118 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 	private int xLanderPict, yLanderPict;
 
 	private Image hCrash1, hCrash2, hCrash3;
-	private Image[] hExpl;
-	//private Drawable hExpl[EXPL_SEQUENCE];
-
-	private int xGroundZero, yGroundZero;
-	/** Lander window state */
-	protected byte byLanderState = LND_NEW;
-	/** EndGame dialog state */
-	private byte byEndGameState;
-	private byte nExplCount;
-	
+	/** lander and crash sprites indexed by {@link LanderEngine#getSprite()}, followed by the flames */
+	private Image[] sprites;
+	private static final int SPR_BFLAME = LanderEngine.SPR_CRASH3 + 1,
+		SPR_LFLAME = SPR_BFLAME + 1, SPR_RFLAME = SPR_BFLAME + 2;
+	/** {@link #sprites} packed for drawing, created with the first frame */
+	private SpriteAtlas atlas;
+	/** explosion frames, loaded once a flight starts and packed on first use */
+	private SpriteAtlas explAtlas;
+	/** strip of the screen from the highest ground down, redrawn when the ground changes */
+	private BufferedImage terrainLayer;
+	/** top of {@link #terrainLayer} on screen */
+	private int yTerrainTop;
+	/** parts of the back buffer to redraw this frame, then show on screen */
+	private DirtyRegions damage;
+	/** redrawn parts of the back buffer not yet shown, guarded by {@link #bufferLock} */
+	private DirtyRegions screenDamage;
+	/** {@link #screenDamage} taken by the event thread to paint */
+	private DirtyRegions paintDamage;
+	/** whether {@link #paintDamaged} is queued on the event thread, guarded by {@link #bufferLock} */
+	private boolean bPaintPosted;
+	private int nTerrainRevision;
+
+	private LanderEngine engine;
+	/** lander state seen on the previous tick */
+	private byte byLastState;
+	private int nGroundRevision;
+	/** lander position before the last tick, for interpolation */
+	private float prevX, prevY;
+	private final AtomicInteger pendingCommands = new AtomicInteger();
+
+	private final ReplayRecorder recorder = new ReplayRecorder();
+	/** last flight flown by the player, set on the loop thread */
+	private volatile Replay lastReplay;
+	/** replay being played back, or null while the player is flying */
+	private Replay playback;
+	private int nPlaybackTick;
+	/** index into {@link #REPLAY_SPEEDS} */
+	private volatile int nReplaySpeed;
+	/** whether the Wide World option is checked; applied by {@link #CMD_WORLD} */
+	private volatile boolean bWideWorld;
+	/** streaming terrain for the Wide World option, created when first chosen */
+	private ChunkedTerrain world;
+	/** screen x of world x 0 while flying a world, else 0 */
+	private int xCamera;
+	/** outline of the world terrain in view, reused between frames */
+	private int[] polyX = new int[0], polyY = new int[0];
+	/** archive named by the lander.replays property that flights are appended to, if any */
+	private ReplayWriter replayWriter;
+	/** stream named by the lander.telemetry property that flights are written to, if any */
+	private TelemetryWriter telemetry;
+	/** file named by the lander.flightdata property that flight ticks are recorded to, if any */
+	private FlightDataRecorder dataRecorder;
+	/** table named by the lander.policy property that flies the Autopilot option, once loaded or solved */
+	private volatile PolicyTable policy;
+	/** whether the Autopilot option is checked */
+	private volatile boolean bAutopilot;
+	/** flights launched, numbering them in telemetry and flight data */
+	private int nFlights;
+	/** ticks of the flight being streamed to {@link #telemetry} */
+	private int nTelemetryTick;
+	private boolean bStreaming;
+
+	private GameLoop loop;
+	/** whether printing the loop's times at exit was set up, when lander.times is true */
+	private boolean bTimesDumped;
+	/** frame drawn by the loop thread, shown by {@link #paintComponent(Graphics)} */
+	private VolatileImage backBuffer;
+	private final Object bufferLock = new Object();
+	private String rateText = "";
+	/** text for each row in the top-left corner, and the text and width last drawn there */
+	private final String[] rowText = new String[TEXT_ROWS], drawnText = new String[TEXT_ROWS];
+	private final int[] drawnTextWidth = new int[TEXT_ROWS];
+	private FontMetrics textMetrics;
+	/** whether the frame and tick time overlay is shown, toggled from the menu */
+	private volatile boolean bDebugOverlay;
+	private String frameTimeText = "", tickTimeText = "";
+	/** construction time, and how long after it the first frame was drawn (0 until then) */
+	private final long createdNanos = System.nanoTime();
+	private volatile long firstFrameNanos;
+	private float lastFrameRate, lastTickRate;
+
+	/** ticks until the flames are next shown, so they flicker */
 	private int nFlameCount = FLAME_DELAY;
-	private int nCount = 0;
-	private long lastDraw;
-	private Random rand;
-	
-	private DecimalFormat df2 = new DecimalFormat("0.00"); // Fixed to 2 decimal places
+	/** lander sprite placed for this frame, and where, by {@link #placeLander(float)} */
+	private SpriteAtlas landerAtlas;
+	private int nDrawSprite, xLander, yLander, xLanderLeft, yLanderTop;
+	/** flames placed for this frame, a combination of the LanderEngine.INPUT_* bits */
+	private int nDrawFlames;
+	private final ParticleSystem particles = new ParticleSystem(MAX_PARTICLES, 1000000000L / MAX_FRAME_RATE);
+	/** bounds of the particles in the last frame */
+	private int xParticles, yParticles, wParticles, hParticles;
+	/** sprite, flames and bounds of the lander in the last frame */
+	private int nDrawnSprite = -1, nDrawnFlames, xDrawn, yDrawn, wDrawn, hDrawn;
+
+	/** altitude, velocity and fuel readouts, created with the first frame */
+	private HudRenderer hud;
 
-	private Image landerPict;
+	private int nLanderSprite = LanderEngine.SPR_LANDER;
 	private JButton btnLeft, btnRight, btnThrust;
-	private ImageIcon safe, dead;
 	private boolean bLanderBox;
 	private Path2D path;
-	private ArrayList<Point> groundPlot, contactPoints;
-	private Point pointCenter;
-	
-	private float scaleY;
 
+	/** thruster presses and releases from the event dispatch thread, applied each tick */
+	private final InputQueue inputQueue = new InputQueue(INPUT_QUEUE);
+	/** steps of Replay.DUTY_STEPS each thruster fired for in the tick being stepped */
+	private final int[] duty = new int[InputQueue.THRUSTERS.length];
+	/** end of the time the last tick's inputs were sampled over */
+	private long lastInputNanos;
+	/** time from a thruster being pressed to the tick that fires it */
+	private final LatencyHistogram inputLatency = new LatencyHistogram();
+	private String inputLatencyText = "";
+	/** thrusters fired in the last tick, on the loop thread */
 	private boolean mFiringMain;
 	private boolean mFiringLeft;
 	private boolean mFiringRight;
@@ -182,47 +231,46 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 	LanderView() {
 		xClient = 800;
 		yClient = 500;
+		damage = new DirtyRegions(xClient, yClient, DAMAGE_RECTS);
+		screenDamage = new DirtyRegions(xClient, yClient, DAMAGE_RECTS);
+		paintDamage = new DirtyRegions(xClient, yClient, DAMAGE_RECTS);
 		setPreferredSize(new Dimension(xClient, yClient));
 		createMenu();
-		rand = new Random(System.currentTimeMillis());
-		createGround();
-		fGravity = 3;
-		fInitFuel = 1000;
-		fMainForce = 10000;
 		bDrawFlame = true;
 		bReverseSideThrust = false;
 		bLanderBox = true;
+		Assets.preload(IMAGES);
+		Assets.preload("img/safe.png", "img/dead.png");
 		try {
-			btnLeft = new JButton(new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/left.png"))));
-			btnLeft.setPressedIcon(new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/ileft.png"))));
-			btnRight = new JButton(new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/right.png"))));
-			btnRight.setPressedIcon(new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/iright.png"))));
-			btnThrust = new JButton(new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/thrust.png"))));
-			btnThrust.setPressedIcon(new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/ithrust.png"))));
-			hLanderPict = ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/lander.png"));
-			hBFlamePict = ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/bflame.png"));
-			hLFlamePict = ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/lflame.png"));
-			hRFlamePict = ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/rflame.png"));
-			hCrash1 = ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/crash1.png"));
-			hCrash2 = ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/crash2.png"));
-			hCrash3 = ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/crash3.png"));
-			hExpl = new Image[] {ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl1.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl2.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl3.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl4.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl5.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl6.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl7.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl8.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl9.png")),
-					ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/expl10.png"))};
-			safe = new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/safe.png")));
-			dead = new ImageIcon(ImageIO.read(getClass().getClassLoader().getResourceAsStream("img/dead.png")));
+			btnLeft = new JButton(new ImageIcon(Assets.get("img/left.png")));
+			btnLeft.setPressedIcon(new ImageIcon(Assets.get("img/ileft.png")));
+			btnRight = new JButton(new ImageIcon(Assets.get("img/right.png")));
+			btnRight.setPressedIcon(new ImageIcon(Assets.get("img/iright.png")));
+			btnThrust = new JButton(new ImageIcon(Assets.get("img/thrust.png")));
+			btnThrust.setPressedIcon(new ImageIcon(Assets.get("img/ithrust.png")));
+			hLanderPict = Assets.get("img/lander.png");
+			hBFlamePict = Assets.get("img/bflame.png");
+			hLFlamePict = Assets.get("img/lflame.png");
+			hRFlamePict = Assets.get("img/rflame.png");
+			hCrash1 = Assets.get("img/crash1.png");
+			hCrash2 = Assets.get("img/crash2.png");
+			hCrash3 = Assets.get("img/crash3.png");
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		xLanderPict = hLanderPict.getWidth(null);
 		yLanderPict = hLanderPict.getHeight(null);
+		sprites = new Image[SPR_RFLAME + 1];
+		sprites[LanderEngine.SPR_LANDER] = hLanderPict;
+		sprites[LanderEngine.SPR_CRASH1] = hCrash1;
+		sprites[LanderEngine.SPR_CRASH2] = hCrash2;
+		sprites[LanderEngine.SPR_CRASH3] = hCrash3;
+		sprites[SPR_BFLAME] = hBFlamePict;
+		sprites[SPR_LFLAME] = hLFlamePict;
+		sprites[SPR_RFLAME] = hRFlamePict;
+		engine = new LanderEngine(xClient, yClient, xLanderPict, yLanderPict);
+		byLastState = engine.getState();
+		loop = new GameLoop(this, LanderEngine.TICK_MILLIS, MAX_FRAME_RATE);
 		btnLeft.setBounds(xClient - 130, 110, 48, 48);
 		btnLeft.setBorderPainted(false);
 		btnLeft.setFocusable(false);
@@ -241,6 +289,26 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 		addKeyListener(this);
 		setFocusable(true);
 	}
+
+	/**
+	 * Prints the frame and tick time and input latency histograms when the
+	 * JVM exits. Only installed when the lander.times property is true; the
+	 * debug overlay shows the same figures while playing.
+	 */
+	private void dumpTimesOnExit() {
+		try {
+			Runtime.getRuntime().addShutdownHook(new Thread("LanderView times") {
+				@Override
+				public void run() {
+					loop.getFrameTimes().print(System.out, "Frame time");
+					loop.getTickTimes().print(System.out, "Tick time");
+					inputLatency.print(System.out, "Input latency");
+				}
+			});
+		} catch (SecurityException e) {
+			// Not allowed in an applet
+		}
+	}
 	
 	private void createMenu() {
 		JMenu menu;
@@ -252,7 +320,7 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 		menuItem.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				byLanderState = LND_NEW;
+				post(CMD_NEW);
 			}
 		});
 		menuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0));
@@ -261,23 +329,53 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 		menuItem.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				byLanderState = LND_RESTART;
+				post(CMD_RESTART);
 			}
 		});
 		menuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
 		menu.add(menuItem);
+		final JCheckBoxMenuItem worldItem = new JCheckBoxMenuItem("Wide World");
+		worldItem.setMnemonic(KeyEvent.VK_W);
+		worldItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				bWideWorld = worldItem.isSelected();
+				post(CMD_WORLD);
+			}
+		});
+		menu.add(worldItem);
+		final JCheckBoxMenuItem autopilotItem = new JCheckBoxMenuItem("Autopilot");
+		autopilotItem.setMnemonic(KeyEvent.VK_A);
+		autopilotItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				bAutopilot = autopilotItem.isSelected();
+			}
+		});
+		autopilotItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F6, 0));
+		menu.add(autopilotItem);
+		final JCheckBoxMenuItem overlayItem = new JCheckBoxMenuItem("Debug Overlay");
+		overlayItem.setMnemonic(KeyEvent.VK_D);
+		overlayItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				bDebugOverlay = overlayItem.isSelected();
+			}
+		});
+		overlayItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F12, 0));
+		menu.add(overlayItem);
 		menuItem = new JMenuItem(Messages.getString("options") + "...", KeyEvent.VK_O); //$NON-NLS-1$
 		menuItem.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				byLanderState = LND_INACTIVE;
 				// TODO Open options here
-				byLanderState = LND_RESTART;
+				post(CMD_RESTART);
 			}
 		});
 		menuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F4, 0));
 		menuItem.setEnabled(false);
 		menu.add(menuItem);
+		createReplayMenu();
 		menuItem = new JMenuItem("Exit", KeyEvent.VK_X);
 		menuItem.setEnabled(false);
 		menu.add(menuItem);
@@ -287,43 +385,452 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 		menu.add(menuItem);
 	}
 
+	private void createReplayMenu() {
+		JMenu menu = new JMenu("Replay");
+		menu.setMnemonic(KeyEvent.VK_P);
+		menuBar.add(menu);
+		JMenuItem menuItem = new JMenuItem("Play Last Flight", KeyEvent.VK_P);
+		menuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				post(CMD_REPLAY);
+			}
+		});
+		menuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
+		menu.add(menuItem);
+		menu.addSeparator();
+		ButtonGroup group = new ButtonGroup();
+		for (int i = 0; i < REPLAY_SPEEDS.length; i++) {
+			final int speed = i;
+			menuItem = new JRadioButtonMenuItem(REPLAY_SPEEDS[i] + "x", i == nReplaySpeed);
+			menuItem.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					nReplaySpeed = speed;
+				}
+			});
+			group.add(menuItem);
+			menu.add(menuItem);
+		}
+	}
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if (!bTimesDumped && Boolean.getBoolean("lander.times")) {
+			bTimesDumped = true;
+			dumpTimesOnExit();
+		}
+		String archive = System.getProperty("lander.replays");
+		if (archive != null && replayWriter == null) {
+			try {
+				replayWriter = new ReplayWriter(new File(archive));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		String stream = System.getProperty("lander.telemetry");
+		if (stream != null && telemetry == null) {
+			try {
+				telemetry = new TelemetryWriter(new File(stream));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		String flightData = System.getProperty("lander.flightdata");
+		if (flightData != null && dataRecorder == null) {
+			try {
+				dataRecorder = new FlightDataRecorder(new File(flightData));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		String table = System.getProperty("lander.policy");
+		if (table != null && policy == null) loadPolicy(new File(table));
+		loop.start();
+	}
+
+	/**
+	 * Maps the policy table in {@code file}, or solves one for the current
+	 * physics in the background and saves it there if there is none yet.
+	 * Solving takes a minute or more, so it runs on its own pool of
+	 * low-priority threads that leaves a core to the game loop.
+	 */
+	private void loadPolicy(final File file) {
+		if (file.exists()) {
+			try {
+				policy = PolicyTable.open(file);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		System.err.println("No policy table at " + file + ", solving one in the background");
+		final LanderPhysics physics = engine.getPhysics();
+		final float dt = engine.getTimeStep();
+		final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+				new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+					@Override
+					public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+						ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				}, null, false);
+		Thread solver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					PolicyTable solved = PolicyTable.solve(physics, dt, pool);
+					try {
+						solved.write(file);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					policy = solved;
+				} finally {
+					pool.shutdown();
+				}
+			}
+		}, "PolicyTable");
+		solver.setDaemon(true);
+		solver.setPriority(Thread.MIN_PRIORITY);
+		solver.start();
+	}
+
+	@Override
+	public void removeNotify() {
+		loop.stop();
+		if (replayWriter != null) {
+			try {
+				replayWriter.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			replayWriter = null;
+		}
+		if (telemetry != null) {
+			try {
+				telemetry.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			telemetry = null;
+		}
+		if (dataRecorder != null) {
+			try {
+				dataRecorder.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			dataRecorder = null;
+		}
+		super.removeNotify();
+	}
+
+	/** Queues a CMD_* command for the loop thread. */
+	private void post(int command) {
+		int pending;
+		do {
+			pending = pendingCommands.get();
+		} while (!pendingCommands.compareAndSet(pending, pending | command));
+	}
+
+	@Override
+	public void tick() {
+		int commands = pendingCommands.getAndSet(0);
+		if ((commands & (CMD_NEW | CMD_RESTART | CMD_WORLD)) != 0) {
+			playback = null;
+			recorder.cancel();
+			particles.clear();
+		}
+		if ((commands & CMD_WORLD) != 0) {
+			if (bWideWorld && world == null) world = engine.createWorld();
+			engine.setWorld(bWideWorld ? world : null);
+		} else if ((commands & CMD_NEW) != 0) engine.newGame();
+		else if ((commands & CMD_RESTART) != 0) engine.restart();
+		// Replays record single-screen flights only
+		else if ((commands & CMD_REPLAY) != 0 && lastReplay != null && engine.getWorld() == null) {
+			recorder.cancel();
+			playback = lastReplay;
+			nPlaybackTick = 0;
+			playback.prepare(engine);
+			byLastState = engine.getState();
+			particles.clear();
+		}
+		if ((commands & CMD_LAUNCH) != 0 && playback == null) engine.launch();
+		prevX = engine.getLanderX();
+		prevY = engine.getLanderY();
+		updateLander();
+		emitExhaust();
+		particles.update(engine.getGround());
+		if (engine.getState() != LanderEngine.LND_ACTIVE) {
+			prevX = engine.getLanderX();
+			prevY = engine.getLanderY();
+		}
+		if (nFlameCount == 0) nFlameCount = FLAME_DELAY;
+		else nFlameCount--;
+		if (nGroundRevision != engine.getGroundRevision()) createPath();
+	}
+
+	/** Emits exhaust from the thrusters firing, moving with the lander. */
+	private void emitExhaust() {
+		if (engine.getState() != LanderEngine.LND_ACTIVE || engine.getFuel() <= 0f) return;
+		float x = engine.getLanderX(), y = engine.getLanderY() + engine.getLanderHeight() / 2;
+		float vx = x - prevX, vy = engine.getLanderY() - prevY;
+		if (mFiringMain)
+			for (int i = 0; i < MAIN_EXHAUST; i++)
+				particles.emit(ParticleSystem.EXHAUST, x, y - 25, vx, vy - 8f, 1.5f, 10);
+		if (mFiringLeft)
+			for (int i = 0; i < SIDE_EXHAUST; i++)
+				particles.emit(ParticleSystem.EXHAUST, x - 29, y + 5, vx - 5f, vy, 1f, 6);
+		if (mFiringRight)
+			for (int i = 0; i < SIDE_EXHAUST; i++)
+				particles.emit(ParticleSystem.EXHAUST, x + 29, y + 5, vx + 5f, vy, 1f, 6);
+	}
+
+	/** Throws out debris, and dust where the lander hit the ground. */
+	private void emitCrash() {
+		float x = engine.getLanderX(), y = engine.getLanderY();
+		for (int i = 0; i < CRASH_DEBRIS; i++)
+			particles.emit(ParticleSystem.DEBRIS, x, y + engine.getLanderHeight() / 2, 0f, 4f, 6f, 40);
+		for (int i = 0; i < CRASH_DUST; i++)
+			particles.emit(ParticleSystem.DUST, x, y, 0f, 1.5f, 3f, 30);
+	}
+
+	@Override
+	public void render(float alpha) {
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (gc == null || path == null) return;
+		long start = GameClock.now();
+		boolean bPost = false;
+		synchronized (bufferLock) {
+			do {
+				int valid = backBuffer == null ? VolatileImage.IMAGE_INCOMPATIBLE : backBuffer.validate(gc);
+				if (valid == VolatileImage.IMAGE_INCOMPATIBLE)
+					backBuffer = gc.createCompatibleVolatileImage(xClient, yClient);
+				// A new or restored buffer holds nothing from earlier frames
+				if (valid != VolatileImage.IMAGE_OK) damage.addSurface();
+				Graphics2D g2d = backBuffer.createGraphics();
+				Events.Paint event = new Events.Paint();
+				event.begin();
+				try {
+					drawFrame(g2d, alpha);
+				} finally {
+					g2d.dispose();
+					event.commit();
+				}
+			} while (backBuffer.contentsLost());
+			if (!damage.isEmpty()) {
+				screenDamage.addAll(damage);
+				bPost = !bPaintPosted;
+				bPaintPosted = true;
+			}
+		}
+		damage.clear();
+		if (bPost) SwingUtilities.invokeLater(paintDamaged);
+		particles.adapt(GameClock.now() - start);
+		if (firstFrameNanos == 0) firstFrameNanos = System.nanoTime() - createdNanos;
+	}
+
+	/**
+	 * Shows the parts of the back buffer redrawn since it last ran. Each
+	 * rectangle is painted on its own, where repaint() would coalesce them
+	 * into their bounding box.
+	 */
+	private final Runnable paintDamaged = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (bufferLock) {
+				paintDamage.clear();
+				paintDamage.addAll(screenDamage);
+				screenDamage.clear();
+				bPaintPosted = false;
+			}
+			for (int i = 0; i < paintDamage.size(); i++)
+				paintImmediately(paintDamage.getX(i), paintDamage.getY(i), paintDamage.getWidth(i), paintDamage.getHeight(i));
+		}
+	};
+
+	/** @return parts of the frame marked to be redrawn by the next {@link #drawFrame(Graphics2D, float)} */
+	DirtyRegions getDamage() {
+		return damage;
+	}
+
+	/** @return time from each thruster press to the tick that fired it */
+	LatencyHistogram getInputLatency() {
+		return inputLatency;
+	}
+
+	/** @return nanoseconds from construction to the first drawn frame, or 0 if none drawn yet */
+	long getTimeToFirstFrame() {
+		return firstFrameNanos;
+	}
+
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g);
-		Graphics2D g2d = (Graphics2D)g;
+		synchronized (bufferLock) {
+			if (backBuffer != null && !backBuffer.contentsLost()) {
+				g.drawImage(backBuffer, 0, 0, null);
+				return;
+			}
+		}
 		g.setColor(Color.BLACK);
 		g.fillRect(0, 0, getWidth(), getHeight());
-		updateLander();
+	}
+
+	/**
+	 * Brings the frame in {@code g2d} up to date. Only the parts that changed
+	 * since the last frame are redrawn, and they are added to {@link #damage}:
+	 * the lander and its flames where they were and where they are now, HUD
+	 * values and text that changed, or everything when the terrain changed
+	 * or the world view scrolls.
+	 */
+	void drawFrame(Graphics2D g2d, float alpha) {
+		if (atlas == null) atlas = new SpriteAtlas(sprites, getGraphicsConfiguration());
+		if (hud == null) {
+			hud = new HudRenderer(getGraphicsConfiguration(), g2d.getFont(), Color.WHITE, xClient);
+			textMetrics = g2d.getFontMetrics();
+			damage.addSurface();
+		}
+		ChunkedTerrain world = engine.getWorld();
+		if (world != null) {
+			xCamera = Math.round(prevX + (engine.getLanderX() - prevX) * alpha) - xClient / 2;
+			damage.addSurface();
+		} else {
+			xCamera = 0;
+			if (terrainLayer == null || nTerrainRevision != nGroundRevision) {
+				createTerrainLayer();
+				damage.addSurface();
+			}
+		}
+		hud.setValue(HudRenderer.ALTITUDE, engine.getAltitude());
+		hud.setValue(HudRenderer.VELOCITY_X, engine.getVelocityX());
+		hud.setValue(HudRenderer.VELOCITY_Y, engine.getVelocityY());
+		hud.setValue(HudRenderer.FUEL, engine.getFuel());
+		hud.update(damage);
+		updateText();
+		placeLander(alpha);
+		placeParticles(alpha);
+		for (int i = 0; i < damage.size(); i++) {
+			g2d.setClip(damage.getX(i), damage.getY(i), damage.getWidth(i), damage.getHeight(i));
+			if (world != null) drawWorld(g2d, world);
+			else {
+				g2d.setColor(Color.BLACK);
+				g2d.fillRect(0, 0, xClient, yTerrainTop);
+				g2d.drawImage(terrainLayer, 0, yTerrainTop, null);
+			}
+			hud.draw(g2d);
+			drawText(g2d);
+			particles.draw(g2d);
+			drawLander(g2d);
+		}
+		g2d.setClip(null);
+	}
+
+	/** Draws the background and the world terrain in view, scrolled to keep the lander centered. */
+	private void drawWorld(Graphics2D g, ChunkedTerrain world) {
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, xClient, yClient);
+		int width = world.getChunkWidth();
+		long first = world.chunkOf(xCamera), last = world.chunkOf(xCamera + xClient);
+		int n = 0;
+		for (long k = first; k <= last; k++) {
+			Terrain chunk = world.getChunk(k);
+			if (n + chunk.getPoints() + 2 > polyX.length) {
+				polyX = Arrays.copyOf(polyX, 2 * (n + chunk.getPoints() + 2));
+				polyY = Arrays.copyOf(polyY, polyX.length);
+			}
+			int xBase = (int)(k * width - xCamera);
+			// Neighboring chunks share their edge point
+			for (int i = k == first ? 0 : 1; i < chunk.getPoints(); i++) {
+				polyX[n] = xBase + chunk.getX(i);
+				polyY[n++] = invertY(chunk.getHeight(i));
+			}
+		}
+		polyX[n] = polyX[n - 1];
+		polyY[n++] = yClient;
+		polyX[n] = polyX[0];
+		polyY[n++] = yClient;
 		g.setColor(Color.WHITE);
-		AffineTransform identity = new AffineTransform();
-        g2d.setTransform(identity);
-		g2d.fill(path.createTransformedShape(null));
-		g2d.drawString(Messages.getString("altitude"), xClient - 158, 40); //$NON-NLS-1$
-		g2d.drawString(df2.format((landerY - yGroundZero) * scaleY), xClient - 100, 40);
-		g2d.drawString(Messages.getString("velocity_x"), xClient - 170, 60); //$NON-NLS-1$
-		g2d.drawString(df2.format(landerVx), xClient - 100, 60);
-		g2d.drawString(Messages.getString("velocity_y"), xClient - 170, 80); //$NON-NLS-1$
-		g2d.drawString(df2.format(landerVy), xClient - 100, 80);
-		g2d.drawString(Messages.getString("fuel"), xClient - 137, 100); //$NON-NLS-1$
-		g2d.drawString(df2.format(fFuel), xClient - 100, 100);
-		drawLander(g);
+		g.fillPolygon(polyX, polyY, n);
+	}
+
+	/** Draws the terrain and the background behind it into {@link #terrainLayer}. */
+	private void createTerrainLayer() {
+		yTerrainTop = path.getBounds().y;
+		if (terrainLayer == null || terrainLayer.getHeight() != yClient - yTerrainTop)
+			terrainLayer = SpriteAtlas.createImage(getGraphicsConfiguration(),
+					xClient, yClient - yTerrainTop, Transparency.OPAQUE);
+		Graphics2D g2d = terrainLayer.createGraphics();
 		try {
-			Thread.sleep(UPDATE_TIME);
-			repaint();
-		} catch (InterruptedException e) {
-			System.out.println(e);
+			g2d.setColor(Color.BLACK);
+			g2d.fillRect(0, 0, xClient, terrainLayer.getHeight());
+			g2d.setColor(Color.WHITE);
+			g2d.translate(0, -yTerrainTop);
+			g2d.fill(path);
+		} finally {
+			g2d.dispose();
+		}
+		nTerrainRevision = nGroundRevision;
+	}
+
+	/**
+	 * Sets the text in the top-left corner: the frame and tick rates the loop
+	 * is achieving, the replay speed during playback and, with the debug
+	 * overlay on, percentiles of the time taken by frames and ticks and how
+	 * long the first frame took after the view was created. The rate
+	 * and time text is rebuilt once a second, when the rates are measured.
+	 * Rows whose text changed are marked damaged.
+	 */
+	private void updateText() {
+		if (loop.getFrameRate() != lastFrameRate || loop.getTickRate() != lastTickRate) {
+			lastFrameRate = loop.getFrameRate();
+			lastTickRate = loop.getTickRate();
+			rateText = Math.round(lastFrameRate) + " fps, " + Math.round(lastTickRate) + " ticks/s";
+			if (bDebugOverlay) {
+				frameTimeText = timesText("frame", loop.getFrameTimes())
+						+ ", first after " + firstFrameNanos / 1000000 + " ms";
+				tickTimeText = timesText("tick", loop.getTickTimes()) + ", " + loop.getClock().getStalls() + " stalls";
+				inputLatencyText = timesText("input", inputLatency);
+			}
+		}
+		rowText[0] = rateText;
+		rowText[1] = playback != null ? REPLAY_LABELS[nReplaySpeed] : null;
+		rowText[2] = bDebugOverlay ? frameTimeText : null;
+		rowText[3] = bDebugOverlay ? tickTimeText : null;
+		rowText[4] = bDebugOverlay ? inputLatencyText : null;
+		for (int i = 0; i < TEXT_ROWS; i++) {
+			if (rowText[i] == drawnText[i]) continue;
+			int width = rowText[i] == null ? 0 : textMetrics.stringWidth(rowText[i]);
+			damage.add(TEXT_X, TEXT_BASELINE + i * TEXT_SPACING - textMetrics.getAscent(),
+					Math.max(width, drawnTextWidth[i]), textMetrics.getHeight());
+			drawnText[i] = rowText[i];
+			drawnTextWidth[i] = width;
 		}
 	}
+
+	private void drawText(Graphics g) {
+		g.setColor(Color.GRAY);
+		for (int i = 0; i < TEXT_ROWS; i++)
+			if (drawnText[i] != null) g.drawString(drawnText[i], TEXT_X, TEXT_BASELINE + i * TEXT_SPACING);
+	}
+
+	private static String timesText(String name, LatencyHistogram times) {
+		return String.format("%s p50 %.2f  p99 %.2f  p99.9 %.2f  max %.2f ms", name,
+				times.getValueAtPercentile(50) / 1e6, times.getValueAtPercentile(99) / 1e6,
+				times.getValueAtPercentile(99.9) / 1e6, times.getMax() / 1e6);
+	}
 	
 	private void endGameDialog() {
-		setFiringThrust(false);
-		setFiringLeft(false);
-		setFiringRight(false);
+		releaseThrusters();
 		String msg = Messages.getString("end_crash") + "\n"; //$NON-NLS-1$
-		switch (byEndGameState) {
-		case END_SAFE:
+		switch (engine.getEndGameState()) {
+		case LanderEngine.END_SAFE:
 			msg = Messages.getString("end_safe"); //$NON-NLS-1$
 			break;
-		case END_CRASHV:
+		case LanderEngine.END_CRASHV:
 			switch (new Random().nextInt(3)) {
 			case 0:
 				msg += Messages.getString("end_crashv1"); //$NON-NLS-1$
@@ -336,13 +843,13 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 				break;
 			}
 			break;
-		case END_CRASHH:
+		case LanderEngine.END_CRASHH:
 			msg += Messages.getString("end_crashh"); //$NON-NLS-1$
 			break;
-		case END_CRASHS:
+		case LanderEngine.END_CRASHS:
 			msg += Messages.getString("end_crashs"); //$NON-NLS-1$
 			break;
-		case END_OUTOFRANGE:
+		case LanderEngine.END_OUTOFRANGE:
 			msg = Messages.getString("end_outofrange"); //$NON-NLS-1$
 			break;
 		}
@@ -353,72 +860,155 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
-				ImageIcon img;
-				if (byEndGameState == END_SAFE) img = safe;
-				else img = dead;
+				ImageIcon img = null;
+				try {
+					if (engine.getEndGameState() == LanderEngine.END_SAFE) img = new ImageIcon(Assets.get("img/safe.png"));
+					else img = new ImageIcon(Assets.get("img/dead.png"));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 				JOptionPane.showMessageDialog(LanderView.this, text, null, JOptionPane.PLAIN_MESSAGE, img);
 			}
 		});
 	}
 	
-	private void drawStatus(boolean bOverride) {
-		if ((nCount >= STATUS_DELAY) | bOverride) {
-			//txtAlt.setText(df2.format((landerY - yGroundZero) * scaleY));
-			//txtAlt.setText(df2.format(landerVx));
-			//txtAlt.setText(df2.format(landerVy));
-			//txtAlt.setText(df2.format(fFuel));
-			nCount = 0;
-		} else nCount++;
+	/**
+	 * Works out which sprite and flames to draw this frame and where, and
+	 * marks where the lander was and where it is now as damaged if anything
+	 * about it changed.
+	 */
+	private void placeLander(float alpha) {
+		landerAtlas = atlas;
+		nDrawSprite = nLanderSprite;
+		if (nDrawSprite >= LanderEngine.SPR_EXPL) {
+			if (explAtlas == null) createExplAtlas();
+			landerAtlas = explAtlas;
+			nDrawSprite -= LanderEngine.SPR_EXPL;
+		}
+		xLanderPict = landerAtlas.getWidth(nDrawSprite);
+		yLanderPict = landerAtlas.getHeight(nDrawSprite);
+		float landerX = prevX + (engine.getLanderX() - prevX) * alpha - xCamera,
+			landerY = prevY + (engine.getLanderY() - prevY) * alpha;
+		xLander = (int)landerX;
+		yLander = (int)landerY;
+		yLanderTop = invertY(yLander + yLanderPict);
+		xLanderLeft = xLander - xLanderPict / 2;
+		nDrawFlames = 0;
+		if (nFlameCount == 0 & bDrawFlame & engine.getFuel() > 0f & engine.getState() == LanderEngine.LND_ACTIVE) {
+			if (mFiringMain) nDrawFlames |= LanderEngine.INPUT_MAIN;
+			if (mFiringLeft) nDrawFlames |= LanderEngine.INPUT_LEFT;
+			if (mFiringRight) nDrawFlames |= LanderEngine.INPUT_RIGHT;
+		}
+		int x = xLanderLeft, y = yLanderTop, x2 = x + xLanderPict, y2 = y + yLanderPict;
+		for (int sprite = SPR_BFLAME; sprite <= SPR_RFLAME; sprite++) {
+			if ((nDrawFlames & flameInput(sprite)) == 0) continue;
+			x = Math.min(x, flameLeft(sprite));
+			y = Math.min(y, flameTop(sprite));
+			x2 = Math.max(x2, flameLeft(sprite) + atlas.getWidth(sprite));
+			y2 = Math.max(y2, flameTop(sprite) + atlas.getHeight(sprite));
+		}
+		int nSprite = nLanderSprite;
+		if (nSprite == nDrawnSprite && nDrawFlames == nDrawnFlames
+				&& x == xDrawn && y == yDrawn && x2 - x == wDrawn && y2 - y == hDrawn) return;
+		damage.add(xDrawn, yDrawn, wDrawn, hDrawn);
+		damage.add(x, y, x2 - x, y2 - y);
+		nDrawnSprite = nSprite;
+		nDrawnFlames = nDrawFlames;
+		xDrawn = x;
+		yDrawn = y;
+		wDrawn = x2 - x;
+		hDrawn = y2 - y;
 	}
-	
+
+	/**
+	 * Puts the view in the state of a recorded tick, for drawing it with
+	 * {@link #drawFrame(Graphics2D, float)} without running the game. The
+	 * lander is drawn moving from where it was in {@code previous}, and the
+	 * whole frame is marked to be redrawn. Particles are not simulated.
+	 * @param bFlames whether this tick is one where the flames are shown
+	 */
+	void show(FlightSnapshot previous, FlightSnapshot current, boolean bFlames) {
+		current.applyTo(engine);
+		byLastState = engine.getState();
+		prevX = previous.getLanderX();
+		prevY = previous.getLanderY();
+		nLanderSprite = engine.getSprite();
+		setFired(current.getInputs());
+		nFlameCount = bFlames ? 0 : FLAME_DELAY;
+		if (nGroundRevision != engine.getGroundRevision()) createPath();
+		damage.addSurface();
+	}
+
+	/** Places the particles for this frame and marks where they were and are now as damaged. */
+	private void placeParticles(float alpha) {
+		particles.place(alpha, xCamera, yClient);
+		if (wParticles == 0 && particles.getCount() == 0) return;
+		damage.add(xParticles, yParticles, wParticles, hParticles);
+		xParticles = particles.getLeft();
+		yParticles = particles.getTop();
+		wParticles = particles.getWidth();
+		hParticles = particles.getHeight();
+		damage.add(xParticles, yParticles, wParticles, hParticles);
+	}
+
+	/** Draws the lander and its flames as placed by {@link #placeLander(float)}. */
 	private void drawLander(Graphics g) {
 		g.setColor(Color.BLACK);
-		xLanderPict = landerPict.getWidth(null);
-		yLanderPict = landerPict.getHeight(null);
-		int yTop = invertY((int)landerY + yLanderPict);
-		int xLeft = (int)landerX - xLanderPict / 2;
-		if (bLanderBox) g.fillRect(xLeft, yTop, xLanderPict, yLanderPict);
-		if (nFlameCount == 0 & bDrawFlame & fFuel > 0f & byLanderState == LND_ACTIVE) {
-			int yTopF, xLeftF;
-			if (mFiringMain) {
-				yTopF = invertY((int)landerY + (yLanderPict / 2) - 25 + hBFlamePict.getHeight(null) / 2);
-				xLeftF = (int)landerX - hBFlamePict.getWidth(null) / 2;
-				g.drawImage(hBFlamePict, xLeftF, yTopF, hBFlamePict.getWidth(null), hBFlamePict.getHeight(null), null);
-			}
-			if (mFiringLeft) {
-				yTopF = invertY((int)landerY + (yLanderPict / 2) + 5 + hLFlamePict.getHeight(null) / 2);
-				xLeftF = (int)landerX - 29 - hLFlamePict.getWidth(null) / 2;
-				g.drawImage(hLFlamePict, xLeftF, yTopF, hLFlamePict.getWidth(null), hLFlamePict.getHeight(null), null);
-			}
-			if (mFiringRight) {
-				yTopF = invertY((int)landerY + (yLanderPict / 2) + 5 + hRFlamePict.getHeight(null) / 2);
-				xLeftF = (int)landerX + 29 - hRFlamePict.getWidth(null) / 2;
-				g.drawImage(hRFlamePict, xLeftF, yTopF, hRFlamePict.getWidth(null), hRFlamePict.getHeight(null), null);
-			}
-		}
-		long now = System.currentTimeMillis();
-		if (now - lastDraw >= UPDATE_TIME) {
-			if (nFlameCount == 0) nFlameCount = FLAME_DELAY;
-			else nFlameCount--;
-			lastDraw = now;
-		}
-		g.drawImage(landerPict, xLeft, yTop, xLanderPict, yLanderPict, null);
+		if (bLanderBox) g.fillRect(xLanderLeft, yLanderTop, xLanderPict, yLanderPict);
+		for (int sprite = SPR_BFLAME; sprite <= SPR_RFLAME; sprite++)
+			if ((nDrawFlames & flameInput(sprite)) != 0) atlas.draw(g, sprite, flameLeft(sprite), flameTop(sprite));
+		landerAtlas.draw(g, nDrawSprite, xLanderLeft, yLanderTop);
+	}
+
+	/** @return the LanderEngine.INPUT_* bit of the thruster a flame sprite belongs to */
+	private static int flameInput(int sprite) {
+		if (sprite == SPR_BFLAME) return LanderEngine.INPUT_MAIN;
+		return sprite == SPR_LFLAME ? LanderEngine.INPUT_LEFT : LanderEngine.INPUT_RIGHT;
+	}
+
+	private int flameLeft(int sprite) {
+		int offset = sprite == SPR_LFLAME ? -29 : sprite == SPR_RFLAME ? 29 : 0;
+		return xLander + offset - atlas.getWidth(sprite) / 2;
+	}
+
+	private int flameTop(int sprite) {
+		int offset = sprite == SPR_BFLAME ? -25 : 5;
+		return invertY(yLander + (yLanderPict / 2) + offset + atlas.getHeight(sprite) / 2);
+	}
+
+	/** Packs the explosion frames, waiting for any still being decoded. */
+	private void createExplAtlas() {
+		Image[] frames = new Image[EXPL_IMAGES.length];
+		for (int i = 0; i < frames.length; i++) {
+			try {
+				frames[i] = Assets.get(EXPL_IMAGES[i]);
+			} catch (IOException e) {
+				e.printStackTrace();
+				frames[i] = hCrash3;
+			}
+		}
+		explAtlas = new SpriteAtlas(frames, getGraphicsConfiguration());
 	}
 	
+	/** Queues a press or release of the main engine; on the event dispatch thread only. */
 	private void setFiringThrust(boolean firing) {
-		mFiringMain = firing;
+		inputQueue.offer(LanderEngine.INPUT_MAIN, firing, GameClock.now());
 	}
 
 	private void setFiringLeft(boolean firing) {
-		if (bReverseSideThrust)
-			mFiringRight = firing;
-		else mFiringLeft = firing;
+		inputQueue.offer(bReverseSideThrust ? LanderEngine.INPUT_RIGHT : LanderEngine.INPUT_LEFT, firing, GameClock.now());
 	}
 
 	private void setFiringRight(boolean firing) {
-		if (bReverseSideThrust)
-			mFiringLeft = firing;
-		else mFiringRight = firing;
+		inputQueue.offer(bReverseSideThrust ? LanderEngine.INPUT_LEFT : LanderEngine.INPUT_RIGHT, firing, GameClock.now());
+	}
+
+	/** Lets go of every thruster, as when a flight ends; on the loop thread. */
+	private void releaseThrusters() {
+		inputQueue.releaseAll();
+		mFiringMain = false;
+		mFiringLeft = false;
+		mFiringRight = false;
 	}
 	
 	private Component origBtn;
@@ -440,7 +1030,7 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 
 	@Override
 	public void mouseExited(MouseEvent e) {
-		if (SwingUtilities.isLeftMouseButton(e) & byLanderState == LND_ACTIVE) {
+		if (SwingUtilities.isLeftMouseButton(e) & engine.getState() == LanderEngine.LND_ACTIVE) {
 			if (e.getComponent() == btnLeft)
 				setFiringLeft(false);
 			else if (e.getComponent() == btnRight)
@@ -453,8 +1043,7 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 	@Override
 	public void mousePressed(MouseEvent e) {
 		if (SwingUtilities.isLeftMouseButton(e)) {
-			if (byLanderState == LND_HOLD)
-				byLanderState = LND_ACTIVE;
+			post(CMD_LAUNCH);
 			if (e.getComponent() == btnLeft)
 				setFiringLeft(true);
 			else if (e.getComponent() == btnRight)
@@ -468,7 +1057,7 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 	@Override
 	public void mouseReleased(MouseEvent e) {
 		if (SwingUtilities.isLeftMouseButton(e)) {
-			if (byLanderState == LND_ACTIVE) {
+			if (engine.getState() == LanderEngine.LND_ACTIVE) {
 				if (e.getComponent() == btnLeft)
 					setFiringLeft(false);
 				else if (e.getComponent() == btnRight)
@@ -481,7 +1070,7 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 	}
 
 	public void keyPressed(KeyEvent ke) {
-		if (byLanderState == LND_ACTIVE) {
+		if (engine.getState() == LanderEngine.LND_ACTIVE) {
 			switch(ke.getKeyCode()) {
 			case KeyEvent.VK_DOWN:
 				setFiringThrust(true);
@@ -497,9 +1086,9 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 	}
 
 	public void keyReleased(KeyEvent ke) {
-		if (byLanderState == LND_HOLD & (ke.getKeyCode() == KeyEvent.VK_DOWN | ke.getKeyCode() == KeyEvent.VK_LEFT | ke.getKeyCode() == KeyEvent.VK_RIGHT)) {
-			byLanderState = LND_ACTIVE;
-		} else if (byLanderState == LND_ACTIVE) {
+		if (engine.getState() == LanderEngine.LND_HOLD & (ke.getKeyCode() == KeyEvent.VK_DOWN | ke.getKeyCode() == KeyEvent.VK_LEFT | ke.getKeyCode() == KeyEvent.VK_RIGHT)) {
+			post(CMD_LAUNCH);
+		} else if (engine.getState() == LanderEngine.LND_ACTIVE) {
 			switch(ke.getKeyCode()) {
 			case KeyEvent.VK_DOWN:
 				setFiringThrust(false);
@@ -516,277 +1105,108 @@ public class LanderView extends JComponent implements KeyListener, MouseListener
 
 	public void keyTyped(KeyEvent ke) {}
 	
-	private void landerMotion() {
-		float fMass, fBurn = 0f;
-		float dVx, dVy;
-		fMass = fLanderMass + fFuel;
-		dVx = 0f;
-		dVy = -fGravity;
-		if (fFuel > 0f) {
-			if (mFiringMain) {
-				fBurn += fMainBurn;
-				dVy += fMainForce / fMass;
-			}
-			if (mFiringLeft) {
-				fBurn += fAttitudeBurn;
-				dVx += fAttitudeForce / fMass;
-			}
-			if (mFiringRight) {
-				fBurn += fAttitudeBurn;
-				dVx -= fAttitudeForce / fMass;
-			}
-			fBurn = fBurn * dt;
-			if (fBurn > fFuel) fFuel = 0f;
-			else fFuel -= fBurn;
-		}
-		landerVy += dVy * dt;
-		landerVx += dVx * dt;
-		landerY += landerVy * dt / scaleY;
-		landerX += landerVx * dt / (scaleY / 2);
-	}
-	
-	private static final int MAX_TIMER = 10;
-	
+	/**
+	 * Steps the engine with the thrusters fired since the last tick, or with
+	 * the replay being played back, and reacts to the result.
+	 */
 	private void updateLander() {
-		int nTimerLoop = 0;
-		long dwTickCount = 0;
-		boolean bTimed = false;
-		switch (byLanderState) {
-			case LND_NEW:
-				createGround();
-				fFuel = fInitFuel;
-				landerX = xClient / 2;
-				landerY = (1000f / scaleY) + yGroundZero;
-				landerVx = 0f;
-				landerVy = 0f;
-				landerPict = hLanderPict;
-				if (!bTimed) {
-					nTimerLoop = 0;
-					dwTickCount = System.currentTimeMillis();
-					byLanderState = LND_TIMING;
-				} else {
-					drawStatus(false);
-					byLanderState = LND_HOLD;
-				}
-				drawStatus(true);
-				setFiringThrust(false);
-				setFiringLeft(false);
-				setFiringRight(false);
-				byLanderState = LND_HOLD;
-				break;
-			case LND_TIMING:
-				drawStatus(false);
-				nTimerLoop++;
-				if (nTimerLoop == MAX_TIMER) {
-					dt = (float)(7.5 * (System.currentTimeMillis() - dwTickCount) / (1000 * nTimerLoop));
-					bTimed = true;
-					byLanderState = LND_HOLD;
-				}
-				break;
-			case LND_RESTART:
-				fFuel = fInitFuel;
-				landerX = xClient / 2;
-				landerY = (1000f / scaleY) + yGroundZero;
-				landerVx = 0f;
-				landerVy = 0f;
-				landerPict = hLanderPict;
-				drawStatus(true);
-				setFiringThrust(false);
-				setFiringLeft(false);
-				setFiringRight(false);
-				byLanderState = LND_HOLD;
-				break;
-			case LND_HOLD:
-				break;
-			case LND_ACTIVE:
-				landerMotion();
-				drawStatus(false);
-				if (contactGround()) {
-					drawStatus(true);
-					byLanderState = LND_ENDGAME;
-				} else if ((landerY - yGroundZero) * scaleY > 5000f
-						| (landerY - yGroundZero) * scaleY < -500f
-						| Math.abs((landerX - (xClient / 2)) * (scaleY / 2)) > 1000f) {
-					byLanderState = LND_OUTOFRANGE;
-					drawStatus(true);
-				}
-				break;
-			case LND_OUTOFRANGE:
-				byEndGameState = END_OUTOFRANGE;
-				byLanderState = LND_INACTIVE;
-				endGameDialog();
-				break;
-			case LND_ENDGAME:
-				if (landedFlat() && (Math.abs(landerVy) <= fMaxLandingY)
-						&& (Math.abs(landerVx) <= fMaxLandingX))
-					byLanderState = LND_SAFE;
-				else
-					byLanderState = LND_CRASH1;
-				break;
-			case LND_SAFE:
-				byEndGameState = END_SAFE;
-				byLanderState = LND_INACTIVE;
-				endGameDialog();
-				break;
-			case LND_CRASH1:
-				while (landerY > 0 & landerY > pointCenter.y) {
-					landerY--;
-				}
-				landerPict = hCrash1;
-				byLanderState = LND_CRASH2;
-				break;
-			case LND_CRASH2:
-				landerPict = hCrash2;
-				byLanderState = LND_CRASH3;
-				break;
-			case LND_CRASH3:
-				landerPict = hCrash3;
-				nExplCount = 0;
-				byLanderState = LND_EXPLODE;
-				break;
-			case LND_EXPLODE:
-				if (nExplCount < 2*EXPL_SEQUENCE) {
-					landerPict = hExpl[nExplCount/2];
-					nExplCount++;
-				} else if (nExplCount < 2*(EXPL_SEQUENCE+6)) {
-					if (nExplCount % 2 == 0)
-						landerPict = hExpl[9];
-					else
-						landerPict = hExpl[8];
-					nExplCount++;
-				} else {
-					landerPict = hCrash3;
-					if (Math.abs(landerVy) > fMaxLandingY)
-						byEndGameState = END_CRASHV;
-					else if (Math.abs(landerVx) > fMaxLandingX)
-						byEndGameState = END_CRASHH;
-					else byEndGameState = END_CRASHS;
-					byLanderState = LND_INACTIVE;
-					endGameDialog();
-				}
-				break;
-			case LND_INACTIVE:
-				break;
+		// Sample the thrusters over the tick just elapsed, even while a replay plays
+		long now = GameClock.now(), tickNanos = LanderEngine.TICK_MILLIS * 1000000L;
+		int inputs = inputQueue.drain(now - lastInputNanos > tickNanos ? now - tickNanos : lastInputNanos,
+				now, duty, inputLatency);
+		lastInputNanos = now;
+		if (playback != null) {
+			for (int i = REPLAY_SPEEDS[nReplaySpeed]; i > 0 && playback != null; i--) {
+				inputs = 0;
+				if (nPlaybackTick < playback.getTicks()) {
+					inputs = playback.getInput(nPlaybackTick);
+					playback.step(engine, nPlaybackTick++);
+				} else engine.step(0);
+				setFired(inputs);
+				stepped();
+				if (engine.getState() == LanderEngine.LND_INACTIVE) playback = null;
+			}
+		} else {
+			PolicyTable table = policy;
+			if (bAutopilot && table != null && engine.getState() == LanderEngine.LND_ACTIVE && table.matches(engine)) {
+				inputs = table.control(engine);
+				Arrays.fill(duty, Replay.DUTY_STEPS);
+			}
+			boolean bPartial = false;
+			for (int t = 0; t < duty.length; t++)
+				bPartial |= (inputs & InputQueue.THRUSTERS[t]) != 0 && duty[t] < Replay.DUTY_STEPS;
+			setFired(inputs);
+			boolean bFlying = engine.getState() == LanderEngine.LND_ACTIVE;
+			boolean bLaunched = bFlying && byLastState != LanderEngine.LND_ACTIVE;
+			if (bLaunched) nFlights++;
+			if (bFlying && engine.getWorld() == null) {
+				if (bLaunched) recorder.begin(engine);
+				if (bPartial) recorder.record(inputs, duty[0], duty[1], duty[2]);
+				else recorder.record(inputs);
+			}
+			if (bPartial) engine.step(inputs, Replay.duty(duty[0]), Replay.duty(duty[1]), Replay.duty(duty[2]));
+			else engine.step(inputs);
+			stepped();
+			if (telemetry != null) stream(bLaunched, inputs);
+			if (bFlying && dataRecorder != null)
+				dataRecorder.record(nFlights, engine.getFlightTicks(), engine, inputs);
+			if (recorder.isRecording() && engine.isFinished()) {
+				lastReplay = recorder.finish(engine);
+				if (replayWriter != null) replayWriter.write(lastReplay);
+			}
 		}
+		nLanderSprite = engine.getSprite();
 	}
-	
-	private boolean contactGround() {
-		boolean bTouchDown = false;
-		float left = landerX - xLanderPict / 2,
-			right = landerX + xLanderPict / 2;
-		float y1, y2;
-		contactPoints = new ArrayList<Point>();
-		Point point, point2;
-		pointCenter = new Point((int)landerX, 0);
-		for(int i = 0; i < groundPlot.size(); i++) {
-			point = groundPlot.get(i);
-			if (i+1 < groundPlot.size()) point2 = groundPlot.get(i+1);
-			else point2 = new Point(0, 0);
-			y1 = invertY(point.y);
-			y2 = invertY(point2.y);
-			if (left <= point.x & point.x <= right) {
-				contactPoints.add(point);
-				if (landerY <= y1 + 1)
-					bTouchDown = true;
-			}
-			if (point.x <= left & left <= point2.x) {
-				float yGroundLeft = y2 - ((y1 - y2) / (point.x - point2.x)) * (point2.x - left);
-				contactPoints.add(new Point((int)left, invertY(Math.round(yGroundLeft))));
-				if (landerY - yGroundLeft <= 0)
-					bTouchDown = true;
-			}
-			if (point.x <= landerX & landerX <= point2.x) {
-				float yGroundCenter = y2 - ((y1 - y2) / (point.x - point2.x)) * (point2.x - landerX);
-				pointCenter.y = Math.round(yGroundCenter);
-			}
-			if (point.x <= right & right <= point2.x) {
-				float yGroundRight = y2 - ((y1 - y2) / (point.x - point2.x)) * (point2.x - right);
-				contactPoints.add(new Point((int)right, invertY(Math.round(yGroundRight))));
-				if (landerY - yGroundRight <= 0)
-					bTouchDown = true;
-			}
-			if (right < point.x) break;
-		}
-		if (landerY <= 0)
-			bTouchDown = true;
-		return bTouchDown;
+
+	/**
+	 * Writes the tick just stepped to the telemetry stream, from launch until
+	 * the flight ends or is abandoned. Like replays, only single-screen
+	 * flights are streamed.
+	 */
+	private void stream(boolean bLaunched, int inputs) {
+		if (bLaunched) {
+			nTelemetryTick = 0;
+			bStreaming = engine.getWorld() == null;
+		}
+		if (!bStreaming) return;
+		telemetry.record(nFlights, ++nTelemetryTick, engine, inputs);
+		if (Telemetry.isLast(engine.getState())) bStreaming = false;
 	}
-	
-	private boolean landedFlat() {
-		int pointY, yLevel = 0;
-		for (int i = 0; i < contactPoints.size(); i++) {
-			pointY = contactPoints.get(i).y;
-			if (i == 0)
-				yLevel = pointY;
-			else if (yLevel != pointY)
-				return false;
+
+	private void setFired(int inputs) {
+		mFiringMain = (inputs & LanderEngine.INPUT_MAIN) != 0;
+		mFiringLeft = (inputs & LanderEngine.INPUT_LEFT) != 0;
+		mFiringRight = (inputs & LanderEngine.INPUT_RIGHT) != 0;
+	}
+
+	/** Reacts to the engine having been stepped. */
+	private void stepped() {
+		byte state = engine.getState();
+		if (state == LanderEngine.LND_ACTIVE && byLastState != LanderEngine.LND_ACTIVE)
+			Assets.preload(EXPL_IMAGES);
+		if (state == LanderEngine.LND_CRASH1) emitCrash();
+		if (state == LanderEngine.LND_HOLD && byLastState != LanderEngine.LND_HOLD) {
+			releaseThrusters();
+		} else if (state == LanderEngine.LND_INACTIVE && byLastState != LanderEngine.LND_INACTIVE
+				&& engine.isFinished()) {
+			endGameDialog();
 		}
-		return true;
+		byLastState = state;
 	}
 	
-	/** number of points across including two end-points (must be greater than one). */
-	private static final int CRG_POINTS = 31;
-	/** maximum y-variation of terrain */
-	private static final int CRG_STEEPNESS = 25;
-	
-	private void createGround() {
-		/** size of landing pad in points. (less than CRG_POINTS) */
-		int nPadSize = 4;
-		/** Maximum height of terrain. (less than ySize) */
-		int nMaxHeight = yClient / 6;
-		/** point at which landing pad starts */
-		int nLandingStart;
-		/** number of pixels per point interval */
-		int nInc, nIncExtra;
-		int x, nDy,
-			mctySize = invertY(5),
-			y = mctySize - rand.nextInt(nMaxHeight);
-		groundPlot = new ArrayList<Point>();
-		Point point = new Point(0, yClient);
-		groundPlot.add(point);
+	/** Rebuilds the terrain outline from the engine's ground points. */
+	private void createPath() {
 		path = new Path2D.Float();
-		path.moveTo(point.x, point.y);
-		nLandingStart = rand.nextInt(CRG_POINTS - nPadSize) + 1;
-		nInc = xClient / (CRG_POINTS - 1);
-		nIncExtra = xClient % (CRG_POINTS - 1);
-		for (int i = 1; i <= CRG_POINTS; i++) {
-			x = ((i - 1) * nInc) + (((i - 1) * nIncExtra) / (CRG_POINTS - 1));
-			point = new Point(x, y);
-			groundPlot.add(point);
-			path.lineTo(point.x, point.y);
-			if (i < nLandingStart || i >= nLandingStart + nPadSize) {
-				nDy = rand.nextInt(2 * CRG_STEEPNESS) - CRG_STEEPNESS;
-				if (y + nDy < mctySize && y + nDy > invertY(nMaxHeight))
-					y = y + nDy;
-				else
-					y = y - nDy;
-			} else if (i == nLandingStart) {
-				yGroundZero = invertY(y);
-				scaleY = 1200f / (yClient - yGroundZero - yLanderPict);
-			}
-		}
-		point = new Point(xClient, yClient);
-		groundPlot.add(point);
-		path.lineTo(point.x, point.y);
+		path.moveTo(engine.getGroundX(0), engine.getGroundY(0));
+		for (int i = 1; i < engine.getGroundPoints(); i++) {
+			path.lineTo(engine.getGroundX(i), engine.getGroundY(i));
+		}
 		path.lineTo(0, yClient);
 		path.closePath();
+		nGroundRevision = engine.getGroundRevision();
 	}
 	
 	private int invertY(int y) {
 		return yClient - y;
 	}
-	
-	private class Point {
-		private int x, y;
-		
-		public Point(int x, int y) {
-			this.x = x;
-			this.y = y;
-		}
-		
-		@Override
-		public String toString() {
-			return "x: " + x + " | y: " + y;
-		}
-	}
 }
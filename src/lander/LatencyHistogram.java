@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.PrintStream;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, in the style of
+ * HdrHistogram. Each power of two is split into 32 buckets, so any recorded
+ * value is reported within about 3% of its true value, and recording is an
+ * array increment with no allocation.
+ * <p>
+ * Meant to be written by one thread. Other threads may read it at any time
+ * and see a recent, possibly slightly inconsistent, view.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5, SUB_COUNT = 1 << SUB_BITS;
+	/** values below this get a bucket each */
+	private static final int LINEAR_MAX = 2 * SUB_COUNT;
+	private static final int BUCKETS = (Long.SIZE - 2 - SUB_BITS) * SUB_COUNT + LINEAR_MAX;
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+	private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99", "p99.9", "p99.99"};
+
+	private final long[] counts = new long[BUCKETS];
+	private long nCount, nTotal, nMax;
+
+	/** Records one latency; negative values are counted as 0. */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		counts[bucketOf(nanos)]++;
+		nCount++;
+		nTotal += nanos;
+		if (nanos > nMax) nMax = nanos;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) counts[i] = 0;
+		nCount = nTotal = nMax = 0;
+	}
+
+	public long getCount() {
+		return nCount;
+	}
+
+	public long getMax() {
+		return nMax;
+	}
+
+	/** @return mean of the recorded values in nanoseconds, or 0 if none were recorded */
+	public double getMean() {
+		return nCount == 0 ? 0 : (double)nTotal / nCount;
+	}
+
+	/**
+	 * @param percentile in [0, 100]
+	 * @return the largest value in the bucket holding the given percentile, or 0 if none were recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = nCount;
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) return Math.min(highestIn(i), nMax);
+		}
+		return nMax;
+	}
+
+	/** Prints the count, mean, percentiles and maximum in milliseconds. */
+	public void print(PrintStream out, String name) {
+		StringBuilder sb = new StringBuilder(name).append(": ").append(nCount).append(" samples");
+		if (nCount > 0) {
+			sb.append(", mean ").append(millis((long)getMean()));
+			for (int i = 0; i < PERCENTILES.length; i++)
+				sb.append(", ").append(PERCENTILE_LABELS[i]).append(' ').append(millis(getValueAtPercentile(PERCENTILES[i])));
+			sb.append(", max ").append(millis(nMax)).append(" ms");
+		}
+		out.println(sb);
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+
+	static int bucketOf(long value) {
+		if (value < LINEAR_MAX) return (int)value;
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return shift * SUB_COUNT + (int)(value >>> shift);
+	}
+
+	static long highestIn(int bucket) {
+		if (bucket < LINEAR_MAX) return bucket;
+		int shift = bucket / SUB_COUNT - 1;
+		long sub = bucket % SUB_COUNT + SUB_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * Engine exhaust, dust and crash debris around the lander, purely for show:
+ * particles never affect the flight.
+ * <p>
+ * The pool is a structure of arrays sized once, live particles packed at the
+ * front, so emitting one fills the next slot and expiring one moves the last
+ * live particle into its slot; neither allocates. Positions are in screen
+ * pixels with y up from the bottom as in {@link LanderEngine}, and velocities
+ * in pixels per tick. Exhaust that reaches the ground turns into dust, and
+ * dust and debris bounce along it.
+ * <p>
+ * Drawing is batched by color: particles of a kind are faded in a few
+ * steps, and each step is one color change followed by plain rectangle
+ * fills. Placing a frame sorts the particles into a bucket per color in
+ * one counting pass, so drawing visits each particle once.
+ * <p>
+ * How many particles may be live at once adapts to the frame time reported
+ * to {@link #adapt(long)}, shrinking while frames go over budget and growing
+ * back slowly once they are well within it. Everything runs on the game
+ * loop thread.
+ */
+public class ParticleSystem {
+	public static final byte EXHAUST = 0, DUST = 1, DEBRIS = 2;
+	private static final int KINDS = 3;
+	/** colors a particle fades through over its life */
+	private static final int SHADES = 4;
+	/** one bucket per color, kind major */
+	private static final int BUCKETS = KINDS * SHADES;
+	private static final Color[][] COLORS = {
+		{new Color(255, 240, 160), new Color(255, 170, 60), new Color(200, 90, 30), new Color(110, 50, 20)},
+		{new Color(170, 170, 160), new Color(130, 130, 120), new Color(95, 95, 90), new Color(60, 60, 55)},
+		{new Color(255, 230, 120), new Color(240, 140, 50), new Color(150, 80, 40), new Color(90, 90, 90)}};
+	private static final int[] SIZES = {2, 2, 3};
+	/** pull down in pixels per tick per tick, and fraction of velocity kept each tick */
+	private static final float[] GRAVITY = {0.1f, 0.05f, 0.6f}, DRAG = {0.9f, 0.85f, 0.99f};
+	/** fraction of vertical speed kept in a bounce, and of horizontal speed kept sliding */
+	private static final float BOUNCE = 0.3f, FRICTION = 0.7f;
+	/** fewest particles the cap shrinks to */
+	private static final int MIN_CAP = 64;
+	/** weight of the newest frame time in the smoothed frame time */
+	private static final int SMOOTHING = 8;
+	/** frames after shrinking the cap before its effect is judged */
+	private static final int COOLDOWN_FRAMES = 16;
+
+	private final int nCapacity;
+	private final float[] x, y, vx, vy;
+	private final int[] life, maxLife;
+	private final byte[] kind;
+	/** screen position of each particle in the frame being drawn */
+	private final int[] xScreen, yScreen;
+	/** bucket of each particle this frame, and the particles in bucket order */
+	private final byte[] bucket;
+	private final int[] order;
+	/** index into {@link #order} where each bucket starts, then the end of the last */
+	private final int[] bucketStart = new int[BUCKETS + 1], bucketNext = new int[BUCKETS];
+	private int nCount;
+	/** most particles live at once, adapted to the frame time */
+	private int nCap;
+	private final long budgetNanos;
+	private long smoothedNanos;
+	private int nCooldown;
+	private int nRandom = 0x2545F491;
+	/** bounds of the particles placed for this frame; empty if there are none */
+	private int xLeft, yTop, xRight, yBottom;
+
+	/**
+	 * @param capacity most particles live at once
+	 * @param budgetNanos time a frame may take before particles are cut back
+	 */
+	public ParticleSystem(int capacity, long budgetNanos) {
+		nCapacity = capacity;
+		nCap = capacity;
+		this.budgetNanos = budgetNanos;
+		x = new float[capacity];
+		y = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		life = new int[capacity];
+		maxLife = new int[capacity];
+		kind = new byte[capacity];
+		xScreen = new int[capacity];
+		yScreen = new int[capacity];
+		bucket = new byte[capacity];
+		order = new int[capacity];
+	}
+
+	/**
+	 * Adds a particle unless the cap is reached, its velocity varied by up to
+	 * {@code spread} pixels per tick each way and its life by up to a quarter.
+	 * @return false if the particle was not added
+	 */
+	public boolean emit(byte kind, float x, float y, float vx, float vy, float spread, int life) {
+		if (nCount >= nCap) return false;
+		int i = nCount++;
+		this.kind[i] = kind;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.vx[i] = vx + spread * random();
+		this.vy[i] = vy + spread * random();
+		this.life[i] = maxLife[i] = Math.max(1, life + (int)(life * random() / 4));
+		return true;
+	}
+
+	/** Moves every particle on by one tick and expires those at the end of their life. */
+	public void update(Ground ground) {
+		for (int i = 0; i < nCount; i++) {
+			int k = kind[i];
+			vx[i] *= DRAG[k];
+			vy[i] = vy[i] * DRAG[k] - GRAVITY[k];
+			x[i] += vx[i];
+			y[i] += vy[i];
+			float h = ground.heightAt(x[i]);
+			if (y[i] < h) {
+				y[i] = h;
+				if (k == EXHAUST) {
+					// Blown along the ground as dust
+					kind[i] = DUST;
+					vx[i] = (vx[i] < 0 ? -1 : 1) * (1f + Math.abs(vy[i])) + random();
+					vy[i] = Math.abs(vy[i]) * BOUNCE;
+				} else {
+					vy[i] = -vy[i] * BOUNCE;
+					vx[i] *= FRICTION;
+				}
+			}
+			if (--life[i] <= 0) {
+				remove(i);
+				i--;
+			}
+		}
+	}
+
+	private void remove(int i) {
+		int last = --nCount;
+		x[i] = x[last];
+		y[i] = y[last];
+		vx[i] = vx[last];
+		vy[i] = vy[last];
+		life[i] = life[last];
+		maxLife[i] = maxLife[last];
+		kind[i] = kind[last];
+	}
+
+	/** Removes every particle. */
+	public void clear() {
+		nCount = 0;
+	}
+
+	/**
+	 * Works out where each particle is drawn this frame, and their bounds, and
+	 * sorts them by color.
+	 * @param alpha fraction of a tick since the last {@link #update(Ground)}
+	 * @param xCamera x of the left edge of the view
+	 * @param height height of the view, to turn y downwards
+	 */
+	public void place(float alpha, int xCamera, int height) {
+		int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+		Arrays.fill(bucketNext, 0);
+		for (int i = 0; i < nCount; i++) {
+			int b = kind[i] * SHADES + shadeOf(i);
+			bucket[i] = (byte)b;
+			bucketNext[b]++;
+			int sx = (int)(x[i] + vx[i] * alpha) - xCamera, sy = height - (int)(y[i] + vy[i] * alpha);
+			xScreen[i] = sx;
+			yScreen[i] = sy;
+			left = Math.min(left, sx);
+			top = Math.min(top, sy);
+			right = Math.max(right, sx + SIZES[kind[i]]);
+			bottom = Math.max(bottom, sy + SIZES[kind[i]]);
+		}
+		// Counts to starts, then deal the particles out in bucket order
+		for (int b = 0; b < BUCKETS; b++) {
+			bucketStart[b + 1] = bucketStart[b] + bucketNext[b];
+			bucketNext[b] = bucketStart[b];
+		}
+		for (int i = 0; i < nCount; i++) order[bucketNext[bucket[i]]++] = i;
+		if (nCount == 0) left = top = right = bottom = 0;
+		xLeft = left;
+		yTop = top;
+		xRight = right;
+		yBottom = bottom;
+	}
+
+	/** Draws the particles where {@link #place(float, int, int)} put them. */
+	public void draw(Graphics g) {
+		for (int b = 0; b < BUCKETS; b++) {
+			int from = bucketStart[b], to = bucketStart[b + 1];
+			if (from == to) continue;
+			int size = SIZES[b / SHADES];
+			g.setColor(COLORS[b / SHADES][b % SHADES]);
+			for (int j = from; j < to; j++) {
+				int i = order[j];
+				g.fillRect(xScreen[i], yScreen[i], size, size);
+			}
+		}
+	}
+
+	private int shadeOf(int i) {
+		return SHADES - 1 - (SHADES * life[i] - 1) / maxLife[i];
+	}
+
+	/**
+	 * Adjusts the particle cap to how long the last frame took: cut by a
+	 * quarter while the smoothed frame time is over budget, and raised by
+	 * 1/64 of the capacity per frame while it is under half the budget.
+	 */
+	public void adapt(long frameNanos) {
+		smoothedNanos += (frameNanos - smoothedNanos) / SMOOTHING;
+		if (nCooldown > 0) nCooldown--;
+		else if (smoothedNanos > budgetNanos && nCap > MIN_CAP) {
+			nCap = Math.max(MIN_CAP, nCap - nCap / 4);
+			nCooldown = COOLDOWN_FRAMES;
+		} else if (smoothedNanos < budgetNanos / 2 && nCap < nCapacity)
+			nCap = Math.min(nCapacity, nCap + Math.max(1, nCapacity / 64));
+	}
+
+	/** @return uniformly distributed in [-1, 1), from a xorshift generator */
+	private float random() {
+		nRandom ^= nRandom << 13;
+		nRandom ^= nRandom >>> 17;
+		nRandom ^= nRandom << 5;
+		return nRandom * (1f / 2147483648f);
+	}
+
+	public int getCount() {
+		return nCount;
+	}
+
+	/** @return most particles that may be live at once for now */
+	public int getCap() {
+		return nCap;
+	}
+
+	public int getCapacity() {
+		return nCapacity;
+	}
+
+	/** @return left of the bounds of the placed particles */
+	public int getLeft() {
+		return xLeft;
+	}
+
+	public int getTop() {
+		return yTop;
+	}
+
+	public int getWidth() {
+		return xRight - xLeft;
+	}
+
+	public int getHeight() {
+		return yBottom - yTop;
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Flies a fixed set of controllers over fixed seeds for every combination
+ * of ranges of {@link LanderPhysics} settings. Combinations are numbered
+ * in mixed radix and never listed, and they are flown in parallel on one
+ * fork/join pool, each one's seeds split further by {@link FlightEvaluator}.
+ * A row of outcomes is written out for each controller as each combination
+ * finishes, so only a block of rows is ever held in memory.
+ * <p>
+ * A file named {@code *.csv} is written as text with a header line.
+ * Otherwise it is columnar: blocks of up to {@link #BLOCK_ROWS} rows, each
+ * <pre>
+ * int     magic "LNPS"
+ * int     rows
+ * long[]  combination
+ * byte[]  controller, by its position on the command line
+ * float[] one column for each of LanderPhysics.NAMES
+ * int[]   flights, safe, crash vertical, crash horizontal, crash site, out of range, unfinished
+ * float[] mean fuel left, mean time to touchdown
+ * </pre>
+ * Rows are in the order combinations finish. A policy table is only flown
+ * under the physics it was solved for; its rows for other combinations are
+ * skipped.
+ * <p>
+ * Usage: {@code PhysicsSweep out=FILE [seeds=FIRST:COUNT]
+ * [controllers=autopilot,policy:FILE,...] [name=VALUE | name=FROM:TO:STEPS | name=V1,V2,... ...]}
+ * where each name is one of {@link LanderPhysics#NAMES}.
+ */
+public class PhysicsSweep implements Closeable {
+	public static final int MAGIC = 0x4C4E5053;
+	/** rows in a columnar block, at most */
+	public static final int BLOCK_ROWS = 1024;
+	/** outcomes counted in each row, in column order; 0 counts unfinished flights */
+	private static final byte[] ENDS = {LanderEngine.END_SAFE, LanderEngine.END_CRASHV, LanderEngine.END_CRASHH,
+		LanderEngine.END_CRASHS, LanderEngine.END_OUTOFRANGE, 0};
+	private static final String CSV_HEADER;
+	static {
+		StringBuilder sb = new StringBuilder("combination,controller");
+		for (String name : LanderPhysics.NAMES) sb.append(',').append(name);
+		CSV_HEADER = sb.append(",flights,safe,crashv,crashh,crashs,outofrange,unfinished,fuelleft,touchdown\n").toString();
+	}
+
+	private final ForkJoinPool pool;
+	private final List<LanderController> controllers;
+	/** values of each setting, by {@link LanderPhysics#NAMES} */
+	private final float[][] values;
+	private final long firstSeed, nSeeds;
+	/** time step flights are integrated with, the engine's default */
+	private final float dt = new LanderEngine().getTimeStep();
+	private final FileChannel channel;
+	private final boolean bCsv;
+
+	/* Block being filled, guarded by this */
+	private final long[] combinations = new long[BLOCK_ROWS];
+	private final byte[] controllerIndexes = new byte[BLOCK_ROWS];
+	private final float[][] settings = new float[LanderPhysics.NAMES.length][BLOCK_ROWS];
+	private final int[][] counts = new int[ENDS.length + 1][BLOCK_ROWS];
+	private final float[] fuels = new float[BLOCK_ROWS], touchdowns = new float[BLOCK_ROWS];
+	private int nRows;
+	private long nWritten, nSkipped;
+
+	/**
+	 * @param values values of each setting in {@link LanderPhysics#NAMES} order, at least one each
+	 * @param file where rows are written, replacing it
+	 */
+	public PhysicsSweep(List<LanderController> controllers, float[][] values, long firstSeed, long count,
+			File file, ForkJoinPool pool) throws IOException {
+		if (controllers.size() > Byte.MAX_VALUE) throw new IllegalArgumentException("Too many controllers");
+		this.controllers = controllers;
+		this.values = values;
+		this.firstSeed = firstSeed;
+		nSeeds = count;
+		this.pool = pool;
+		bCsv = file.getName().toLowerCase().endsWith(".csv");
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		if (bCsv) write(ByteBuffer.wrap(CSV_HEADER.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/** @return number of combinations of settings */
+	public long getCombinations() {
+		long n = 1;
+		for (float[] v : values) n *= v.length;
+		return n;
+	}
+
+	/** @return rows written so far */
+	public synchronized long getRowsWritten() {
+		return nWritten;
+	}
+
+	/** @return rows skipped because a policy table was not solved for the combination */
+	public synchronized long getRowsSkipped() {
+		return nSkipped;
+	}
+
+	/** Flies every combination, writing its rows as it finishes. */
+	public void run() throws IOException {
+		try {
+			pool.invoke(new CombinationRange(0, getCombinations()));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		synchronized (this) {
+			flush();
+		}
+	}
+
+	/** @return the settings of combination {@code n}, the first setting varying fastest */
+	LanderPhysics physics(long n) {
+		LanderPhysics physics = new LanderPhysics();
+		for (int i = 0; i < values.length; i++) {
+			physics.set(LanderPhysics.NAMES[i], values[i][(int)(n % values[i].length)]);
+			n /= values[i].length;
+		}
+		return physics;
+	}
+
+	private class CombinationRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final long from, to;
+
+		CombinationRange(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				long mid = from + (to - from) / 2;
+				invokeAll(new CombinationRange(from, mid), new CombinationRange(mid, to));
+				return;
+			}
+			LanderPhysics physics = physics(from);
+			for (int c = 0; c < controllers.size(); c++) {
+				LanderController controller = controllers.get(c);
+				if (controller instanceof PolicyTable && !((PolicyTable)controller).matches(physics, dt, false)) {
+					skipped();
+					continue;
+				}
+				FlightStats stats = new FlightEvaluator(controller, physics, pool)
+						.task(firstSeed, nSeeds).invoke();
+				try {
+					add(from, c, physics, stats);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	private synchronized void skipped() {
+		nSkipped++;
+	}
+
+	private synchronized void add(long combination, int controller, LanderPhysics physics, FlightStats stats)
+			throws IOException {
+		combinations[nRows] = combination;
+		controllerIndexes[nRows] = (byte)controller;
+		for (int i = 0; i < settings.length; i++) settings[i][nRows] = physics.get(LanderPhysics.NAMES[i]);
+		counts[0][nRows] = (int)stats.getFlights();
+		for (int i = 0; i < ENDS.length; i++) counts[i + 1][nRows] = (int)stats.getCount(ENDS[i]);
+		fuels[nRows] = (float)stats.getMeanFuel();
+		touchdowns[nRows] = (float)stats.getMeanTouchdownTime();
+		if (++nRows == BLOCK_ROWS) flush();
+	}
+
+	/** Writes the rows in the block; called holding the lock. */
+	private void flush() throws IOException {
+		if (nRows == 0) return;
+		if (bCsv) {
+			StringBuilder sb = new StringBuilder();
+			for (int r = 0; r < nRows; r++) {
+				sb.append(combinations[r]).append(',').append(controllerIndexes[r]);
+				for (float[] column : settings) sb.append(',').append(column[r]);
+				for (int[] column : counts) sb.append(',').append(column[r]);
+				sb.append(String.format(Locale.ROOT, ",%.2f,%.2f\n", fuels[r], touchdowns[r]));
+			}
+			write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.US_ASCII)));
+		} else {
+			int rowBytes = 8 + 1 + 4 * settings.length + 4 * counts.length + 4 + 4;
+			ByteBuffer block = ByteBuffer.allocate(8 + rowBytes * nRows);
+			block.putInt(MAGIC).putInt(nRows);
+			for (int r = 0; r < nRows; r++) block.putLong(combinations[r]);
+			block.put(controllerIndexes, 0, nRows);
+			for (float[] column : settings) {
+				for (int r = 0; r < nRows; r++) block.putFloat(column[r]);
+			}
+			for (int[] column : counts) {
+				for (int r = 0; r < nRows; r++) block.putInt(column[r]);
+			}
+			for (int r = 0; r < nRows; r++) block.putFloat(fuels[r]);
+			for (int r = 0; r < nRows; r++) block.putFloat(touchdowns[r]);
+			block.flip();
+			write(block);
+		}
+		nWritten += nRows;
+		nRows = 0;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/** Parses {@code VALUE}, {@code FROM:TO:STEPS} with both ends included, or {@code V1,V2,...}. */
+	static float[] parseRange(String value) {
+		String[] parts = value.split(":");
+		if (parts.length == 3) {
+			float from = Float.parseFloat(parts[0]), to = Float.parseFloat(parts[1]);
+			int steps = Integer.parseInt(parts[2]);
+			if (steps < 1) throw new IllegalArgumentException("Expected at least one step: " + value);
+			float[] range = new float[steps];
+			for (int i = 0; i < steps; i++) range[i] = steps == 1 ? from : from + (to - from) * i / (steps - 1);
+			return range;
+		}
+		parts = value.split(",");
+		float[] list = new float[parts.length];
+		for (int i = 0; i < parts.length; i++) list[i] = Float.parseFloat(parts[i].trim());
+		return list;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String out = null;
+		long firstSeed = 0, count = 1000;
+		String controllerNames = "autopilot";
+		LanderPhysics defaults = new LanderPhysics();
+		float[][] values = new float[LanderPhysics.NAMES.length][];
+		for (int i = 0; i < values.length; i++) values[i] = new float[] {defaults.get(LanderPhysics.NAMES[i])};
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + arg);
+			String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+			if (name.equals("out")) out = value;
+			else if (name.equals("seeds")) {
+				int colon = value.indexOf(':');
+				firstSeed = Long.parseLong(value.substring(0, colon));
+				count = Long.parseLong(value.substring(colon + 1));
+			} else if (name.equals("controllers")) controllerNames = value;
+			else {
+				// Checks the name
+				defaults.get(name);
+				for (int i = 0; i < values.length; i++) {
+					if (LanderPhysics.NAMES[i].equalsIgnoreCase(name)) values[i] = parseRange(value);
+				}
+			}
+		}
+		if (out == null) {
+			System.err.println("Usage: PhysicsSweep out=FILE [seeds=FIRST:COUNT] [controllers=autopilot,policy:FILE,...]"
+					+ " [name=VALUE | name=FROM:TO:STEPS | name=V1,V2,... ...]");
+			System.exit(2);
+		}
+		List<LanderController> controllers = new ArrayList<LanderController>();
+		for (String name : controllerNames.split(",")) {
+			if (name.equals("autopilot")) controllers.add(new Autopilot());
+			else if (name.startsWith("policy:")) controllers.add(PolicyTable.open(new File(name.substring(7))));
+			else throw new IllegalArgumentException("Unknown controller: " + name);
+		}
+		ForkJoinPool pool = new ForkJoinPool();
+		PhysicsSweep sweep = new PhysicsSweep(controllers, values, firstSeed, count, new File(out), pool);
+		long start = System.nanoTime();
+		try {
+			sweep.run();
+		} finally {
+			sweep.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d combinations, %d rows, %d skipped, %d flights in %.2f s on %d threads%n",
+				sweep.getCombinations(), sweep.getRowsWritten(), sweep.getRowsSkipped(), sweep.getRowsWritten() * count,
+				seconds, pool.getParallelism());
+	}
+}
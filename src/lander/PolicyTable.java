@@ -0,0 +1,428 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Autopilot that looks its thrusters up in a precomputed policy table over a
+ * grid of altitude, vertical velocity, offset to the pad, horizontal velocity
+ * and fuel, so flying costs one index into the table per tick.
+ * <p>
+ * The table is solved by value iteration over the same motion as
+ * {@link LanderEngine#landerMotion()}, for one set of physics and time step,
+ * minimizing fuel burned plus a small cost per tick, with touching down
+ * anywhere but slowly over the middle of the pad, or dropping below a
+ * clearance that rises away from the pad, counted as a crash. The grid
+ * is finer near the ground, the pad and zero horizontal velocity. Fuel
+ * only ever decreases, so fuel levels are solved one after another from
+ * empty up, each sweeping its altitude slices in parallel until its values
+ * settle.
+ * <p>
+ * A table is written as a small header naming its grid, time step and
+ * physics, followed by one byte of INPUT_* bits per cell, and is read back
+ * by memory-mapping the file.
+ * <p>
+ * Usage: {@code PolicyTable build FILE [dt=SECONDS] [name=value ...]} where
+ * each name is one of {@link LanderPhysics#NAMES};
+ * {@code PolicyTable evaluate FILE [seeds=FIRST:COUNT]} flies the table.
+ */
+public class PolicyTable implements LanderController {
+	private static final int MAGIC = 0x4C4E5054; // "LNPT"
+	private static final byte VERSION = 1;
+
+	/* Grid */
+	static final int N_ALT = 32, N_VY = 25, N_OFFSET = 33, N_VX = 17, N_FUEL = 4;
+	static final int CELLS = N_FUEL * N_ALT * N_VY * N_OFFSET * N_VX;
+	/** highest altitude on the grid in meters; the lander starts at 1000 */
+	private static final float ALT_MAX = 1200f;
+	/** range of vertical velocity on the grid in m/s */
+	private static final float VY_MIN = -40f, VY_MAX = 20f;
+	/** widest offset to the pad on the grid in meters, beyond which the lander is lost */
+	private static final float OFFSET_MAX = 800f;
+	/** fastest horizontal velocity on the grid in m/s */
+	private static final float VX_MAX = 20f;
+
+	/* Objective */
+	/** farthest from the middle of the pad a landing counts, in meters, within the narrowest pad */
+	private static final float LAND_OFFSET = 30f;
+	/** offset from the pad beyond which terrain may rise, in meters */
+	private static final float CLEAR_OFFSET = 50f;
+	/** share of the landing speed limits aimed for, leaving room for the grid's coarseness */
+	private static final float LAND_MARGIN = 0.6f;
+	/** height that clears any terrain, in meters above the pad */
+	private static final float CLEARANCE = 300f;
+	/** meters the clearance rises per meter away from the pad */
+	private static final float CLEAR_SLOPE = 2f;
+	/** cost of a tick, in kg of fuel */
+	private static final float TICK_COST = 0.5f;
+	/** cost of crashing or getting lost */
+	private static final float CRASH = 10000f;
+	/** largest change in any value for a fuel level to count as solved */
+	private static final float TOLERANCE = 0.1f;
+	private static final int MAX_SWEEPS = 1000;
+	/** thrusters tried in each cell; firing left and right together is never better */
+	private static final int[] ACTIONS = {0, LanderEngine.INPUT_LEFT, LanderEngine.INPUT_RIGHT,
+		LanderEngine.INPUT_MAIN, LanderEngine.INPUT_MAIN | LanderEngine.INPUT_LEFT,
+		LanderEngine.INPUT_MAIN | LanderEngine.INPUT_RIGHT};
+
+	private static final int HEADER_BYTES = 4 + 1 + 5 + 4 + 4 * LanderPhysics.NAMES.length;
+
+	private final LanderPhysics physics;
+	private final float dt;
+	/** INPUT_* bits by cell */
+	private final ByteBuffer policy;
+
+	private PolicyTable(LanderPhysics physics, float dt, ByteBuffer policy) {
+		this.physics = physics;
+		this.dt = dt;
+		this.policy = policy;
+	}
+
+	@Override
+	public int control(LanderEngine engine) {
+		if (engine.getState() != LanderEngine.LND_ACTIVE) return 0;
+		return policy.get(nearest(engine.getAltitude(), engine.getVelocityY(), engine.getPadOffset(),
+				engine.getVelocityX(), engine.getFuel()));
+	}
+
+	/**
+	 * @return whether the table was solved for the physics and time step
+	 * {@code engine} flies with, and the engine integrates as
+	 * {@link LanderEngine#landerMotion()} does rather than adaptively
+	 */
+	public boolean matches(LanderEngine engine) {
+		return matches(engine.getPhysics(), engine.getTimeStep(), engine.isAdaptive());
+	}
+
+	/**
+	 * @return whether the table was solved for {@code physics} flown in
+	 * ticks of {@code dt} seconds; always false if {@code bAdaptive}, since
+	 * tables are solved for fixed steps only
+	 */
+	public boolean matches(LanderPhysics physics, float dt, boolean bAdaptive) {
+		if (bAdaptive || dt != this.dt) return false;
+		for (String name : LanderPhysics.NAMES) {
+			if (physics.get(name) != this.physics.get(name)) return false;
+		}
+		return true;
+	}
+
+	/** @return a copy of the physics the table was solved for */
+	public LanderPhysics getPhysics() {
+		return physics.copy();
+	}
+
+	/** @return seconds per tick the table was solved for */
+	public float getTimeStep() {
+		return dt;
+	}
+
+	/* Axes: grid coordinates of values, and values at grid points */
+
+	private static float altCoord(float alt) {
+		return (float)Math.sqrt(Math.max(0f, Math.min(alt, ALT_MAX)) / ALT_MAX) * (N_ALT - 1);
+	}
+
+	private static float altAt(int i) {
+		float c = i / (float)(N_ALT - 1);
+		return ALT_MAX * c * c;
+	}
+
+	private static float vyCoord(float vy) {
+		return (Math.max(VY_MIN, Math.min(vy, VY_MAX)) - VY_MIN) / (VY_MAX - VY_MIN) * (N_VY - 1);
+	}
+
+	private static float vyAt(int i) {
+		return VY_MIN + (VY_MAX - VY_MIN) * i / (N_VY - 1);
+	}
+
+	/** Coordinate on an axis of {@code n} points spaced by the square root from {@code -max} to {@code max}. */
+	private static float signedCoord(float value, float max, int n) {
+		float c = (float)Math.sqrt(Math.min(Math.abs(value), max) / max);
+		return (value < 0f ? 1f - c : 1f + c) / 2 * (n - 1);
+	}
+
+	private static float signedAt(int i, float max, int n) {
+		float c = 2f * i / (n - 1) - 1f;
+		return Math.signum(c) * c * c * max;
+	}
+
+	private float fuelCoord(float fuel) {
+		return Math.max(0f, Math.min(fuel, physics.fInitFuel)) / physics.fInitFuel * (N_FUEL - 1);
+	}
+
+	private static int index(int fuel, int alt, int vy, int offset, int vx) {
+		return (((fuel * N_ALT + alt) * N_VY + vy) * N_OFFSET + offset) * N_VX + vx;
+	}
+
+	private int nearest(float alt, float vy, float offset, float vx, float fuel) {
+		return index(Math.round(fuelCoord(fuel)), Math.round(altCoord(alt)), Math.round(vyCoord(vy)),
+				Math.round(signedCoord(offset, OFFSET_MAX, N_OFFSET)), Math.round(signedCoord(vx, VX_MAX, N_VX)));
+	}
+
+	/**
+	 * Solves a table for {@code physics} flown in ticks of {@code dt} seconds.
+	 * @param pool threads sweeping altitude slices
+	 */
+	public static PolicyTable solve(LanderPhysics physics, float dt, ForkJoinPool pool) {
+		Solver solver = new Solver(physics.copy(), dt);
+		for (int fuel = 0; fuel < N_FUEL; fuel++) {
+			// More fuel does about as well as less, so start from the level below
+			if (fuel > 1) {
+				int size = CELLS / N_FUEL;
+				System.arraycopy(solver.values, (fuel - 1) * size, solver.values, fuel * size, size);
+			}
+			for (int i = 0; i < MAX_SWEEPS; i++) {
+				solver.nSweeps++;
+				if (pool.invoke(solver.new Sweep(fuel, 0, N_ALT)) < TOLERANCE) break;
+			}
+		}
+		PolicyTable table = new PolicyTable(physics.copy(), dt, ByteBuffer.wrap(solver.policy));
+		table.nSweeps = solver.nSweeps;
+		return table;
+	}
+
+	/** sweeps taken to solve the table, or 0 if it was read from a file */
+	private int nSweeps;
+
+	/** @return sweeps of the grid taken to solve the table, or 0 if it was read from a file */
+	public int getSweeps() {
+		return nSweeps;
+	}
+
+	/**
+	 * Value iteration state. Slices are updated in place from several threads
+	 * at once; a value read while a neighbour is rewriting it is merely one
+	 * sweep old, which value iteration tolerates.
+	 */
+	private static class Solver {
+		private final LanderPhysics physics;
+		private final float dt;
+		/** cost to go by cell, pessimistic until improved */
+		private final float[] values = new float[CELLS];
+		private final byte[] policy = new byte[CELLS];
+		private final float[] alts = new float[N_ALT], vys = new float[N_VY];
+		private final float[] offsets = new float[N_OFFSET], vxs = new float[N_VX], fuels = new float[N_FUEL];
+		private int nSweeps;
+
+		Solver(LanderPhysics physics, float dt) {
+			this.physics = physics;
+			this.dt = dt;
+			Arrays.fill(values, CRASH);
+			for (int i = 0; i < N_ALT; i++) alts[i] = altAt(i);
+			for (int i = 0; i < N_VY; i++) vys[i] = vyAt(i);
+			for (int i = 0; i < N_OFFSET; i++) offsets[i] = signedAt(i, OFFSET_MAX, N_OFFSET);
+			for (int i = 0; i < N_VX; i++) vxs[i] = signedAt(i, VX_MAX, N_VX);
+			for (int i = 0; i < N_FUEL; i++) fuels[i] = physics.fInitFuel * i / (N_FUEL - 1);
+		}
+
+		/** Sweeps altitude slices {@code from} to {@code to - 1} of one fuel level, returning the largest change. */
+		private class Sweep extends RecursiveTask<Float> {
+			private static final long serialVersionUID = 1L;
+			private final int fuel, from, to;
+
+			Sweep(int fuel, int from, int to) {
+				this.fuel = fuel;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected Float compute() {
+				if (to - from > 1) {
+					int mid = (from + to) >>> 1;
+					Sweep upper = new Sweep(fuel, mid, to);
+					upper.fork();
+					float delta = new Sweep(fuel, from, mid).compute();
+					return Math.max(delta, upper.join());
+				}
+				float delta = 0f;
+				for (int vy = 0; vy < N_VY; vy++) {
+					for (int offset = 0; offset < N_OFFSET; offset++) {
+						for (int vx = 0; vx < N_VX; vx++) {
+							delta = Math.max(delta, backup(fuel, from, vy, offset, vx));
+						}
+					}
+				}
+				return delta;
+			}
+		}
+
+		/** Updates one cell with its best action. @return how much its value changed */
+		private float backup(int fuel, int alt, int vy, int offset, int vx) {
+			float fFuel = fuels[fuel], fMass = physics.fLanderMass + fFuel;
+			float best = Float.MAX_VALUE;
+			int bestAction = 0;
+			for (int action : ACTIONS) {
+				// As landerMotion(): velocity first, then position with the new velocity
+				float ax = 0f, ay = -physics.fGravity, burn = 0f;
+				if (fFuel > 0f) {
+					if ((action & LanderEngine.INPUT_MAIN) != 0) {
+						burn += physics.fMainBurn;
+						ay += physics.fMainForce / fMass;
+					}
+					if ((action & LanderEngine.INPUT_LEFT) != 0) {
+						burn += physics.fAttitudeBurn;
+						ax += physics.fAttitudeForce / fMass;
+					}
+					if ((action & LanderEngine.INPUT_RIGHT) != 0) {
+						burn += physics.fAttitudeBurn;
+						ax -= physics.fAttitudeForce / fMass;
+					}
+				} else if (action != 0) continue;
+				burn *= dt;
+				float nVy = vys[vy] + ay * dt, nVx = vxs[vx] + ax * dt;
+				float nAlt = alts[alt] + nVy * dt, nOffset = offsets[offset] - nVx * dt;
+				float cost = burn + TICK_COST;
+				if (nAlt <= 0f) {
+					boolean bSafe = Math.abs(nVy) <= LAND_MARGIN * physics.fMaxLandingY
+							&& Math.abs(nVx) <= LAND_MARGIN * physics.fMaxLandingX
+							&& Math.abs(nOffset) <= LAND_OFFSET;
+					if (!bSafe) cost += CRASH;
+				} else if (Math.abs(nOffset) > OFFSET_MAX
+						|| nAlt < Math.min(CLEARANCE, CLEAR_SLOPE * (Math.abs(nOffset) - CLEAR_OFFSET))) {
+					cost += CRASH;
+				} else {
+					cost += interpolate(Math.max(0f, fFuel - burn), nAlt, nVy, nOffset, nVx);
+				}
+				if (cost < best) {
+					best = cost;
+					bestAction = action;
+				}
+			}
+			int i = index(fuel, alt, vy, offset, vx);
+			float delta = Math.abs(values[i] - best);
+			values[i] = best;
+			policy[i] = (byte)bestAction;
+			return delta;
+		}
+
+		/** @return the cost to go at a state between grid points, interpolated from its 32 neighbours */
+		private float interpolate(float fuel, float alt, float vy, float offset, float vx) {
+			float uf = fuel / physics.fInitFuel * (N_FUEL - 1), ua = altCoord(alt), uv = vyCoord(vy);
+			float uo = signedCoord(offset, OFFSET_MAX, N_OFFSET), ux = signedCoord(vx, VX_MAX, N_VX);
+			int f = Math.min((int)uf, N_FUEL - 2), a = Math.min((int)ua, N_ALT - 2), v = Math.min((int)uv, N_VY - 2);
+			int o = Math.min((int)uo, N_OFFSET - 2), x = Math.min((int)ux, N_VX - 2);
+			float wf = uf - f, wa = ua - a, wv = uv - v, wo = uo - o, wx = ux - x;
+			float sum = 0f;
+			for (int df = 0; df < 2; df++) {
+				float pf = df == 0 ? 1f - wf : wf;
+				if (pf == 0f) continue;
+				for (int da = 0; da < 2; da++) {
+					float pa = pf * (da == 0 ? 1f - wa : wa);
+					for (int dv = 0; dv < 2; dv++) {
+						float pv = pa * (dv == 0 ? 1f - wv : wv);
+						int row = index(f + df, a + da, v + dv, o, x);
+						sum += pv * ((1f - wo) * ((1f - wx) * values[row] + wx * values[row + 1])
+								+ wo * ((1f - wx) * values[row + N_VX] + wx * values[row + N_VX + 1]));
+					}
+				}
+			}
+			return sum;
+		}
+	}
+
+	/** Writes the table to {@code file}, replacing it. */
+	public void write(File file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).put(VERSION)
+				.put((byte)N_ALT).put((byte)N_VY).put((byte)N_OFFSET).put((byte)N_VX).put((byte)N_FUEL)
+				.putFloat(dt);
+		for (String name : LanderPhysics.NAMES) header.putFloat(physics.get(name));
+		header.flip();
+		ByteBuffer cells = policy.duplicate();
+		cells.clear();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			while (header.hasRemaining()) channel.write(header);
+			while (cells.hasRemaining()) channel.write(cells);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/** Maps a table written by {@link #write(File)}. */
+	public static PolicyTable open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() != HEADER_BYTES + CELLS) throw new IOException("Not a policy table: " + file);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (map.getInt() != MAGIC || map.get() != VERSION || map.get() != N_ALT || map.get() != N_VY
+					|| map.get() != N_OFFSET || map.get() != N_VX || map.get() != N_FUEL) {
+				throw new IOException("Not a policy table: " + file);
+			}
+			float dt = map.getFloat();
+			LanderPhysics physics = new LanderPhysics();
+			for (String name : LanderPhysics.NAMES) physics.set(name, map.getFloat());
+			return new PolicyTable(physics, dt, map.slice());
+		} finally {
+			// The mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || !(args[0].equals("build") || args[0].equals("evaluate"))) {
+			System.err.println("Usage: PolicyTable build FILE [dt=SECONDS] [name=value ...]");
+			System.err.println("       PolicyTable evaluate FILE [seeds=FIRST:COUNT]");
+			System.exit(2);
+		}
+		File file = new File(args[1]);
+		if (args[0].equals("build")) {
+			LanderPhysics physics = new LanderPhysics();
+			float dt = new LanderEngine().getTimeStep();
+			for (int i = 2; i < args.length; i++) {
+				int eq = args[i].indexOf('=');
+				if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + args[i]);
+				String name = args[i].substring(0, eq), value = args[i].substring(eq + 1);
+				if (name.equals("dt")) dt = Float.parseFloat(value);
+				else physics.set(name, Float.parseFloat(value));
+			}
+			ForkJoinPool pool = new ForkJoinPool();
+			long start = System.nanoTime();
+			PolicyTable table = solve(physics, dt, pool);
+			long elapsed = System.nanoTime() - start;
+			table.write(file);
+			System.out.println(physics);
+			System.out.printf("%d cells, %d sweeps in %.2f s on %d threads, %d bytes written%n", CELLS,
+					table.getSweeps(), elapsed / 1e9, pool.getParallelism(), file.length());
+		} else {
+			long firstSeed = 0, count = 10000;
+			for (int i = 2; i < args.length; i++) {
+				if (!args[i].startsWith("seeds=")) throw new IllegalArgumentException("Unknown option: " + args[i]);
+				String value = args[i].substring(6);
+				int colon = value.indexOf(':');
+				firstSeed = Long.parseLong(value.substring(0, colon));
+				count = Long.parseLong(value.substring(colon + 1));
+			}
+			PolicyTable table = open(file);
+			FlightEvaluator evaluator = new FlightEvaluator(table, table.getPhysics());
+			evaluator.setIntegration(table.getTimeStep(), false);
+			System.out.println(table.getPhysics());
+			System.out.print(evaluator.evaluate(firstSeed, count));
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * One recorded flight: the terrain seed, the settings it was flown with, and
+ * the thruster inputs of every tick from launch to touchdown, packed three
+ * bits per tick. Flying the inputs again on a fresh engine reproduces the
+ * flight exactly, which {@link #play(LanderEngine)} checks against the
+ * recorded outcome.
+ * <p>
+ * Serialized form, big-endian:
+ * <pre>
+ * int    magic "LNDR"
+ * byte   version
+ * long   seed
+ * short  field width, field height, lander width, lander height
+ * float  time step
+ * float  physics settings, in {@link LanderPhysics#NAMES} order
+ * int    ticks
+ * byte   end game state
+ * float  fuel, lander x, lander y at the end
+ * byte[] inputs, (3 * ticks + 7) / 8 bytes
+ * int    partial ticks, from version 2
+ * then for each partial tick, in order:
+ * int    tick
+ * byte   main, left, right duty, in 1/255 of the tick
+ * </pre>
+ * A partial tick is one where a thruster fired for only part of the tick,
+ * see {@link LanderEngine#step(int, float, float, float)}; the duty of a
+ * thruster that did not fire is ignored.
+ */
+public final class Replay {
+	static final int MAGIC = 0x4C4E4452;
+	static final byte VERSION = 2;
+	/** first version with partial ticks */
+	static final byte PARTIAL_VERSION = 2;
+	/** bytes before the packed inputs */
+	static final int HEADER_BYTES = 4 + 1 + 8 + 4 * 2 + 4 + 4 * LanderPhysics.NAMES.length + 4 + 1 + 3 * 4;
+	/** offset of the tick count within the header */
+	static final int TICKS_OFFSET = HEADER_BYTES - 4 - 1 - 3 * 4;
+	/** offset of the version within the header */
+	static final int VERSION_OFFSET = 4;
+	/** bits per tick, one for each of the INPUT_* flags */
+	static final int BITS_PER_TICK = 3;
+	/** a thruster's duty in a partial tick is a whole number of these fractions of a tick */
+	public static final int DUTY_STEPS = 255;
+	/** bytes for each partial tick */
+	static final int PARTIAL_BYTES = 4 + 3;
+
+	final long nSeed;
+	final int xClient, yClient, xLander, yLander;
+	final float dt;
+	final LanderPhysics physics;
+	final int nTicks;
+	final byte[] inputs;
+	/** ticks flown with partial thrust, ascending, and the main, left and right duty of each */
+	final int[] partialTicks;
+	final byte[] partialDuties;
+	final byte byEndGameState;
+	final float fFuel, landerX, landerY;
+
+	Replay(long seed, int xClient, int yClient, int xLander, int yLander, float dt,
+			LanderPhysics physics, int ticks, byte[] inputs, int[] partialTicks, byte[] partialDuties,
+			byte endGameState, float fuel, float landerX, float landerY) {
+		nSeed = seed;
+		this.xClient = xClient;
+		this.yClient = yClient;
+		this.xLander = xLander;
+		this.yLander = yLander;
+		this.dt = dt;
+		this.physics = physics;
+		nTicks = ticks;
+		this.inputs = inputs;
+		this.partialTicks = partialTicks;
+		this.partialDuties = partialDuties;
+		byEndGameState = endGameState;
+		fFuel = fuel;
+		this.landerX = landerX;
+		this.landerY = landerY;
+	}
+
+	/** @return bytes needed to pack the inputs of {@code ticks} ticks */
+	static int inputBytes(int ticks) {
+		return (int)(((long)BITS_PER_TICK * ticks + 7) / 8);
+	}
+
+	/** @return the INPUT_* bits recorded for {@code tick} */
+	public int getInput(int tick) {
+		int bit = BITS_PER_TICK * tick;
+		int i = bit >>> 3;
+		int word = inputs[i] & 0xFF;
+		if (i + 1 < inputs.length) word |= (inputs[i + 1] & 0xFF) << 8;
+		return (word >>> (bit & 7)) & 7;
+	}
+
+	/**
+	 * Steps {@code engine} through {@code tick} with its recorded input,
+	 * partial thrust included.
+	 */
+	public void step(LanderEngine engine, int tick) {
+		int i = Arrays.binarySearch(partialTicks, tick);
+		if (i < 0) engine.step(getInput(tick));
+		else engine.step(getInput(tick), duty(partialDuties[3 * i]),
+				duty(partialDuties[3 * i + 1]), duty(partialDuties[3 * i + 2]));
+	}
+
+	/** @return the fraction of a tick for a duty of {@code steps} {@link #DUTY_STEPS} */
+	public static float duty(int steps) {
+		return (steps & 0xFF) / (float)DUTY_STEPS;
+	}
+
+	public int getTicks() {
+		return nTicks;
+	}
+
+	public long getSeed() {
+		return nSeed;
+	}
+
+	public byte getEndGameState() {
+		return byEndGameState;
+	}
+
+	/** @return an engine matching the recorded playing field and settings */
+	public LanderEngine createEngine() {
+		LanderEngine engine = new LanderEngine(xClient, yClient, xLander, yLander);
+		prepare(engine);
+		return engine;
+	}
+
+	/**
+	 * Sets up {@code engine} on the recorded terrain and launches it, ready
+	 * for the input of tick 0. The engine must have the recorded field size.
+	 */
+	public void prepare(LanderEngine engine) {
+		engine.setPhysics(physics);
+		engine.setTimeStep(dt);
+		engine.newGame(nSeed);
+		engine.step(0);
+		engine.launch();
+	}
+
+	/**
+	 * Re-simulates the whole flight on {@code engine}, without rendering.
+	 * @return true if it ends exactly as recorded
+	 */
+	public boolean play(LanderEngine engine) {
+		prepare(engine);
+		for (int i = 0; i < nTicks; i++) step(engine, i);
+		for (int i = 0; i < FlightEvaluator.MAX_TICKS && !engine.isFinished(); i++) engine.step(0);
+		return matches(engine);
+	}
+
+	/** @return true if {@code engine} has finished the way this flight did */
+	public boolean matches(LanderEngine engine) {
+		return engine.getEndGameState() == byEndGameState
+				&& engine.getFlightTicks() == nTicks
+				&& Float.floatToIntBits(engine.getFuel()) == Float.floatToIntBits(fFuel)
+				&& Float.floatToIntBits(engine.getLanderX()) == Float.floatToIntBits(landerX)
+				&& Float.floatToIntBits(engine.getLanderY()) == Float.floatToIntBits(landerY);
+	}
+
+	/** @return size of the serialized form in bytes */
+	public int size() {
+		return HEADER_BYTES + inputs.length + 4 + PARTIAL_BYTES * partialTicks.length;
+	}
+
+	/** Serializes into {@code buf}, which must have {@link #size()} bytes remaining. */
+	public void write(ByteBuffer buf) {
+		buf.putInt(MAGIC);
+		buf.put(VERSION);
+		buf.putLong(nSeed);
+		buf.putShort((short)xClient);
+		buf.putShort((short)yClient);
+		buf.putShort((short)xLander);
+		buf.putShort((short)yLander);
+		buf.putFloat(dt);
+		for (String name : LanderPhysics.NAMES) buf.putFloat(physics.get(name));
+		buf.putInt(nTicks);
+		buf.put(byEndGameState);
+		buf.putFloat(fFuel);
+		buf.putFloat(landerX);
+		buf.putFloat(landerY);
+		buf.put(inputs);
+		buf.putInt(partialTicks.length);
+		for (int i = 0; i < partialTicks.length; i++) {
+			buf.putInt(partialTicks[i]);
+			buf.put(partialDuties, 3 * i, 3);
+		}
+	}
+
+	/**
+	 * Reads a replay written by {@link #write(ByteBuffer)}.
+	 * @throws IOException if the buffer does not hold a replay
+	 */
+	public static Replay read(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC)
+			throw new IOException("Not a replay");
+		byte version = buf.get();
+		if (version < 1 || version > VERSION) throw new IOException("Unsupported replay version " + version);
+		long seed = buf.getLong();
+		int xClient = buf.getShort(), yClient = buf.getShort();
+		int xLander = buf.getShort(), yLander = buf.getShort();
+		float dt = buf.getFloat();
+		LanderPhysics physics = new LanderPhysics();
+		for (String name : LanderPhysics.NAMES) physics.set(name, buf.getFloat());
+		int ticks = buf.getInt();
+		byte endGameState = buf.get();
+		float fuel = buf.getFloat(), landerX = buf.getFloat(), landerY = buf.getFloat();
+		if (ticks < 0 || buf.remaining() < inputBytes(ticks))
+			throw new IOException("Truncated replay");
+		byte[] inputs = new byte[inputBytes(ticks)];
+		buf.get(inputs);
+		int partials = 0;
+		if (version >= PARTIAL_VERSION) {
+			partials = buf.remaining() < 4 ? -1 : buf.getInt();
+			if (partials < 0 || partials > ticks || buf.remaining() < PARTIAL_BYTES * partials)
+				throw new IOException("Truncated replay");
+		}
+		int[] partialTicks = new int[partials];
+		byte[] partialDuties = new byte[3 * partials];
+		for (int i = 0; i < partials; i++) {
+			partialTicks[i] = buf.getInt();
+			buf.get(partialDuties, 3 * i, 3);
+		}
+		return new Replay(seed, xClient, yClient, xLander, yLander, dt, physics, ticks, inputs,
+				partialTicks, partialDuties, endGameState, fuel, landerX, landerY);
+	}
+}
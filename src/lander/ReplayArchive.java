@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads an archive written by {@link ReplayWriter} through memory-mapped
+ * windows, so large archives are read at page-cache speed without copying
+ * through stream buffers.
+ * <p>
+ * Usage: {@code ReplayArchive verify FILE} re-flies every replay in the archive
+ * and reports any that no longer end as recorded;
+ * {@code ReplayArchive record FILE [seeds=FIRST:COUNT]} appends autopilot flights.
+ */
+public class ReplayArchive implements Closeable {
+	/** bytes mapped at a time */
+	private static final int WINDOW = 64 << 20;
+
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer window;
+	/** file offset of {@link #window} */
+	private long windowStart;
+
+	public ReplayArchive(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		size = channel.size();
+	}
+
+	/** @return the next replay, or null at the end of the archive */
+	public Replay next() throws IOException {
+		if (!ensure(Replay.HEADER_BYTES)) {
+			if (position() < size) throw new IOException("Truncated replay at " + position());
+			return null;
+		}
+		int ticks = window.getInt(window.position() + Replay.TICKS_OFFSET);
+		int size = Replay.HEADER_BYTES + Replay.inputBytes(ticks);
+		if (ticks < 0 || !ensure(size)) throw new IOException("Truncated replay at " + position());
+		if (window.get(window.position() + Replay.VERSION_OFFSET) >= Replay.PARTIAL_VERSION) {
+			if (!ensure(size + 4)) throw new IOException("Truncated replay at " + position());
+			int partials = window.getInt(window.position() + size);
+			if (partials < 0 || partials > ticks || !ensure(size + 4 + Replay.PARTIAL_BYTES * partials))
+				throw new IOException("Truncated replay at " + position());
+		}
+		return Replay.read(window);
+	}
+
+	private long position() {
+		return window == null ? 0 : windowStart + window.position();
+	}
+
+	/**
+	 * Makes at least {@code bytes} bytes from the current position readable
+	 * from {@link #window}, remapping if needed.
+	 * @return false if the file ends first
+	 */
+	private boolean ensure(int bytes) throws IOException {
+		if (window != null && window.remaining() >= bytes) return true;
+		long start = position();
+		if (size - start < bytes) return false;
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				Math.min(size - start, Math.max(WINDOW, bytes)));
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: ReplayArchive verify FILE | record FILE [seeds=FIRST:COUNT]");
+			System.exit(2);
+		}
+		File file = new File(args[1]);
+		if (args[0].equals("record")) record(file, args.length > 2 ? args[2] : "seeds=0:10000");
+		else if (args[0].equals("verify")) verify(file);
+		else throw new IllegalArgumentException("Unknown command: " + args[0]);
+	}
+
+	private static void record(File file, String seeds) throws IOException {
+		String range = seeds.substring(seeds.indexOf('=') + 1);
+		int colon = range.indexOf(':');
+		long firstSeed = Long.parseLong(range.substring(0, colon));
+		long count = Long.parseLong(range.substring(colon + 1));
+		LanderEngine engine = new LanderEngine();
+		LanderController controller = new Autopilot();
+		ReplayRecorder recorder = new ReplayRecorder();
+		ReplayWriter writer = new ReplayWriter(file);
+		try {
+			for (long seed = firstSeed; seed < firstSeed + count; seed++) {
+				engine.newGame(seed);
+				engine.step(0);
+				engine.launch();
+				recorder.begin(engine);
+				for (int i = 0; i < FlightEvaluator.MAX_TICKS && !engine.isFinished(); i++) {
+					int inputs = controller.control(engine);
+					if (engine.getState() == LanderEngine.LND_ACTIVE) recorder.record(inputs);
+					engine.step(inputs);
+				}
+				writer.write(recorder.finish(engine));
+			}
+		} finally {
+			writer.close();
+		}
+		System.out.println(count + " flights appended to " + file);
+	}
+
+	private static void verify(File file) throws IOException {
+		long start = System.nanoTime();
+		int count = 0, failed = 0;
+		long ticks = 0;
+		LanderEngine engine = null;
+		ReplayArchive archive = new ReplayArchive(file);
+		try {
+			Replay replay;
+			while ((replay = archive.next()) != null) {
+				if (engine == null || engine.getWidth() != replay.xClient || engine.getHeight() != replay.yClient
+						|| engine.getLanderWidth() != replay.xLander || engine.getLanderHeight() != replay.yLander)
+					engine = replay.createEngine();
+				if (!replay.play(engine)) {
+					failed++;
+					System.out.println("Replay " + count + " (seed " + replay.getSeed() + ") diverged");
+				}
+				ticks += replay.getTicks();
+				count++;
+			}
+		} finally {
+			archive.close();
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%d replays, %d ticks verified in %.2f s, %d diverged%n",
+				count, ticks, elapsed / 1e9, failed);
+		if (failed > 0) System.exit(1);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.Arrays;
+
+/**
+ * Packs the inputs of a flight as it is flown and turns them into a
+ * {@link Replay} once the outcome is known. The buffer is kept between
+ * flights, so recording allocates only when a flight is longer than any before.
+ */
+public class ReplayRecorder {
+	private byte[] buffer = new byte[256];
+	private int nTicks;
+	/** ticks recorded with partial thrust, and their main, left and right duty */
+	private int[] partialTicks = new int[16];
+	private byte[] partialDuties = new byte[3 * 16];
+	private int nPartials;
+	private boolean bRecording;
+	private long nSeed;
+	private float dt;
+	private LanderPhysics physics;
+
+	/** Starts a recording for a flight launched on {@code engine}. */
+	public void begin(LanderEngine engine) {
+		Arrays.fill(buffer, 0, Replay.inputBytes(nTicks), (byte)0);
+		nTicks = 0;
+		nPartials = 0;
+		nSeed = engine.getSeed();
+		dt = engine.getTimeStep();
+		physics = engine.getPhysics();
+		bRecording = true;
+	}
+
+	public boolean isRecording() {
+		return bRecording;
+	}
+
+	/**
+	 * Appends a flight tick in which thrusters fired for only part of the tick.
+	 * @param mainDuty steps of {@link Replay#DUTY_STEPS} the main engine fired for
+	 */
+	public void record(int inputs, int mainDuty, int leftDuty, int rightDuty) {
+		if (nPartials == partialTicks.length) {
+			partialTicks = Arrays.copyOf(partialTicks, 2 * nPartials);
+			partialDuties = Arrays.copyOf(partialDuties, 6 * nPartials);
+		}
+		partialTicks[nPartials] = nTicks;
+		partialDuties[3 * nPartials] = (byte)mainDuty;
+		partialDuties[3 * nPartials + 1] = (byte)leftDuty;
+		partialDuties[3 * nPartials + 2] = (byte)rightDuty;
+		nPartials++;
+		record(inputs);
+	}
+
+	/** Appends the INPUT_* bits of one flight tick. */
+	public void record(int inputs) {
+		int bit = Replay.BITS_PER_TICK * nTicks;
+		int i = bit >>> 3;
+		if (i + 1 >= buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		int word = (inputs & 7) << (bit & 7);
+		buffer[i] |= word;
+		buffer[i + 1] |= word >>> 8;
+		nTicks++;
+	}
+
+	/** Ends the recording with the outcome now shown by {@code engine}. */
+	public Replay finish(LanderEngine engine) {
+		bRecording = false;
+		return new Replay(nSeed, engine.getWidth(), engine.getHeight(),
+				engine.getLanderWidth(), engine.getLanderHeight(), dt, physics, nTicks,
+				Arrays.copyOf(buffer, Replay.inputBytes(nTicks)), Arrays.copyOf(partialTicks, nPartials),
+				Arrays.copyOf(partialDuties, 3 * nPartials), engine.getEndGameState(),
+				engine.getFuel(), engine.getLanderX(), engine.getLanderY());
+	}
+
+	/** Drops the recording in progress, if any. */
+	public void cancel() {
+		bRecording = false;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends replays to an archive file on a background thread, so a flight
+ * ending never waits on the disk. An archive is simply replays back to back;
+ * {@link ReplayArchive} reads it.
+ */
+public class ReplayWriter implements Closeable {
+	private final FileChannel channel;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ReplayWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public ReplayWriter(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/** Queues {@code replay} to be appended. */
+	public void write(Replay replay) {
+		final ByteBuffer buf = ByteBuffer.allocate(replay.size());
+		replay.write(buf);
+		buf.flip();
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (buf.hasRemaining()) channel.write(buf);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/** Waits for queued replays to be written, then closes the file. */
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted writing replays");
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+/**
+ * The counters of a ring of preallocated slots with one producer thread and
+ * one consumer thread. The producer fills the slot at {@link #head()} and
+ * then advances the head; the consumer reads the slots from
+ * {@link #tail()} up to the head and then advances the tail. Each counter
+ * is written by one side only and read by the other through a volatile
+ * field, which also publishes the slot contents, so neither side locks or
+ * allocates. The counters only grow; {@link #index(long)} maps them to slots.
+ */
+final class RingCounters {
+	/** slots in the ring minus one, a power of two minus one */
+	final int nMask;
+	/** slots filled by the producer, and slots taken by the consumer */
+	private volatile long nHead, nTail;
+
+	/** @param capacity slots in the ring, rounded up to a power of two */
+	RingCounters(int capacity) {
+		nMask = (Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1) - 1;
+	}
+
+	/** @return slots in the ring */
+	int size() {
+		return nMask + 1;
+	}
+
+	/** @return the slot of count {@code n} */
+	int index(long n) {
+		return (int)n & nMask;
+	}
+
+	/** @return slots filled so far */
+	long head() {
+		return nHead;
+	}
+
+	/** @return slots taken so far */
+	long tail() {
+		return nTail;
+	}
+
+	/** @return slots filled and not yet taken */
+	int used() {
+		return (int)(nHead - nTail);
+	}
+
+	/** Publishes the slots filled up to {@code head}; producer side. */
+	void setHead(long head) {
+		nHead = head;
+	}
+
+	/** Hands back the slots taken up to {@code tail}; consumer side. */
+	void setTail(long tail) {
+		nTail = tail;
+	}
+}
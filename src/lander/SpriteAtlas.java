@@ -0,0 +1,90 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Sprites packed into a single image in the screen's pixel format, so each
+ * sprite is drawn as a blit from one accelerated source.
+ */
+public class SpriteAtlas {
+	/** widest row of sprites before wrapping to the next */
+	private static final int MAX_WIDTH = 256;
+
+	private final BufferedImage atlas;
+	private final int[] xs, ys, widths, heights;
+
+	/**
+	 * @param sprites images to pack, drawn later by their index
+	 * @param gc configuration to match, or null for a plain ARGB image
+	 */
+	public SpriteAtlas(Image[] sprites, GraphicsConfiguration gc) {
+		int n = sprites.length;
+		xs = new int[n];
+		ys = new int[n];
+		widths = new int[n];
+		heights = new int[n];
+		int x = 0, y = 0, rowHeight = 0, atlasWidth = 0;
+		for (int i = 0; i < n; i++) {
+			widths[i] = sprites[i].getWidth(null);
+			heights[i] = sprites[i].getHeight(null);
+			if (x > 0 && x + widths[i] > MAX_WIDTH) {
+				x = 0;
+				y += rowHeight;
+				rowHeight = 0;
+			}
+			xs[i] = x;
+			ys[i] = y;
+			x += widths[i];
+			rowHeight = Math.max(rowHeight, heights[i]);
+			atlasWidth = Math.max(atlasWidth, x);
+		}
+		atlas = createImage(gc, atlasWidth, y + rowHeight, Transparency.TRANSLUCENT);
+		Graphics2D g2d = atlas.createGraphics();
+		try {
+			for (int i = 0; i < n; i++) g2d.drawImage(sprites[i], xs[i], ys[i], null);
+		} finally {
+			g2d.dispose();
+		}
+	}
+
+	/** Creates an image in the format of {@code gc}, or a plain one if it is null. */
+	static BufferedImage createImage(GraphicsConfiguration gc, int width, int height, int transparency) {
+		if (gc != null) return gc.createCompatibleImage(width, height, transparency);
+		return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+				? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+	}
+
+	/** Draws sprite {@code id} with its top-left corner at {@code x}, {@code y}. */
+	public void draw(Graphics g, int id, int x, int y) {
+		int sx = xs[id], sy = ys[id], w = widths[id], h = heights[id];
+		g.drawImage(atlas, x, y, x + w, y + h, sx, sy, sx + w, sy + h, null);
+	}
+
+	public int getWidth(int id) {
+		return widths[id];
+	}
+
+	public int getHeight(int id) {
+		return heights[id];
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Compact stream of {@link FlightSnapshot}s for spectators and telemetry,
+ * with any number of flights interleaved in one stream.
+ * <p>
+ * A stream is a sequence of blocks, each of which a reader can start at:
+ * <pre>
+ * int    sync "LNTS"
+ * byte   version
+ * int    length of the records
+ * byte[] records
+ * </pre>
+ * A record starts with a varint of the flight shifted left one, the low bit
+ * set for a keyframe, which holds the whole state:
+ * <pre>
+ * varint tick
+ * long   seed
+ * byte   state, sprite, inputs
+ * varint x, y, velocity x, velocity y, fuel; quantized, zigzag encoded
+ * </pre>
+ * Otherwise the record is a delta for the tick after the flight's last one:
+ * <pre>
+ * byte   mask of what follows: state, sprite, inputs, x, y, velocity x, velocity y, fuel
+ * byte   state, sprite, inputs, each only if in the mask
+ * varint residual of each quantized value in the mask, zigzag encoded
+ * </pre>
+ * A residual is the difference from predicting that a value changes by as
+ * much as on the tick before, so steady motion and constant thrust cost
+ * nothing beyond the mask. Positions are quantized to 1/64 pixel, velocity
+ * and fuel to hundredths as the HUD shows them; each value is rebuilt from
+ * its own quantized value, so rounding never accumulates. A flight gets a
+ * keyframe on its first record, every {@link #KEY_INTERVAL} ticks, when its
+ * seed changes and when a tick is skipped. A flight ends with a record in
+ * LND_INACTIVE, or LND_HOLD if it was abandoned for a new game, after which
+ * its history is dropped.
+ */
+final class Telemetry {
+	static final int SYNC = 0x4C4E5453;
+	static final byte VERSION = 1;
+	static final int BLOCK_HEADER = 4 + 1 + 4;
+	/** largest block a writer produces or a reader accepts */
+	static final int MAX_BLOCK = 1 << 16;
+	/** longest encoded record */
+	static final int MAX_RECORD = 10 + 5 + 8 + 3 + 5 * 10;
+	/** ticks between keyframes of a flight */
+	static final int KEY_INTERVAL = 64;
+
+	private static final int MASK_STATE = 1, MASK_SPRITE = 2, MASK_INPUTS = 4, MASK_VALUES = 3;
+	/** quantized values: x, y, velocity x, velocity y, fuel */
+	private static final int VALUES = 5;
+	private static final float[] QUANTA = {64f, 64f, 100f, 100f, 100f};
+
+	private Telemetry() {}
+
+	/** What a stream has said about one flight so far. */
+	private static class Track {
+		long nSeed;
+		int nTick, nSprite, nInputs, nSinceKey;
+		byte byState;
+		/** quantized values at the last tick, and their change since the tick before */
+		final long[] values = new long[VALUES], deltas = new long[VALUES];
+	}
+
+	/** Encodes snapshots into records, remembering each flight's last state. */
+	static final class Encoder {
+		private final HashMap<Integer, Track> tracks = new HashMap<Integer, Track>();
+		private final long[] values = new long[VALUES];
+
+		/** Appends the record of {@code s}; {@code buf} needs {@link #MAX_RECORD} bytes remaining. */
+		void encode(FlightSnapshot s, ByteBuffer buf) {
+			quantize(s, values);
+			Track track = tracks.get(s.nFlight);
+			boolean bKey = track == null || track.nSeed != s.nSeed || s.nTick != track.nTick + 1
+					|| track.nSinceKey >= KEY_INTERVAL;
+			if (track == null) {
+				track = new Track();
+				tracks.put(s.nFlight, track);
+			}
+			putVarint(buf, ((long)s.nFlight << 1) | (bKey ? 1 : 0));
+			if (bKey) {
+				putVarint(buf, s.nTick);
+				buf.putLong(s.nSeed);
+				buf.put(s.byState);
+				buf.put((byte)s.nSprite);
+				buf.put((byte)s.nInputs);
+				for (int i = 0; i < VALUES; i++) {
+					putVarint(buf, zigzag(values[i]));
+					track.deltas[i] = 0;
+				}
+				track.nSinceKey = 0;
+			} else {
+				int mask = 0;
+				if (s.byState != track.byState) mask |= MASK_STATE;
+				if (s.nSprite != track.nSprite) mask |= MASK_SPRITE;
+				if (s.nInputs != track.nInputs) mask |= MASK_INPUTS;
+				for (int i = 0; i < VALUES; i++)
+					if (values[i] != track.values[i] + track.deltas[i]) mask |= 1 << (MASK_VALUES + i);
+				buf.put((byte)mask);
+				if ((mask & MASK_STATE) != 0) buf.put(s.byState);
+				if ((mask & MASK_SPRITE) != 0) buf.put((byte)s.nSprite);
+				if ((mask & MASK_INPUTS) != 0) buf.put((byte)s.nInputs);
+				for (int i = 0; i < VALUES; i++) {
+					if ((mask & 1 << (MASK_VALUES + i)) != 0)
+						putVarint(buf, zigzag(values[i] - track.values[i] - track.deltas[i]));
+					track.deltas[i] = values[i] - track.values[i];
+				}
+				track.nSinceKey++;
+			}
+			System.arraycopy(values, 0, track.values, 0, VALUES);
+			track.nSeed = s.nSeed;
+			track.nTick = s.nTick;
+			track.byState = s.byState;
+			track.nSprite = s.nSprite;
+			track.nInputs = s.nInputs;
+			if (isLast(s.byState)) tracks.remove(s.nFlight);
+		}
+	}
+
+	/** Decodes records, remembering each flight's last state. */
+	static final class Decoder {
+		private final HashMap<Integer, Track> tracks = new HashMap<Integer, Track>();
+
+		/** Forgets every flight, so each waits for its next keyframe. */
+		void reset() {
+			tracks.clear();
+		}
+
+		/**
+		 * Reads one record.
+		 * @return true if {@code s} was filled in, false if the record was a
+		 * delta for a flight with no keyframe read yet, and was skipped
+		 * @throws IOException if the record is malformed
+		 */
+		boolean decode(ByteBuffer buf, FlightSnapshot s) throws IOException {
+			long head = getVarint(buf);
+			int flight = (int)(head >>> 1);
+			Track track = tracks.get(flight);
+			if ((head & 1) != 0) {
+				if (track == null) {
+					track = new Track();
+					tracks.put(flight, track);
+				}
+				track.nTick = (int)getVarint(buf);
+				track.nSeed = buf.getLong();
+				track.byState = buf.get();
+				track.nSprite = buf.get();
+				track.nInputs = buf.get();
+				for (int i = 0; i < VALUES; i++) {
+					track.values[i] = unzigzag(getVarint(buf));
+					track.deltas[i] = 0;
+				}
+			} else {
+				int mask = buf.get() & 0xFF;
+				byte state = (mask & MASK_STATE) != 0 ? buf.get() : 0;
+				int sprite = (mask & MASK_SPRITE) != 0 ? buf.get() : 0;
+				int inputs = (mask & MASK_INPUTS) != 0 ? buf.get() : 0;
+				if (track == null) {
+					for (int i = 0; i < VALUES; i++) if ((mask & 1 << (MASK_VALUES + i)) != 0) getVarint(buf);
+					return false;
+				}
+				track.nTick++;
+				if ((mask & MASK_STATE) != 0) track.byState = state;
+				if ((mask & MASK_SPRITE) != 0) track.nSprite = sprite;
+				if ((mask & MASK_INPUTS) != 0) track.nInputs = inputs;
+				for (int i = 0; i < VALUES; i++) {
+					long value = track.values[i] + track.deltas[i];
+					if ((mask & 1 << (MASK_VALUES + i)) != 0) value += unzigzag(getVarint(buf));
+					track.deltas[i] = value - track.values[i];
+					track.values[i] = value;
+				}
+			}
+			s.nFlight = flight;
+			s.nTick = track.nTick;
+			s.nSeed = track.nSeed;
+			s.byState = track.byState;
+			s.nSprite = track.nSprite;
+			s.nInputs = track.nInputs;
+			s.landerX = track.values[0] / QUANTA[0];
+			s.landerY = track.values[1] / QUANTA[1];
+			s.landerVx = track.values[2] / QUANTA[2];
+			s.landerVy = track.values[3] / QUANTA[3];
+			s.fFuel = track.values[4] / QUANTA[4];
+			if (isLast(track.byState)) tracks.remove(flight);
+			return true;
+		}
+	}
+
+	/** @return true if {@code state} ends a flight */
+	static boolean isLast(byte state) {
+		return state == LanderEngine.LND_INACTIVE || state == LanderEngine.LND_HOLD;
+	}
+
+	private static void quantize(FlightSnapshot s, long[] values) {
+		values[0] = Math.round((double)s.landerX * QUANTA[0]);
+		values[1] = Math.round((double)s.landerY * QUANTA[1]);
+		values[2] = Math.round((double)s.landerVx * QUANTA[2]);
+		values[3] = Math.round((double)s.landerVy * QUANTA[3]);
+		values[4] = Math.round((double)s.fFuel * QUANTA[4]);
+	}
+
+	static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/** Writes {@code n} as an unsigned varint, seven bits per byte, low bits first. */
+	static void putVarint(ByteBuffer buf, long n) {
+		while ((n & ~0x7FL) != 0) {
+			buf.put((byte)(n | 0x80));
+			n >>>= 7;
+		}
+		buf.put((byte)n);
+	}
+
+	static long getVarint(ByteBuffer buf) throws IOException {
+		long n = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buf.get();
+			n |= (long)(b & 0x7F) << shift;
+			if (b >= 0) return n;
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+
+/**
+ * Reads a stream written by {@link TelemetryWriter}, from a file or as it is
+ * written to a named pipe. Reading may start anywhere: the reader looks for
+ * the next block and skips each flight's records until its next keyframe.
+ * Whenever it has to look for a block mid-stream it forgets every flight the
+ * same way, since the blocks passed over may have held records the deltas
+ * that follow build on.
+ * <p>
+ * Usage: {@code TelemetryReader FILE [from=OFFSET]} summarizes the stream.
+ */
+public class TelemetryReader implements Closeable {
+	private final FileChannel channel;
+	private final ByteBuffer in = ByteBuffer.allocate(2 * Telemetry.MAX_BLOCK);
+	/** the records of the current block, a view of {@link #in} */
+	private ByteBuffer records = ByteBuffer.allocate(0);
+	private final Telemetry.Decoder decoder = new Telemetry.Decoder();
+	private long nBlocks, nSkipped, nBytes;
+
+	public TelemetryReader(File file) throws IOException {
+		this(file, 0);
+	}
+
+	/** Starts reading at byte {@code offset} of a file, which need not be the start of a block. */
+	public TelemetryReader(File file, long offset) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		if (offset > 0) channel.position(offset);
+		in.flip();
+	}
+
+	/**
+	 * Reads the next snapshot into {@code s}, waiting for it if the stream is
+	 * a pipe.
+	 * @return false at the end of the stream
+	 * @throws IOException if the stream is malformed
+	 */
+	public boolean next(FlightSnapshot s) throws IOException {
+		while (true) {
+			try {
+				while (records.hasRemaining()) if (decoder.decode(records, s)) return true;
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Truncated record in block " + nBlocks);
+			}
+			if (!nextBlock()) return false;
+		}
+	}
+
+	/** Blocks read so far. */
+	public long getBlocks() {
+		return nBlocks;
+	}
+
+	/** Bytes read from the stream so far. */
+	public long getBytes() {
+		return nBytes;
+	}
+
+	/** Bytes passed over looking for a block. */
+	public long getSkipped() {
+		return nSkipped;
+	}
+
+	/** @return false if the stream ends before another whole block */
+	private boolean nextBlock() throws IOException {
+		long skipped = nSkipped;
+		while (fill(Telemetry.BLOCK_HEADER)) {
+			int pos = in.position();
+			int length = in.getInt(pos + 5);
+			if (in.getInt(pos) != Telemetry.SYNC || in.get(pos + 4) != Telemetry.VERSION
+					|| length < 0 || length > Telemetry.MAX_BLOCK - Telemetry.BLOCK_HEADER) {
+				in.position(pos + 1);
+				nSkipped++;
+				continue;
+			}
+			if (!fill(Telemetry.BLOCK_HEADER + length)) return false;
+			pos = in.position() + Telemetry.BLOCK_HEADER;
+			records = in.duplicate();
+			records.limit(pos + length).position(pos);
+			in.position(pos + length);
+			if (nSkipped != skipped) decoder.reset();
+			nBlocks++;
+			return true;
+		}
+		return false;
+	}
+
+	/** @return false if the stream ends before {@code bytes} bytes are buffered */
+	private boolean fill(int bytes) throws IOException {
+		if (in.remaining() >= bytes) return true;
+		in.compact();
+		try {
+			while (in.position() < bytes) {
+				int n = channel.read(in);
+				if (n < 0) return false;
+				nBytes += n;
+			}
+			return true;
+		} finally {
+			in.flip();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TelemetryReader FILE [from=OFFSET]");
+			System.exit(2);
+		}
+		File file = new File(args[0]);
+		long from = args.length > 1 ? Long.parseLong(args[1].substring(args[1].indexOf('=') + 1)) : 0;
+		TelemetryReader reader = new TelemetryReader(file, from);
+		FlightSnapshot s = new FlightSnapshot();
+		HashSet<Integer> flights = new HashSet<Integer>();
+		long records = 0, landed = 0, crashed = 0, lost = 0;
+		try {
+			while (reader.next(s)) {
+				records++;
+				flights.add(s.nFlight);
+				if (s.byState == LanderEngine.LND_SAFE) landed++;
+				else if (s.byState == LanderEngine.LND_CRASH1) crashed++;
+				else if (s.byState == LanderEngine.LND_OUTOFRANGE) lost++;
+			}
+		} finally {
+			reader.close();
+		}
+		System.out.println(records + " snapshots of " + flights.size() + " flights in " + reader.getBlocks()
+				+ " blocks, " + String.format("%.2f", records == 0 ? 0 : (double)reader.getBytes() / records) + " bytes each");
+		System.out.println(landed + " landed, " + crashed + " crashed, " + lost + " out of range");
+		if (reader.getSkipped() > 0) System.out.println(reader.getSkipped() + " bytes skipped");
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams flight snapshots to a file or named pipe in the {@link Telemetry}
+ * format. Recording only copies the snapshot into a ring of preallocated
+ * slots; a background thread encodes and writes them, so the game loop never
+ * waits on the encoder or the disk. When a ring is full, as when a
+ * spectator stops reading a pipe, snapshots are dropped rather than queued
+ * and the next one of each flight goes out as a keyframe.
+ * <p>
+ * Each ring, kept by {@link RingCounters}, is filled by one thread. The
+ * writer's own {@link #record} has a ring for one thread; every other thread recording
+ * into the same stream, such as each of a server's event loops, takes a
+ * {@link Producer} of its own.
+ */
+public class TelemetryWriter implements Closeable {
+	/** snapshots a ring holds by default, 20 ticks of 200 flights */
+	public static final int DEFAULT_CAPACITY = 4096;
+	/** how long the encoder waits for the rest of a tick's snapshots before writing a block */
+	private static final long LINGER_NANOS = 5 * 1000000L;
+
+	private final FileChannel channel;
+	private final int nCapacity;
+	private final Producer producer;
+	/** rings the encoder drains, replaced whole when one is added */
+	private volatile Producer[] producers = new Producer[0];
+	private volatile long nBytes;
+	private volatile boolean bClosed;
+	private final Thread encoder;
+
+	public TelemetryWriter(File file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/** @param capacity snapshots each ring holds, rounded up to a power of two */
+	public TelemetryWriter(File file, int capacity) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		nCapacity = capacity;
+		encoder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				encode();
+			}
+		}, "TelemetryWriter");
+		encoder.setDaemon(true);
+		producer = newProducer();
+		encoder.start();
+	}
+
+	/** @return a ring of its own for one more thread recording into the stream */
+	public synchronized Producer newProducer() {
+		Producer p = new Producer(nCapacity);
+		Producer[] grown = Arrays.copyOf(producers, producers.length + 1);
+		grown[grown.length - 1] = p;
+		producers = grown;
+		return p;
+	}
+
+	/**
+	 * Queues the state of {@code engine} as tick {@code tick} of flight
+	 * {@code flight}, from the one thread that uses the writer's own ring.
+	 * @see Producer#record(int, int, LanderEngine, int)
+	 */
+	public boolean record(int flight, int tick, LanderEngine engine, int inputs) {
+		return producer.record(flight, tick, engine, inputs);
+	}
+
+	/** Snapshots queued so far. */
+	public long getRecorded() {
+		long n = 0;
+		for (Producer p : producers) n += p.nRecorded;
+		return n;
+	}
+
+	/** Snapshots dropped because a ring was full. */
+	public long getDropped() {
+		long n = 0;
+		for (Producer p : producers) n += p.nDropped;
+		return n;
+	}
+
+	/** Bytes written so far. */
+	public long getBytes() {
+		return nBytes;
+	}
+
+	/** A ring of snapshots recorded by one thread. */
+	public class Producer {
+		/** slots filled by the producer, and slots encoded by the encoder */
+		private final RingCounters ring;
+		private final FlightSnapshot[] slots;
+		/** written by the producer only */
+		private volatile long nRecorded, nDropped;
+
+		Producer(int capacity) {
+			ring = new RingCounters(capacity);
+			slots = new FlightSnapshot[ring.size()];
+			for (int i = 0; i < slots.length; i++) slots[i] = new FlightSnapshot();
+		}
+
+		/**
+		 * Queues the state of {@code engine} as tick {@code tick} of flight {@code flight}.
+		 * Only the thread that owns this ring may call it. Ticks of a flight
+		 * should be recorded in order and without gaps, or each one after a
+		 * gap costs a keyframe.
+		 * @return false if the snapshot was dropped because the writer is behind
+		 */
+		public boolean record(int flight, int tick, LanderEngine engine, int inputs) {
+			long head = ring.head();
+			int used = ring.used();
+			if (bClosed || used > ring.nMask) {
+				nDropped++;
+				return false;
+			}
+			slots[ring.index(head)].capture(flight, tick, engine, inputs);
+			ring.setHead(head + 1);
+			nRecorded++;
+			if (used == 0) LockSupport.unpark(encoder);
+			return true;
+		}
+	}
+
+	private void encode() {
+		Telemetry.Encoder enc = new Telemetry.Encoder();
+		ByteBuffer block = ByteBuffer.allocate(Telemetry.MAX_BLOCK);
+		try {
+			while (true) {
+				if (!waiting()) {
+					if (bClosed) return;
+					LockSupport.park(this);
+					continue;
+				}
+				// Give the rest of the tick's snapshots a moment to arrive
+				if (!bClosed && !halfFull()) LockSupport.parkNanos(this, LINGER_NANOS);
+				block.clear();
+				block.position(Telemetry.BLOCK_HEADER);
+				for (Producer p : producers) {
+					long tail = p.ring.tail(), head = p.ring.head();
+					for (; tail < head; tail++) {
+						if (block.remaining() < Telemetry.MAX_RECORD) {
+							writeBlock(block);
+							block.clear();
+							block.position(Telemetry.BLOCK_HEADER);
+						}
+						enc.encode(p.slots[p.ring.index(tail)], block);
+					}
+					p.ring.setTail(tail);
+				}
+				if (block.position() > Telemetry.BLOCK_HEADER) writeBlock(block);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			bClosed = true;
+		}
+	}
+
+	/** @return whether any ring has snapshots waiting */
+	private boolean waiting() {
+		for (Producer p : producers) {
+			if (p.ring.used() != 0) return true;
+		}
+		return false;
+	}
+
+	/** @return whether any ring is at least half full */
+	private boolean halfFull() {
+		for (Producer p : producers) {
+			if (p.ring.used() > p.ring.nMask / 2) return true;
+		}
+		return false;
+	}
+
+	private void writeBlock(ByteBuffer block) throws IOException {
+		int length = block.position() - Telemetry.BLOCK_HEADER;
+		block.putInt(0, Telemetry.SYNC);
+		block.put(4, Telemetry.VERSION);
+		block.putInt(5, length);
+		block.flip();
+		while (block.hasRemaining()) channel.write(block);
+		nBytes += block.limit();
+	}
+
+	/** Waits for queued snapshots to be written, then closes the file. */
+	@Override
+	public void close() throws IOException {
+		bClosed = true;
+		LockSupport.unpark(encoder);
+		try {
+			encoder.join(TimeUnit.MINUTES.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted writing telemetry");
+		} finally {
+			channel.close();
+		}
+	}
+}
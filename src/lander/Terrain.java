@@ -0,0 +1,280 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.util.Random;
+
+/**
+ * Terrain outline with an index built once per generation, so ground
+ * queries take constant time and allocate nothing.
+ * <p>
+ * Coordinates are in pixels with heights measured up from the bottom of the
+ * playing field, the same space as the lander position. Outside the outline
+ * the ground is at height 0.
+ */
+public class Terrain implements Ground {
+	/** width of the playing field in pixels */
+	private final int width;
+	private int nPoints;
+	/** outline vertices, left to right */
+	private int[] xs, heights;
+	/** vertex index at which the landing pad starts and ends */
+	private int nPadStart, nPadEnd;
+
+	/** ground height at each column, approached from the left and from the right */
+	private float[] hLeft, hRight;
+	/** index of the first vertex at or right of each column, {@link #nPoints} if none */
+	private int[] firstVertex;
+	/** sparse table: vertexMax[k][i] is the highest of vertices i to i + 2^k - 1 */
+	private int[][] vertexMax;
+	/** index of the last vertex of the level run starting at each vertex */
+	private int[] flatEnd;
+
+	public Terrain(int width) {
+		this.width = width;
+		hLeft = new float[width + 1];
+		hRight = new float[width + 1];
+		firstVertex = new int[width + 2];
+	}
+
+	/**
+	 * Generates a random outline and rebuilds the index.
+	 * @param points number of points across including two end-points (must be greater than one)
+	 * @param steepness maximum y-variation between points
+	 * @param padSize size of landing pad in points (less than points)
+	 * @param maxHeight maximum height of terrain
+	 */
+	public void generate(Random rand, int points, int steepness, int padSize, int maxHeight) {
+		/** point at which landing pad starts */
+		int nLandingStart;
+		/** number of pixels per point interval */
+		int nInc, nIncExtra;
+		int nDy, h = 5 + rand.nextInt(maxHeight);
+		if (xs == null || xs.length != points) {
+			xs = new int[points];
+			heights = new int[points];
+			flatEnd = new int[points];
+			vertexMax = new int[32 - Integer.numberOfLeadingZeros(points)][points];
+		}
+		nPoints = points;
+		nLandingStart = rand.nextInt(points - padSize) + 1;
+		nInc = width / (points - 1);
+		nIncExtra = width % (points - 1);
+		for (int i = 1; i <= points; i++) {
+			xs[i - 1] = ((i - 1) * nInc) + (((i - 1) * nIncExtra) / (points - 1));
+			heights[i - 1] = h;
+			if (i < nLandingStart || i >= nLandingStart + padSize) {
+				nDy = rand.nextInt(2 * steepness) - steepness;
+				if (h - nDy > 5 && h - nDy < maxHeight)
+					h = h - nDy;
+				else
+					h = h + nDy;
+			}
+		}
+		nPadStart = nLandingStart - 1;
+		nPadEnd = nPadStart + padSize;
+		buildIndex();
+	}
+
+	/**
+	 * Generates an outline that starts at {@code hStart} and ends at
+	 * {@code hEnd}, so that chunks generated side by side join up, and rebuilds
+	 * the index. The random walk is bent evenly across the intervals outside the
+	 * pad to meet the end height, then clamped to the height limits. The pad
+	 * never includes either end point.
+	 * @param points number of points across including two end-points (greater than padSize + 2)
+	 * @param steepness maximum y-variation between points
+	 * @param padSize size of landing pad in intervals
+	 * @param maxHeight maximum height of terrain
+	 */
+	public void generateChunk(Random rand, int points, int steepness, int padSize, int maxHeight,
+			int hStart, int hEnd) {
+		if (xs == null || xs.length != points) {
+			xs = new int[points];
+			heights = new int[points];
+			flatEnd = new int[points];
+			vertexMax = new int[32 - Integer.numberOfLeadingZeros(points)][points];
+		}
+		nPoints = points;
+		nPadStart = rand.nextInt(points - padSize - 2) + 1;
+		nPadEnd = nPadStart + padSize;
+		int nInc = width / (points - 1);
+		int nIncExtra = width % (points - 1);
+		/** intervals outside the pad, which take up the difference to hEnd */
+		int nFree = points - 1 - padSize;
+		int h = hStart;
+		heights[0] = h;
+		for (int i = 1; i < points; i++) {
+			if (i <= nPadStart || i > nPadEnd) h += rand.nextInt(2 * steepness) - steepness;
+			heights[i] = h;
+		}
+		long delta = hEnd - h;
+		int nStep = 0, nBend = 0;
+		for (int i = 1; i < points; i++) {
+			if (i <= nPadStart || i > nPadEnd) {
+				nStep++;
+				nBend = (int)(delta * nStep / nFree);
+			}
+			heights[i] += nBend;
+		}
+		for (int i = 0; i < points; i++) {
+			xs[i] = (i * nInc) + ((i * nIncExtra) / (points - 1));
+			if (i > 0 && i < points - 1) heights[i] = Math.max(5, Math.min(maxHeight, heights[i]));
+		}
+		buildIndex();
+	}
+
+	private void buildIndex() {
+		int column = 0;
+		for (int i = 0; i < nPoints; i++) {
+			int x = xs[i];
+			if (i > 0) {
+				int x0 = xs[i - 1], h0 = heights[i - 1];
+				for (; column < x; column++) {
+					float h = h0 + (float)(heights[i] - h0) * (column - x0) / (x - x0);
+					hLeft[column] = h;
+					hRight[column] = h;
+					firstVertex[column] = i;
+				}
+			}
+			if (column == x) {
+				hLeft[x] = heights[i];
+				firstVertex[x] = i;
+				column++;
+			}
+			hRight[x] = heights[i];
+		}
+		for (; column < firstVertex.length; column++) {
+			if (column <= width) hLeft[column] = hRight[column] = 0f;
+			firstVertex[column] = nPoints;
+		}
+		System.arraycopy(heights, 0, vertexMax[0], 0, nPoints);
+		for (int k = 1; k < vertexMax.length; k++) {
+			int[] prev = vertexMax[k - 1], row = vertexMax[k];
+			int half = 1 << (k - 1);
+			for (int i = 0; i + (1 << k) <= nPoints; i++)
+				row[i] = Math.max(prev[i], prev[i + half]);
+		}
+		flatEnd[nPoints - 1] = nPoints - 1;
+		for (int i = nPoints - 2; i >= 0; i--)
+			flatEnd[i] = heights[i] == heights[i + 1] ? flatEnd[i + 1] : i;
+	}
+
+	@Override
+	public float heightAt(float x) {
+		if (x < 0f || x > width) return 0f;
+		int c = (int)x;
+		float frac = x - c;
+		if (frac == 0f) return Math.max(hLeft[c], hRight[c]);
+		return hRight[c] + (hLeft[c + 1] - hRight[c]) * frac;
+	}
+
+	/**
+	 * Tests whether a footprint spanning {@code left} to {@code right} at height
+	 * {@code y} touches the ground. Vertices under the footprint count as touching
+	 * within one pixel.
+	 */
+	@Override
+	public boolean touches(float left, float right, float y) {
+		int a = firstVertexFrom(left), b = lastVertexTo(right);
+		if (a <= b && maxVertex(a, b) + 1 >= y) return true;
+		if (left >= 0f && left <= width && heightAt(left) >= y) return true;
+		return right >= 0f && right <= width && heightAt(right) >= y;
+	}
+
+	/**
+	 * Tests whether the ground under a footprint spanning {@code left} to
+	 * {@code right} is level, to the nearest pixel. A footprint reaching an edge
+	 * of the outline, where the ground drops to 0, is not level.
+	 */
+	@Override
+	public boolean isLevel(float left, float right) {
+		if (right < 0f || left > width) return true;
+		if (left <= 0f || right >= width) return false;
+		boolean bAny = false;
+		int level = 0;
+		if (left >= 0f && left <= width) {
+			level = Math.round(heightAt(left));
+			bAny = true;
+		}
+		if (right >= 0f && right <= width) {
+			int h = Math.round(heightAt(right));
+			if (bAny && h != level) return false;
+			level = h;
+			bAny = true;
+		}
+		int a = firstVertexFrom(left), b = lastVertexTo(right);
+		if (a <= b) {
+			if (flatEnd[a] < b) return false;
+			if (bAny && heights[a] != level) return false;
+		}
+		return true;
+	}
+
+	private int firstVertexFrom(float left) {
+		if (left <= 0f) return 0;
+		if (left > width) return nPoints;
+		return firstVertex[(int)Math.ceil(left)];
+	}
+
+	private int lastVertexTo(float right) {
+		if (right < 0f) return -1;
+		if (right >= width) return nPoints - 1;
+		return firstVertex[(int)right + 1] - 1;
+	}
+
+	/** @return highest of vertices {@code a} to {@code b} inclusive */
+	private int maxVertex(int a, int b) {
+		int k = 31 - Integer.numberOfLeadingZeros(b - a + 1);
+		return Math.max(vertexMax[k][a], vertexMax[k][b - (1 << k) + 1]);
+	}
+
+	/** @return height of the highest vertex; no ground is higher */
+	public int getMaxHeight() {
+		return maxVertex(0, nPoints - 1);
+	}
+
+	public int getPoints() {
+		return nPoints;
+	}
+
+	public int getX(int i) {
+		return xs[i];
+	}
+
+	public int getHeight(int i) {
+		return heights[i];
+	}
+
+	/** @return left edge of the landing pad in pixels */
+	public int getPadLeft() {
+		return xs[nPadStart];
+	}
+
+	/** @return right edge of the landing pad in pixels */
+	public int getPadRight() {
+		return xs[nPadEnd];
+	}
+
+	/** @return height of the landing pad in pixels */
+	public int getPadHeight() {
+		return heights[nPadStart];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+}
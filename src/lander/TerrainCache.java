@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * On-disk index of terrain evaluations for {@link TerrainSearch}, keyed by
+ * seed, terrain shape and a fingerprint of the controller and physics, so
+ * repeated or widened searches only fly terrains they have not seen.
+ * <p>
+ * The file is a magic number followed by fixed-size records, appended as
+ * flights finish. It is read into memory once when opened; a record cut
+ * short by an interrupted run is truncated away.
+ */
+public class TerrainCache implements Closeable {
+	private static final int MAGIC = 0x4C4E5449; // "LNTI"
+	private static final int HEADER_BYTES = 4;
+	/** seed, steepness, pad size, max height, points, context, end, fuel used, time, ticks */
+	static final int RECORD_BYTES = 8 + 2 + 2 + 2 + 2 + 4 + 1 + 4 + 4 + 4;
+
+	private final FileChannel channel;
+	private final HashMap<TerrainSearch.Candidate, TerrainSearch.Candidate> index =
+			new HashMap<TerrainSearch.Candidate, TerrainSearch.Candidate>();
+	private final ByteBuffer buffer = ByteBuffer.allocate(256 * RECORD_BYTES);
+	private int nAppended;
+
+	public TerrainCache(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = channel.size();
+		if (size < HEADER_BYTES) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).flip();
+			channel.truncate(0);
+			while (header.hasRemaining()) channel.write(header, 0);
+			size = HEADER_BYTES;
+		} else load(size);
+		long end = HEADER_BYTES + (size - HEADER_BYTES) / RECORD_BYTES * RECORD_BYTES;
+		if (end < size) channel.truncate(end);
+		channel.position(end);
+	}
+
+	/**
+	 * Reads the records through {@link #buffer} rather than mapping the
+	 * file, since a mapped file could not be truncated afterwards on every
+	 * platform.
+	 */
+	private void load(long size) throws IOException {
+		boolean bHeader = false;
+		for (long pos = 0; pos < size;) {
+			int n = channel.read(buffer, pos);
+			if (n < 0) break;
+			pos += n;
+			buffer.flip();
+			if (!bHeader && buffer.remaining() >= HEADER_BYTES) {
+				if (buffer.getInt() != MAGIC) {
+					channel.close();
+					throw new IOException("Not a terrain cache");
+				}
+				bHeader = true;
+			}
+			while (bHeader && buffer.remaining() >= RECORD_BYTES) {
+				TerrainSearch.Candidate candidate = new TerrainSearch.Candidate(buffer.getLong(),
+						buffer.getShort(), buffer.getShort(), buffer.getShort(), buffer.getShort(), buffer.getInt());
+				candidate.byEnd = buffer.get();
+				candidate.fFuelUsed = buffer.getFloat();
+				candidate.fTime = buffer.getFloat();
+				candidate.nTicks = buffer.getInt();
+				index.put(candidate, candidate);
+			}
+			buffer.compact();
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Fills in the outcome of {@code candidate} if it has been flown before.
+	 * @return false if it has not
+	 */
+	public synchronized boolean lookup(TerrainSearch.Candidate candidate) {
+		TerrainSearch.Candidate cached = index.get(candidate);
+		if (cached == null) return false;
+		candidate.byEnd = cached.byEnd;
+		candidate.fFuelUsed = cached.fFuelUsed;
+		candidate.fTime = cached.fTime;
+		candidate.nTicks = cached.nTicks;
+		return true;
+	}
+
+	/** Adds flown candidates to the index and appends them to the file. */
+	public synchronized void add(List<TerrainSearch.Candidate> candidates) throws IOException {
+		for (TerrainSearch.Candidate candidate : candidates) {
+			if (index.put(candidate, candidate) != null) continue;
+			if (buffer.remaining() < RECORD_BYTES) flush();
+			buffer.putLong(candidate.nSeed)
+					.putShort((short)candidate.nSteepness)
+					.putShort((short)candidate.nPadSize)
+					.putShort((short)candidate.nMaxHeight)
+					.putShort((short)candidate.nPoints)
+					.putInt(candidate.nContext)
+					.put(candidate.byEnd)
+					.putFloat(candidate.fFuelUsed)
+					.putFloat(candidate.fTime)
+					.putInt(candidate.nTicks);
+			nAppended++;
+		}
+		flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/** @return evaluations in the index */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/** @return evaluations appended since the cache was opened */
+	public synchronized int getAppended() {
+		return nAppended;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Searches for hard terrain to curate levels from: flies a reference
+ * controller over every combination of seed and terrain shape, split across
+ * all cores with fork/join like {@link FlightEvaluator}, and ranks the
+ * shapes by how often the controller fails on them and the terrains it does
+ * land on by the fuel they cost. Outcomes are kept in a {@link TerrainCache}
+ * when one is given, so reruns only fly new candidates.
+ * <p>
+ * Usage: {@code TerrainSearch [seeds=FIRST:COUNT] [steepness=N,...] [pad=N,...]
+ * [height=N,...] [cache=FILE] [top=N] [name=value ...]} where each name is one
+ * of {@link LanderPhysics#NAMES}.
+ */
+public class TerrainSearch {
+	/** candidates flown by one task before it stops splitting */
+	private static final int CANDIDATES_PER_TASK = 64;
+
+	private final ForkJoinPool pool;
+	private final LanderController controller;
+	private final LanderPhysics physics;
+	/** fingerprint of the controller and physics, part of each cache key */
+	private final int nContext;
+	private TerrainCache cache;
+	/** candidates flown, rather than found in the cache, by the last search */
+	private int nFlown;
+
+	public TerrainSearch(LanderController controller, LanderPhysics physics) {
+		this(controller, physics, new ForkJoinPool());
+	}
+
+	public TerrainSearch(LanderController controller, LanderPhysics physics, ForkJoinPool pool) {
+		this.controller = controller;
+		this.physics = physics.copy();
+		this.pool = pool;
+		nContext = (controller.getClass().getName() + '\n' + physics).hashCode();
+	}
+
+	/** Sets where outcomes are looked up and stored, or null to fly every candidate. */
+	public void setCache(TerrainCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Flies every seed from {@code firstSeed} to {@code firstSeed + count - 1}
+	 * on every combination of the given shapes.
+	 * @return the candidates with their outcomes, shape by shape in seed order
+	 * @see LanderEngine#setTerrainShape(int, int, int)
+	 */
+	public Candidate[] search(long firstSeed, int count, int[] steepnesses, int[] padSizes, int[] maxHeights)
+			throws IOException {
+		LanderEngine probe = new LanderEngine();
+		int points = probe.getGroundPoints() - 2;
+		Candidate[] candidates = new Candidate[count * steepnesses.length * padSizes.length * maxHeights.length];
+		int n = 0;
+		for (int steepness : steepnesses) {
+			for (int padSize : padSizes) {
+				for (int maxHeight : maxHeights) {
+					if (steepness < 1 || padSize < 1 || padSize > points - 2 || maxHeight <= 5
+							|| maxHeight >= probe.getHeight()) {
+						throw new IllegalArgumentException("Invalid terrain shape: steepness " + steepness
+								+ ", pad " + padSize + ", height " + maxHeight);
+					}
+					for (int i = 0; i < count; i++) {
+						candidates[n++] = new Candidate(firstSeed + i, steepness, padSize, maxHeight, points, nContext);
+					}
+				}
+			}
+		}
+		nFlown = 0;
+		try {
+			pool.invoke(new CandidateRange(candidates, 0, candidates.length));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return candidates;
+	}
+
+	/** @return candidates the last search flew rather than found in the cache */
+	public int getFlown() {
+		return nFlown;
+	}
+
+	private synchronized void flown(List<Candidate> candidates) throws IOException {
+		nFlown += candidates.size();
+		if (cache != null) cache.add(candidates);
+	}
+
+	/** A terrain to evaluate, identified by seed and shape, and its outcome once flown. */
+	static class Candidate {
+		final long nSeed;
+		final int nSteepness, nPadSize, nMaxHeight, nPoints, nContext;
+		/** one of the LanderEngine.END_* reasons, or 0 if the flight never finished */
+		byte byEnd;
+		float fFuelUsed, fTime;
+		int nTicks;
+
+		Candidate(long seed, int steepness, int padSize, int maxHeight, int points, int context) {
+			nSeed = seed;
+			nSteepness = steepness;
+			nPadSize = padSize;
+			nMaxHeight = maxHeight;
+			nPoints = points;
+			nContext = context;
+		}
+
+		boolean isSafe() {
+			return byEnd == LanderEngine.END_SAFE;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Candidate)) return false;
+			Candidate other = (Candidate)o;
+			return nSeed == other.nSeed && nSteepness == other.nSteepness && nPadSize == other.nPadSize
+					&& nMaxHeight == other.nMaxHeight && nPoints == other.nPoints && nContext == other.nContext;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = (int)(nSeed ^ (nSeed >>> 32));
+			h = 31 * h + nSteepness;
+			h = 31 * h + nPadSize;
+			h = 31 * h + nMaxHeight;
+			h = 31 * h + nPoints;
+			return 31 * h + nContext;
+		}
+	}
+
+	private class CandidateRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Candidate[] candidates;
+		private final int from, to;
+
+		CandidateRange(Candidate[] candidates, int from, int to) {
+			this.candidates = candidates;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CANDIDATES_PER_TASK) {
+				List<Candidate> flown = new ArrayList<Candidate>();
+				LanderEngine engine = new LanderEngine();
+				engine.setPhysics(physics);
+				for (int i = from; i < to; i++) {
+					Candidate candidate = candidates[i];
+					if (cache != null && cache.lookup(candidate)) continue;
+					engine.setTerrainShape(candidate.nSteepness, candidate.nPadSize, candidate.nMaxHeight);
+					FlightEvaluator.fly(engine, controller, candidate.nSeed);
+					candidate.byEnd = engine.getEndGameState();
+					candidate.fFuelUsed = physics.fInitFuel - engine.getFuel();
+					candidate.fTime = engine.getFlightTime();
+					candidate.nTicks = engine.getFlightTicks();
+					flown.add(candidate);
+				}
+				try {
+					flown(flown);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new CandidateRange(candidates, from, mid), new CandidateRange(candidates, mid, to));
+		}
+	}
+
+	private static int[] parseInts(String value) {
+		String[] parts = value.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+
+	public static void main(String[] args) throws IOException {
+		long firstSeed = 0;
+		int count = 10000, top = 20;
+		LanderEngine defaults = new LanderEngine();
+		int[] steepnesses = {defaults.getSteepness()};
+		int[] padSizes = {defaults.getPadSize()};
+		int[] maxHeights = {defaults.getMaxHeight()};
+		String cacheFile = null;
+		LanderPhysics physics = new LanderPhysics();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + arg);
+			String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+			if (name.equals("seeds")) {
+				int colon = value.indexOf(':');
+				firstSeed = Long.parseLong(value.substring(0, colon));
+				count = Integer.parseInt(value.substring(colon + 1));
+			} else if (name.equals("steepness")) steepnesses = parseInts(value);
+			else if (name.equals("pad")) padSizes = parseInts(value);
+			else if (name.equals("height")) maxHeights = parseInts(value);
+			else if (name.equals("cache")) cacheFile = value;
+			else if (name.equals("top")) top = Integer.parseInt(value);
+			else physics.set(name, Float.parseFloat(value));
+		}
+		TerrainSearch search = new TerrainSearch(new Autopilot(), physics);
+		TerrainCache cache = cacheFile != null ? new TerrainCache(new File(cacheFile)) : null;
+		search.setCache(cache);
+		long start = System.nanoTime();
+		Candidate[] candidates;
+		try {
+			candidates = search.search(firstSeed, count, steepnesses, padSizes, maxHeights);
+		} finally {
+			if (cache != null) cache.close();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		// Shapes by failure rate, hardest first
+		Map<String, long[]> shapes = new LinkedHashMap<String, long[]>();
+		Map<String, double[]> fuel = new LinkedHashMap<String, double[]>();
+		for (Candidate candidate : candidates) {
+			String shape = String.format("%9d %4d %6d", candidate.nSteepness, candidate.nPadSize, candidate.nMaxHeight);
+			long[] counts = shapes.get(shape);
+			if (counts == null) {
+				shapes.put(shape, counts = new long[2]);
+				fuel.put(shape, new double[1]);
+			}
+			counts[0]++;
+			if (!candidate.isSafe()) counts[1]++;
+			fuel.get(shape)[0] += candidate.fFuelUsed;
+		}
+		List<Map.Entry<String, long[]>> ranked = new ArrayList<Map.Entry<String, long[]>>(shapes.entrySet());
+		Collections.sort(ranked, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+				return Double.compare((double)b.getValue()[1] / b.getValue()[0], (double)a.getValue()[1] / a.getValue()[0]);
+			}
+		});
+		System.out.println(physics);
+		System.out.println("steepness  pad height  failed  fuel used");
+		for (Map.Entry<String, long[]> entry : ranked) {
+			long[] counts = entry.getValue();
+			System.out.printf("%s %6.2f%% %10.2f%n", entry.getKey(), 100.0 * counts[1] / counts[0],
+					fuel.get(entry.getKey())[0] / counts[0]);
+		}
+
+		// Terrains landed on, costliest first
+		Candidate[] landed = new Candidate[candidates.length];
+		int nLanded = 0;
+		for (Candidate candidate : candidates) {
+			if (candidate.isSafe()) landed[nLanded++] = candidate;
+		}
+		landed = Arrays.copyOf(landed, nLanded);
+		Arrays.sort(landed, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate a, Candidate b) {
+				return Float.compare(b.fFuelUsed, a.fFuelUsed);
+			}
+		});
+		System.out.printf("%nhardest landable terrains:%n%20s steepness  pad height  fuel used  time%n", "seed");
+		for (int i = 0; i < Math.min(top, nLanded); i++) {
+			Candidate candidate = landed[i];
+			System.out.printf("%20d %9d %4d %6d %10.2f %5.1f%n", candidate.nSeed, candidate.nSteepness,
+					candidate.nPadSize, candidate.nMaxHeight, candidate.fFuelUsed, candidate.fTime);
+		}
+		System.out.printf("%n%d terrains, %d flown, %d cached, in %.2f s on %d threads%n", candidates.length,
+				search.getFlown(), candidates.length - search.getFlown(), elapsed / 1e9, search.pool.getParallelism());
+	}
+}
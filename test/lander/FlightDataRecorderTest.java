@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Floods a tiny {@link FlightDataRecorder} ring with whole flights: the
+ * rows written must be exactly the ticks it accepted, in order, and the
+ * tick that ends the flight must never be thinned out.
+ */
+public class FlightDataRecorderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** the rows accepted by the recorder, by flight and tick */
+	private final HashMap<Long, float[]> kept = new HashMap<Long, float[]>();
+
+	private static long key(int flight, int tick) {
+		return ((long)flight << 32) | tick;
+	}
+
+	/**
+	 * Flies flight {@code flight} with the autopilot, recording every tick.
+	 * @return the tick that ended the flight
+	 */
+	private int fly(FlightDataRecorder recorder, int flight) {
+		LanderEngine engine = new LanderEngine();
+		Autopilot autopilot = new Autopilot();
+		engine.newGame(flight);
+		engine.step(0);
+		engine.launch();
+		while (engine.getState() == LanderEngine.LND_ACTIVE) {
+			int inputs = autopilot.control(engine);
+			engine.step(inputs);
+			if (recorder.record(flight, engine.getFlightTicks(), engine, inputs)) {
+				kept.put(key(flight, engine.getFlightTicks()), new float[] {engine.getAltitude(),
+						engine.getVelocityX(), engine.getVelocityY(), engine.getFuel(), inputs});
+			}
+		}
+		return engine.getFlightTicks();
+	}
+
+	@Test
+	public void floodedRingKeepsTheEndOfAFlight() throws IOException {
+		File file = folder.newFile("flight.lnfd");
+		FlightDataRecorder recorder = new FlightDataRecorder(file, 8);
+		int end = fly(recorder, 1);
+		recorder.close();
+		assertEquals(end, recorder.getOffered());
+		assertEquals(recorder.getOffered() - recorder.getSkipped(), kept.size());
+		assertTrue(kept.containsKey(key(1, end)));
+
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		int rows = 0, lastTick = 0;
+		while (in.hasRemaining()) {
+			assertEquals(FlightDataRecorder.MAGIC, in.getInt());
+			int n = in.getInt(), p = in.position();
+			for (int i = 0; i < n; i++) {
+				int tick = in.getInt(p + 4 * n + 4 * i);
+				assertEquals(1, in.getInt(p + 4 * i));
+				assertTrue(tick > lastTick);
+				lastTick = tick;
+				float[] expected = kept.get(key(1, tick));
+				assertNotNull("tick " + tick, expected);
+				assertArrayEquals(expected, new float[] {in.getFloat(p + 8 * n + 4 * i),
+						in.getFloat(p + 12 * n + 4 * i), in.getFloat(p + 16 * n + 4 * i),
+						in.getFloat(p + 20 * n + 4 * i), in.get(p + 24 * n + i)}, 0f);
+			}
+			rows += n;
+			in.position(p + 25 * n);
+		}
+		assertEquals(kept.size(), rows);
+		assertEquals(end, lastTick);
+	}
+
+	@Test
+	public void csvHasAHeaderAndOneLinePerRow() throws IOException {
+		File file = folder.newFile("flight.csv");
+		FlightDataRecorder recorder = new FlightDataRecorder(file, 8);
+		int end = fly(recorder, 2);
+		recorder.close();
+		assertTrue(kept.containsKey(key(2, end)));
+		List<String> lines = Files.readAllLines(file.toPath());
+		assertEquals("flight,tick,altitude,vx,vy,fuel,inputs", lines.get(0));
+		assertEquals(kept.size() + 1, lines.size());
+		assertTrue(lines.get(lines.size() - 1).startsWith("2," + end + ","));
+	}
+}
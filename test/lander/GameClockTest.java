@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Checks how {@link GameClock} credits stalls, runs of stalls and a slowed frame rate. */
+public class GameClockTest {
+	private static final long TICK = 50000000L;
+
+	/** the time the clock reads, advanced by the tests */
+	private long time = 1000000000L;
+
+	private final GameClock clock = new GameClock(2 * TICK, 2 * TICK) {
+		@Override
+		protected long read() {
+			return time;
+		}
+	};
+
+	private long frame(long interval) {
+		time += interval;
+		return clock.frame();
+	}
+
+	private void settle(long interval) {
+		for (int i = 0; i < 64; i++) assertEquals(interval, frame(interval));
+	}
+
+	@Test
+	public void creditsNormalFramesInFull() {
+		settle(TICK / 3);
+		assertEquals(TICK / 3, clock.getSmoothedInterval());
+		assertEquals(0, clock.getStalls());
+	}
+
+	@Test
+	public void capsAStall() {
+		settle(TICK / 3);
+		assertEquals(2 * TICK, frame(1000000000L));
+		assertEquals(1, clock.getStalls());
+		assertEquals(1000000000L, clock.getLastInterval());
+		// Left out of the average
+		assertEquals(TICK / 3, clock.getSmoothedInterval());
+		assertEquals(TICK / 3, frame(TICK / 3));
+	}
+
+	@Test
+	public void ignoresShortOutliers() {
+		settle(TICK / 100);
+		assertEquals(TICK, frame(TICK));
+		assertEquals(0, clock.getStalls());
+	}
+
+	@Test
+	public void startsOverAfterARunOfStalls() {
+		settle(TICK / 3);
+		for (int i = 0; i < 3; i++) assertEquals(2 * TICK, frame(1000000000L));
+		assertEquals(3, clock.getStalls());
+		// The fourth is taken as the new frame rate, but still capped
+		assertEquals(2 * TICK, frame(1000000000L));
+		assertEquals(3, clock.getStalls());
+		assertEquals(1000000000L, clock.getSmoothedInterval());
+		assertEquals(1000000000L, frame(1000000000L));
+		assertEquals(3, clock.getStalls());
+	}
+
+	@Test
+	public void restartSkipsTimeStopped() {
+		settle(TICK / 3);
+		time += 60000000000L;
+		clock.restart();
+		assertEquals(TICK / 3, frame(TICK / 3));
+		assertEquals(0, clock.getStalls());
+	}
+}
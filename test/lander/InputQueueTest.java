@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Checks how {@link InputQueue#drain(long, long, int[], LatencyHistogram)} turns events into duty. */
+public class InputQueueTest {
+	private static final long TICK = 50000000L;
+	private static final int FULL = Replay.DUTY_STEPS;
+	private static final int MAIN = LanderEngine.INPUT_MAIN, LEFT = LanderEngine.INPUT_LEFT;
+
+	private final InputQueue queue = new InputQueue(16);
+	private final int[] duty = new int[InputQueue.THRUSTERS.length];
+
+	/** @return duty steps for a thruster held {@code fraction} of a tick */
+	private static int steps(double fraction) {
+		return (int)Math.round(fraction * FULL);
+	}
+
+	/** Drains tick {@code n}, from {@code n * TICK} to {@code (n + 1) * TICK}. */
+	private int drain(int n) {
+		return queue.drain(n * TICK, (n + 1) * TICK, duty, null);
+	}
+
+	@Test
+	public void idleTickFiresNothing() {
+		assertEquals(0, drain(0));
+		assertArrayEquals(new int[] {0, 0, 0}, duty);
+	}
+
+	@Test
+	public void tapInsideOneTickBurnsForItsLength() {
+		queue.offer(MAIN, true, TICK / 4);
+		queue.offer(MAIN, false, TICK * 3 / 4);
+		assertEquals(MAIN, drain(0));
+		assertArrayEquals(new int[] {steps(0.5), 0, 0}, duty);
+		assertEquals(0, queue.getHeld());
+	}
+
+	@Test
+	public void briefTapGetsOneStep() {
+		queue.offer(LEFT, true, TICK / 2);
+		queue.offer(LEFT, false, TICK / 2 + 1);
+		assertEquals(LEFT, drain(0));
+		assertArrayEquals(new int[] {0, 1, 0}, duty);
+	}
+
+	@Test
+	public void holdAcrossTicks() {
+		queue.offer(MAIN, true, TICK / 2);
+		assertEquals(MAIN, drain(0));
+		assertArrayEquals(new int[] {steps(0.5), 0, 0}, duty);
+		assertEquals(MAIN, queue.getHeld());
+		assertEquals(MAIN, drain(1));
+		assertArrayEquals(new int[] {FULL, 0, 0}, duty);
+		queue.offer(MAIN, false, 2 * TICK + TICK / 4);
+		assertEquals(MAIN, drain(2));
+		assertArrayEquals(new int[] {steps(0.25), 0, 0}, duty);
+		assertEquals(0, drain(3));
+		assertArrayEquals(new int[] {0, 0, 0}, duty);
+	}
+
+	@Test
+	public void keyRepeatDoesNotRestartAHold() {
+		queue.offer(MAIN, true, 0);
+		queue.offer(MAIN, true, TICK / 2);
+		queue.offer(MAIN, true, TICK * 3 / 4);
+		assertEquals(MAIN, drain(0));
+		assertArrayEquals(new int[] {FULL, 0, 0}, duty);
+		queue.offer(MAIN, true, TICK + TICK / 2);
+		queue.offer(MAIN, false, TICK + TICK * 3 / 4);
+		assertEquals(MAIN, drain(1));
+		assertArrayEquals(new int[] {steps(0.75), 0, 0}, duty);
+	}
+
+	@Test
+	public void lateEventsCountFromTheTickStart() {
+		queue.offer(MAIN, true, TICK / 2);
+		assertEquals(MAIN, drain(0));
+		// Stamped before the tick started but only drained now
+		queue.offer(MAIN, false, TICK - 1);
+		queue.offer(LEFT, true, TICK - 1);
+		assertEquals(MAIN | LEFT, drain(1));
+		assertArrayEquals(new int[] {1, FULL, 0}, duty);
+		assertEquals(LEFT, queue.getHeld());
+	}
+
+	@Test
+	public void eventsAfterTheTickWait() {
+		queue.offer(MAIN, true, TICK + TICK / 2);
+		assertEquals(0, drain(0));
+		assertEquals(MAIN, drain(1));
+		assertArrayEquals(new int[] {steps(0.5), 0, 0}, duty);
+	}
+
+	@Test
+	public void dropsWhenFull() {
+		for (int i = 0; i < 16; i++) assertTrue(queue.offer(MAIN, i % 2 == 0, i));
+		assertFalse(queue.offer(MAIN, true, 16));
+		assertEquals(1, queue.getDropped());
+		drain(0);
+		assertTrue(queue.offer(MAIN, true, TICK + 1));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/** Pins the serialized form of {@link Replay}: packed inputs, partial ticks and version 1. */
+public class ReplayTest {
+	private static final long SEED = 42;
+
+	/** Flies the autopilot, recording every seventh flying tick as partial thrust. */
+	private static Replay record() {
+		LanderEngine engine = new LanderEngine();
+		Autopilot autopilot = new Autopilot();
+		ReplayRecorder recorder = new ReplayRecorder();
+		engine.newGame(SEED);
+		engine.step(0);
+		engine.launch();
+		recorder.begin(engine);
+		for (int tick = 0; !engine.isFinished(); tick++) {
+			int inputs = autopilot.control(engine);
+			if (engine.getState() != LanderEngine.LND_ACTIVE) engine.step(inputs);
+			else if (tick % 7 == 3) {
+				int main = 50 + tick % 200, side = 255 - tick % 100;
+				recorder.record(inputs, main, side, side);
+				engine.step(inputs, Replay.duty(main), Replay.duty(side), Replay.duty(side));
+			} else {
+				recorder.record(inputs);
+				engine.step(inputs);
+			}
+		}
+		return recorder.finish(engine);
+	}
+
+	private static Replay roundTrip(Replay replay) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(replay.size());
+		replay.write(buf);
+		assertEquals(0, buf.remaining());
+		buf.flip();
+		Replay read = Replay.read(buf);
+		assertEquals(0, buf.remaining());
+		return read;
+	}
+
+	@Test
+	public void roundTripKeepsEveryTick() throws IOException {
+		Replay replay = record();
+		assertTrue(replay.partialTicks.length > 0);
+		Replay read = roundTrip(replay);
+		assertEquals(SEED, read.getSeed());
+		assertEquals(replay.getTicks(), read.getTicks());
+		assertEquals(replay.getEndGameState(), read.getEndGameState());
+		for (int tick = 0; tick < replay.getTicks(); tick++) assertEquals(replay.getInput(tick), read.getInput(tick));
+		assertArrayEquals(replay.partialTicks, read.partialTicks);
+		assertArrayEquals(replay.partialDuties, read.partialDuties);
+		assertTrue(replay.play(new LanderEngine()));
+		assertTrue(read.play(new LanderEngine()));
+	}
+
+	@Test
+	public void inputsPackAcrossByteBoundaries() throws IOException {
+		LanderEngine engine = new LanderEngine();
+		engine.newGame(SEED);
+		engine.step(0);
+		ReplayRecorder recorder = new ReplayRecorder();
+		recorder.begin(engine);
+		// Every combination of bits at every offset within a byte
+		for (int tick = 0; tick < 1000; tick++) recorder.record((tick * 5 + tick / 8) & 7);
+		Replay read = roundTrip(recorder.finish(engine));
+		assertEquals(Replay.inputBytes(1000), read.inputs.length);
+		for (int tick = 0; tick < 1000; tick++) assertEquals((tick * 5 + tick / 8) & 7, read.getInput(tick));
+	}
+
+	@Test
+	public void readsVersion1() throws IOException {
+		LanderEngine engine = new LanderEngine();
+		Autopilot autopilot = new Autopilot();
+		ReplayRecorder recorder = new ReplayRecorder();
+		engine.newGame(SEED);
+		engine.step(0);
+		engine.launch();
+		recorder.begin(engine);
+		while (!engine.isFinished()) {
+			int inputs = autopilot.control(engine);
+			if (engine.getState() == LanderEngine.LND_ACTIVE) recorder.record(inputs);
+			engine.step(inputs);
+		}
+		Replay replay = recorder.finish(engine);
+		// Version 1 is version 2 without the count of partial ticks
+		ByteBuffer buf = ByteBuffer.allocate(replay.size());
+		replay.write(buf);
+		buf.put(Replay.VERSION_OFFSET, (byte)1);
+		buf.flip();
+		buf.limit(buf.limit() - 4);
+		Replay read = Replay.read(buf);
+		assertEquals(0, read.partialTicks.length);
+		assertTrue(read.play(new LanderEngine()));
+	}
+
+	@Test
+	public void rejectsTruncatedReplays() {
+		Replay replay = record();
+		ByteBuffer buf = ByteBuffer.allocate(replay.size());
+		replay.write(buf);
+		for (int cut : new int[] {Replay.HEADER_BYTES - 1, Replay.HEADER_BYTES + 1, replay.size() - 1}) {
+			ByteBuffer truncated = ByteBuffer.wrap(buf.array(), 0, cut);
+			try {
+				Replay.read(truncated);
+				fail("Read a replay cut to " + cut + " bytes");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+}
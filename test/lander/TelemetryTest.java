@@ -0,0 +1,179 @@
+/*
+ * Copyright 2011 Mark Injerd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lander;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Pins the telemetry stream format: snapshots survive the encoder and
+ * {@link TelemetryReader} within their quanta, and a reader that starts
+ * mid-stream, meets a damaged block or hits a truncated tail only ever
+ * returns true snapshots.
+ */
+public class TelemetryTest {
+	private static final int FLIGHTS = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** every encoded snapshot, by {@link #key(FlightSnapshot)} */
+	private final HashMap<Long, FlightSnapshot> truth = new HashMap<Long, FlightSnapshot>();
+	/** the start of each block in {@link #stream} */
+	private final List<Integer> blocks = new ArrayList<Integer>();
+	/** the records in each block */
+	private final List<Integer> blockRecords = new ArrayList<Integer>();
+	private byte[] stream;
+
+	private static long key(FlightSnapshot s) {
+		return ((long)s.nFlight << 32) | s.nTick;
+	}
+
+	/** Flies {@link #FLIGHTS} autopilot flights side by side, writing one block per tick. */
+	@Before
+	public void encode() {
+		LanderEngine[] engines = new LanderEngine[FLIGHTS];
+		Autopilot[] pilots = new Autopilot[FLIGHTS];
+		for (int i = 0; i < FLIGHTS; i++) {
+			engines[i] = new LanderEngine();
+			pilots[i] = new Autopilot();
+			engines[i].newGame(100 + i);
+			engines[i].step(0);
+			engines[i].launch();
+		}
+		Telemetry.Encoder encoder = new Telemetry.Encoder();
+		ByteBuffer out = ByteBuffer.allocate(1 << 22);
+		ByteBuffer block = ByteBuffer.allocate(Telemetry.MAX_BLOCK);
+		boolean bFlying = true;
+		for (int tick = 0; bFlying && tick < FlightEvaluator.MAX_TICKS; tick++) {
+			bFlying = false;
+			block.clear();
+			block.position(Telemetry.BLOCK_HEADER);
+			int records = 0;
+			for (int i = 0; i < FLIGHTS; i++) {
+				if (engines[i].isFinished()) continue;
+				bFlying = true;
+				int inputs = pilots[i].control(engines[i]);
+				FlightSnapshot s = new FlightSnapshot();
+				s.capture(i, tick, engines[i], inputs);
+				encoder.encode(s, block);
+				truth.put(key(s), s);
+				records++;
+				engines[i].step(inputs);
+			}
+			if (records == 0) break;
+			block.putInt(0, Telemetry.SYNC);
+			block.put(4, Telemetry.VERSION);
+			block.putInt(5, block.position() - Telemetry.BLOCK_HEADER);
+			block.flip();
+			blocks.add(out.position());
+			blockRecords.add(records);
+			out.put(block);
+		}
+		stream = Arrays.copyOf(out.array(), out.position());
+	}
+
+	private File write(byte[] bytes) throws IOException {
+		File file = folder.newFile();
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(bytes);
+		} finally {
+			fos.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Reads a stream, checking each snapshot against the one encoded.
+	 * @return the snapshots read
+	 */
+	private int read(TelemetryReader reader) throws IOException {
+		FlightSnapshot s = new FlightSnapshot();
+		int count = 0;
+		try {
+			while (reader.next(s)) {
+				FlightSnapshot expected = truth.get(key(s));
+				assertNotNull("flight " + s.nFlight + " tick " + s.nTick, expected);
+				assertEquals(expected.nSeed, s.nSeed);
+				assertEquals(expected.byState, s.byState);
+				assertEquals(expected.nSprite, s.nSprite);
+				assertEquals(expected.nInputs, s.nInputs);
+				assertEquals(expected.landerX, s.landerX, 0.5f / 64);
+				assertEquals(expected.landerY, s.landerY, 0.5f / 64);
+				assertEquals(expected.landerVx, s.landerVx, 0.005f);
+				assertEquals(expected.landerVy, s.landerVy, 0.005f);
+				assertEquals(expected.fFuel, s.fFuel, 0.005f);
+				count++;
+			}
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	@Test
+	public void roundTripKeepsEverySnapshot() throws IOException {
+		TelemetryReader reader = new TelemetryReader(write(stream));
+		assertEquals(truth.size(), read(reader));
+		assertEquals(blocks.size(), reader.getBlocks());
+		assertEquals(0, reader.getSkipped());
+	}
+
+	@Test
+	public void startsMidStream() throws IOException {
+		int from = blocks.get(blocks.size() / 3) + 3;
+		TelemetryReader reader = new TelemetryReader(write(stream), from);
+		int count = read(reader);
+		assertTrue(reader.getSkipped() > 0);
+		assertTrue(count > 0 && count < truth.size());
+	}
+
+	@Test
+	public void resyncsPastADamagedBlock() throws IOException {
+		byte[] damaged = stream.clone();
+		int block = blocks.size() / 2;
+		damaged[blocks.get(block)] ^= 0x55;
+		TelemetryReader reader = new TelemetryReader(write(damaged));
+		int count = read(reader);
+		assertTrue(reader.getSkipped() > 0);
+		assertEquals(blocks.size() - 1, reader.getBlocks());
+		assertTrue(count <= truth.size() - blockRecords.get(block));
+	}
+
+	@Test
+	public void stopsAtATruncatedBlock() throws IOException {
+		int last = blocks.size() - 1;
+		TelemetryReader reader = new TelemetryReader(write(Arrays.copyOf(stream, stream.length - 1)));
+		assertEquals(truth.size() - blockRecords.get(last), read(reader));
+		assertEquals(last, reader.getBlocks());
+	}
+}